@@ -0,0 +1,358 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * Benchmark measures how long (and how much memory) building a graph, searching it and rendering a Path take,
+ * so that every change to their performance can be judged against the numbers we last checked in. A graph is built
+ * both warm (generateGraph, from the GraphSnapshot it keeps) and cold: by compiling the csv file into a GraphSnapshot
+ * (reading it, compiling its rules and ordering every line), as the first run after the csv file changes does, and
+ * by loading a snapshot written to a file, as every run after that does.
+ *
+ * Every benchmark runs over a fixed workload: every service period (the start of every Window, on a weekday and
+ * on a weekend), and the same origins and destinations, picked from the csv file with a fixed seed. Each one runs
+ * in JVMs of its own (so the JIT does not carry what it learned from one into the next), is warmed up for a few
+ * seconds, then measured for a few rounds. We report the (median) time per call and the bytes allocated per call,
+ * as counted by the JVM for our thread.
+ *
+ * Usage: java Benchmark [--save] [--no-fork] [name ...]
+ *
+ * Results are compared against benchmark.baseline (if it exists), and we exit with 1 if any benchmark has
+ * regressed by more than TOLERANCE. --save writes the results as the new baseline instead, which is to be done by
+ * every change that moves a benchmark.
+ */
+public class Benchmark {
+	public static final String[] BENCHMARKS = { "generateGraph", "GraphSnapshot.compile", "GraphSnapshot.load", "dijkstras", "shortestWalkPath", "Path.toString" };
+	public static final File BASELINE = new File("benchmark.baseline");
+
+	/**
+	 * How much slower (or how many more bytes) than the baseline a benchmark may be before it has regressed.
+	 */
+	public static final double TOLERANCE = 0.15;
+
+	private static final int PAIRS = 32, SEED = 20240101;
+	private static final int FORKS = 5, WARMUP = 5, ROUNDS = 20;
+	private static final long ROUND_NANOS = 250_000_000L, WARMUP_NANOS = 10_000_000_000L;
+
+	// Keeps the results of every call, so that none of them can be optimized away.
+	private static volatile long sink;
+
+	/**
+	 * A single call of a benchmark, the index-th case of its workload.
+	 */
+	interface Call {
+		long run(int index);
+	}
+
+	record Result(String name, double nanos, double error, double bytes) {
+		String line() {
+			return String.format(Locale.ROOT, "%s\t%.1f\t%.1f\t%.1f", this.name, this.nanos, this.error, this.bytes);
+		}
+		static Result parse(String line) {
+			String[] split = line.split("\t");
+			return new Result(split[0], Double.parseDouble(split[1]), Double.parseDouble(split[2]), Double.parseDouble(split[3]));
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		boolean save = false, fork = true;
+		List<String> names = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--save": save = true; break;
+				case "--no-fork": fork = false; break;
+				case "--child":
+					// We are the forked JVM of a single benchmark.
+					System.out.println(run(args[i + 1]).line());
+					return;
+				default: names.add(args[i]);
+			}
+		}
+		if (names.isEmpty()) {
+			names.addAll(List.of(BENCHMARKS));
+		}
+
+		List<Result> results = new ArrayList<>();
+		for (String name : names) {
+			Result result = fork ? fork(name) : run(name);
+			results.add(result);
+			System.out.println(String.format(Locale.ROOT, "%-22s %12.1f ns/call (+- %.1f) %12.1f B/call", result.name(), result.nanos(), result.error(), result.bytes()));
+		}
+
+		if (save) {
+			try (PrintWriter writer = new PrintWriter(BASELINE)) {
+				writer.println("# name\tns/call\terror\tbytes/call");
+				writer.println("# " + System.getProperty("java.vm.name") + " " + System.getProperty("java.version") + ", " + Runtime.getRuntime().availableProcessors() + " processor(s), " + System.getProperty("os.arch"));
+				results.forEach(result -> writer.println(result.line()));
+			}
+			System.out.println("\nSaved as " + BASELINE + ".");
+		} else if (BASELINE.isFile() && !compare(results)) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Compare our results against the baseline.
+	 *
+	 * @return true, if no benchmark has regressed, false otherwise
+	 */
+	private static boolean compare(List<Result> results) throws IOException {
+		Map<String, Result> baseline = new LinkedHashMap<>();
+		for (String line : Files.readAllLines(BASELINE.toPath())) {
+			if (!line.isBlank() && !line.startsWith("#")) {
+				Result result = Result.parse(line);
+				baseline.put(result.name(), result);
+			}
+		}
+
+		boolean passed = true;
+		System.out.println("\nAgainst " + BASELINE + ":");
+
+		for (Result result : results) {
+			Result base = baseline.get(result.name());
+			if (base == null) {
+				System.out.println(String.format(Locale.ROOT, "%-22s no baseline", result.name()));
+				continue;
+			}
+			double time = result.nanos() / base.nanos() - 1, bytes = base.bytes() == 0 ? 0 : result.bytes() / base.bytes() - 1;
+			boolean regressed = time > TOLERANCE || bytes > TOLERANCE;
+
+			System.out.println(String.format(Locale.ROOT, "%-22s %+7.1f%% time %+7.1f%% bytes%s", result.name(), 100 * time, 100 * bytes, regressed ? "  REGRESSED" : ""));
+			passed &= !regressed;
+		}
+		return passed;
+	}
+
+	/**
+	 * Run a benchmark within FORKS new JVMs (with the same classpath as ours), one after another. A whole JVM
+	 * can be faster or slower than the next (by where its heap and code land), so we keep the median JVM.
+	 */
+	private static Result fork(String name) throws IOException, InterruptedException {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		Result[] results = new Result[FORKS];
+
+		for (int i = 0; i < FORKS; i++) {
+			Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "Benchmark", "--child", name).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+			String last = null;
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+				for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+					last = line;
+				}
+			}
+			if (process.waitFor() != 0 || last == null) {
+				throw new IOException("Benchmark " + name + " failed.");
+			}
+			results[i] = Result.parse(last);
+		}
+		Arrays.sort(results, (a, b) -> Double.compare(a.nanos(), b.nanos()));
+		return results[FORKS / 2];
+	}
+
+	/**
+	 * Set up the workload of a benchmark, then measure it.
+	 */
+	private static Result run(String name) throws IOException {
+		File csv = new File("mta_stations.csv");
+		List<String[]> periods = periods();
+		List<MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge>> graphs = new ArrayList<>();
+		MetroGraph metro = new MetroGraph();
+
+		for (String[] period : periods) {
+			MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> graph = metro.generateGraph(period[0], period[1]);
+			graph.setCache(null); // We measure the searches themselves, not the RouteCache.
+			graphs.add(graph);
+		}
+		List<String[]> pairs = pairs();
+		int cases = periods.size() * pairs.size();
+
+		switch (name) {
+			case "generateGraph":
+				return measure(name, periods.size(), index -> {
+					try {
+						return metro.generateGraph(periods.get(index)[0], periods.get(index)[1]).getNodes().size();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			case "GraphSnapshot.compile":
+				return measure(name, 1, index -> {
+					try {
+						return GraphSnapshot.compile(csv).rules().stations().size();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			case "GraphSnapshot.load":
+				File file = File.createTempFile("benchmark", ".snapshot");
+				file.deleteOnExit();
+				GraphSnapshot.compile(csv).write(file);
+
+				return measure(name, 1, index -> {
+					try {
+						return GraphSnapshot.load(file).rules().stations().size();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			case "dijkstras":
+				return measure(name, cases, index -> {
+					String[] pair = pairs.get(index % pairs.size());
+					return graphs.get(index / pairs.size()).dijkstras(pair[0], pair[1]).path().size();
+				});
+			case "shortestWalkPath":
+				return measure(name, cases, index -> {
+					String[] pair = pairs.get(index % pairs.size());
+					return graphs.get(index / pairs.size()).shortestWalkPath(pair[0], pair[1]).path().size();
+				});
+			case "Path.toString":
+				List<Object> paths = new ArrayList<>();
+				for (int index = 0; index < cases; index++) {
+					String[] pair = pairs.get(index % pairs.size());
+					paths.add(graphs.get(index / pairs.size()).dijkstras(pair[0], pair[1]));
+				}
+				return measure(name, cases, index -> paths.get(index).toString().length());
+			default:
+				throw new IllegalArgumentException("No benchmark " + name + ", only " + String.join(", ", BENCHMARKS) + ".");
+		}
+	}
+
+	/**
+	 * @return the time and day of every service period (the start of its Window, on a Monday or a Saturday)
+	 */
+	public static List<String[]> periods() {
+		List<String[]> periods = new ArrayList<>();
+		for (Day.DayType dayType : Day.DayType.values()) {
+			for (ServiceRules.Window window : ServiceRules.Window.values()) {
+				periods.add(new String[] { String.format("%04d", window.start()), dayType == Day.DayType.WEEKDAY ? "Monday" : "Saturday" });
+			}
+		}
+		return periods;
+	}
+
+	/**
+	 * @return the same origins and destinations every time (picked with a fixed seed)
+	 */
+	public static List<String[]> pairs() throws IOException {
+		List<ServiceRules.Station> stations = ServiceRules.of(new File("mta_stations.csv")).stations();
+		Random random = new Random(SEED);
+		List<String[]> pairs = new ArrayList<>();
+
+		while (pairs.size() < PAIRS) {
+			String origin = stations.get(random.nextInt(stations.size())).getName(), destination = stations.get(random.nextInt(stations.size())).getName();
+			if (!origin.equals(destination)) {
+				pairs.add(new String[] { origin, destination });
+			}
+		}
+		return pairs;
+	}
+
+	/**
+	 * Here we run rounds for at least WARMUP_NANOS (and WARMUP rounds), then ROUNDS measured rounds, going through
+	 * the cases of the workload in order.
+	 */
+	private static Result measure(String name, int cases, Call call) {
+		com.sun.management.ThreadMXBean threads = allocations();
+		long thread = Thread.currentThread().getId();
+
+		/*
+		A call keeps getting faster for several seconds (far longer than a few rounds), as the JIT compiles ever
+		more of it and the heap grows to fit it, and measuring before then gives rounds that drift by half from the
+		first to the last. So we warm up for a fixed time, and only then find how many calls fill a round (as a
+		call is by then far faster than it was when we began).
+		 */
+		int calls = calls(call, cases);
+		long warmup = System.nanoTime();
+		for (int i = 0; i < WARMUP || System.nanoTime() - warmup < WARMUP_NANOS; i++) {
+			round(call, cases, calls);
+		}
+		calls = calls(call, cases);
+
+		double[] nanos = new double[ROUNDS];
+		long bytes = 0;
+
+		for (int i = 0; i < ROUNDS; i++) {
+			long allocated = threads == null ? 0 : threads.getThreadAllocatedBytes(thread);
+			long start = System.nanoTime();
+			round(call, cases, calls);
+			nanos[i] = (double) (System.nanoTime() - start) / calls;
+			bytes += threads == null ? 0 : threads.getThreadAllocatedBytes(thread) - allocated;
+		}
+
+		/*
+		We report the median round (rather than the mean), so that a round that happened to hit a long pause
+		does not decide whether a change has regressed, along with the standard deviation of the rounds. For the
+		same reason, the standard deviation is estimated from the median distance of a round from the median.
+		 */
+		double median = median(nanos);
+		double[] deviations = new double[ROUNDS];
+		for (int i = 0; i < ROUNDS; i++) {
+			deviations[i] = Math.abs(nanos[i] - median);
+		}
+
+		return new Result(name, median, 1.4826 * median(deviations), threads == null ? Double.NaN : (double) bytes / ROUNDS / calls);
+	}
+
+	/**
+	 * @return how many calls fill a round, going over the whole workload the same number of times
+	 */
+	private static int calls(Call call, int cases) {
+		int calls = 1;
+		while (true) {
+			long start = System.nanoTime();
+			round(call, cases, calls);
+			if (System.nanoTime() - start >= ROUND_NANOS / 4 || calls >= 1 << 24) {
+				calls = (int) Math.max(cases, Math.min(1L << 24, (long) calls * ROUND_NANOS / Math.max(1, System.nanoTime() - start)));
+				break;
+			}
+			calls *= 2;
+		}
+		return calls - calls % cases;
+	}
+
+	/**
+	 * @return the median of some values, which are sorted
+	 */
+	private static double median(double[] values) {
+		Arrays.sort(values);
+		return (values[(values.length - 1) / 2] + values[values.length / 2]) / 2;
+	}
+
+	private static void round(Call call, int cases, int calls) {
+		long sum = 0;
+		for (int i = 0; i < calls; i++) {
+			sum += call.run(i % cases);
+		}
+		sink += sum;
+	}
+
+	/**
+	 * @return the ThreadMXBean that counts the bytes allocated by a thread, or null if this JVM has none
+	 */
+	private static com.sun.management.ThreadMXBean allocations() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemorySupported()) {
+			threads.setThreadAllocatedMemoryEnabled(true);
+			return threads;
+		}
+		return null;
+	}
+}
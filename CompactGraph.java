@@ -0,0 +1,428 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * CompactGraph is an immutable compressed sparse row (CSR) representation of a Graph. Every Node is given
+ * an int id (its index), and the Edges leaving Node u are stored at indices offsets[u] to offsets[u + 1] of
+ * the targets, weights and lines arrays.
+ *
+ * Searches run over these arrays rather than over Sets and Maps of Nodes and Edges, so a whole graph only
+ * takes a few KB and traversal does not need any hash lookups.
+ */
+public final class CompactGraph {
+	/**
+	 * Line id of an Edge that is a transfer (has no line).
+	 */
+	public static final int TRANSFER = -1;
+
+	private final MetroGraph.Node[] nodes;
+	private final Map<MetroGraph.Node, Integer> ids;
+	private final Map<String, Integer> stations;
+
+	private final int[] offsets, targets, lines;
+	private final int[] inOffsets, sources, inEdges;
+	private final double[] weights;
+	private final String[] lineNames;
+	private final Haversine haversine;
+	private final double scale;
+
+	private final Queue<SearchEngine> engines = new ConcurrentLinkedQueue<>();
+
+	private CompactGraph(MetroGraph.Node[] nodes, Map<MetroGraph.Node, Integer> ids, int[] offsets, int[] targets, double[] weights, int[] lines, String[] lineNames) {
+		this(nodes, ids, null, offsets, targets, weights, lines, lineNames, Haversine.of(nodes), Double.NaN);
+	}
+
+	/**
+	 * @param stations first Node of every station, or null to find them
+	 * @param scale scale of the chord for A* (see bound), or NaN to find it
+	 */
+	private CompactGraph(MetroGraph.Node[] nodes, Map<MetroGraph.Node, Integer> ids, Map<String, Integer> stations, int[] offsets, int[] targets, double[] weights, int[] lines, String[] lineNames, Haversine haversine, double scale) {
+		this.nodes = nodes;
+		this.ids = ids;
+		this.haversine = haversine;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.weights = weights;
+		this.lines = lines;
+		this.lineNames = lineNames;
+
+		/*
+		We also store every Edge by the Node it goes to, so that searches can run backwards.
+		 */
+		this.inOffsets = new int[nodes.length + 1];
+		this.sources = new int[targets.length];
+		this.inEdges = new int[targets.length];
+
+		for (int target : targets) {
+			this.inOffsets[target + 1]++;
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			this.inOffsets[i + 1] += this.inOffsets[i];
+		}
+		int[] next = new int[nodes.length];
+		for (int from = 0; from < nodes.length; from++) {
+			for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+				int index = this.inOffsets[targets[e]] + next[targets[e]]++;
+				this.sources[index] = from;
+				this.inEdges[index] = e;
+			}
+		}
+
+		if (stations == null) {
+			stations = new HashMap<>();
+			for (int i = 0; i < nodes.length; i++) {
+				stations.putIfAbsent(nodes[i].getStation(), i);
+			}
+		}
+		this.stations = stations;
+
+		/*
+		A* needs the estimate to drop by no more than the weight of any Edge taken. The chord of an Edge is about
+		its weight, but Haversine loses precision over a few meters (and weights may be anything), so we shrink the
+		chord until it is no longer than the weight of any Edge.
+		 */
+		if (Double.isNaN(scale)) {
+			scale = 1;
+			for (int from = 0; from < nodes.length; from++) {
+				for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+					double chord = this.haversine.chord(from, targets[e]);
+					if (chord > 0) {
+						scale = Math.min(scale, weights[e] / chord);
+					}
+				}
+			}
+			scale = Math.max(0, scale * (1 - 1e-9));
+		}
+		this.scale = scale;
+	}
+
+	/**
+	 * Here we build the CSR arrays. Nodes are given ids in the order they are given, and Edges
+	 * whose Nodes are not within the nodes given are ignored.
+	 *
+	 * @param nodes Nodes of the graph
+	 * @param edges Edges of the graph
+	 * @return CompactGraph
+	 */
+	public static CompactGraph of(Collection<? extends MetroGraph.Node> nodes, Collection<? extends MetroGraph.Edge> edges) {
+		MetroGraph.Node[] array = nodes.toArray(new MetroGraph.Node[0]);
+		Map<MetroGraph.Node, Integer> ids = new IdentityHashMap<>();
+		Map<String, Integer> lineIds = new LinkedHashMap<>();
+
+		for (int i = 0; i < array.length; i++) {
+			ids.put(array[i], i);
+		}
+
+		/*
+		We count the Edges leaving every Node first, so that we know where each Node's Edges begin.
+		 */
+		List<MetroGraph.Edge> kept = new ArrayList<>(edges.size());
+		int[] offsets = new int[array.length + 1];
+
+		for (MetroGraph.Edge edge : edges) {
+			Integer from = ids.get(edge.from());
+			if (from != null && ids.containsKey(edge.to())) {
+				offsets[from + 1]++;
+				kept.add(edge);
+			}
+		}
+		for (int i = 0; i < array.length; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+
+		int[] targets = new int[kept.size()], lines = new int[kept.size()];
+		double[] weights = new double[kept.size()];
+		int[] next = new int[array.length];
+
+		for (MetroGraph.Edge edge : kept) {
+			int from = ids.get(edge.from());
+			int index = offsets[from] + next[from]++;
+
+			targets[index] = ids.get(edge.to());
+			weights[index] = edge.weight();
+			lines[index] = edge.transfer() ? TRANSFER : lineIds.computeIfAbsent(edge.line(), line -> lineIds.size());
+		}
+		return new CompactGraph(array, ids, offsets, targets, weights, lines, lineIds.keySet().toArray(new String[0]));
+	}
+
+	/**
+	 * Derive the graph of the same Nodes (with the same ids), less some of our Edges and with some new Edges, as
+	 * when a station is closed or a line is suspended. We only copy our arrays, leaving out what is removed and
+	 * putting what is added after the Edges of its Node, so no Sets or Maps are built again. Removing Edges can
+	 * only make the bound for A* looser, so only the Edges added are measured against it.
+	 *
+	 * @param removed Edges to remove, each matched to one of our Edges of the same Nodes, line and weight
+	 * @param added Edges to add, between Nodes of this graph
+	 * @return CompactGraph as changed
+	 * @throws IllegalArgumentException if an Edge to add is not between Nodes of this graph
+	 */
+	public CompactGraph change(Collection<? extends MetroGraph.Edge> removed, Collection<? extends MetroGraph.Edge> added) {
+		boolean[] drop = new boolean[this.targets.length];
+		for (MetroGraph.Edge edge : removed) {
+			int e = this.index(edge, drop);
+			if (e != -1) {
+				drop[e] = true;
+			}
+		}
+
+		int[] count = new int[this.nodes.length + 1], from = new int[added.size()], to = new int[added.size()];
+		List<String> lineNames = new ArrayList<>(List.of(this.lineNames));
+		int[] addedLines = new int[added.size()];
+		double[] addedWeights = new double[added.size()];
+		double scale = this.scale;
+
+		int a = 0;
+		for (MetroGraph.Edge edge : added) {
+			from[a] = this.id(edge.from());
+			to[a] = this.id(edge.to());
+			if (from[a] == -1 || to[a] == -1) {
+				throw new IllegalArgumentException("Edge " + edge.from().getStation() + " -> " + edge.to().getStation() + " is not between Nodes of this graph.");
+			}
+			if (!edge.transfer() && !lineNames.contains(edge.line())) {
+				lineNames.add(edge.line());
+			}
+			addedLines[a] = edge.transfer() ? TRANSFER : lineNames.indexOf(edge.line());
+			addedWeights[a] = edge.weight();
+			double chord = this.haversine.chord(from[a], to[a]);
+			if (chord > 0) {
+				scale = Math.max(0, Math.min(scale, edge.weight() / chord * (1 - 1e-9)));
+			}
+			count[from[a] + 1]++;
+			a++;
+		}
+
+		int[] offsets = new int[this.nodes.length + 1];
+		for (int node = 0; node < this.nodes.length; node++) {
+			int kept = 0;
+			for (int e = this.offsets[node]; e < this.offsets[node + 1]; e++) {
+				kept += drop[e] ? 0 : 1;
+			}
+			offsets[node + 1] = offsets[node] + kept + count[node + 1];
+		}
+
+		int size = offsets[this.nodes.length];
+		int[] targets = new int[size], lines = new int[size], next = new int[this.nodes.length];
+		double[] weights = new double[size];
+
+		for (int node = 0; node < this.nodes.length; node++) {
+			int index = offsets[node];
+			for (int e = this.offsets[node]; e < this.offsets[node + 1]; e++) {
+				if (!drop[e]) {
+					targets[index] = this.targets[e];
+					weights[index] = this.weights[e];
+					lines[index] = this.lines[e];
+					index++;
+				}
+			}
+			next[node] = index;
+		}
+		for (int i = 0; i < from.length; i++) {
+			int index = next[from[i]]++;
+			targets[index] = to[i];
+			weights[index] = addedWeights[i];
+			lines[index] = addedLines[i];
+		}
+		return new CompactGraph(this.nodes, this.ids, this.stations, offsets, targets, weights, lines, lineNames.toArray(new String[0]), this.haversine, scale);
+	}
+
+	/**
+	 * @return index of one of our Edges (not already dropped) of the same Nodes, line and weight as the Edge, or -1
+	 */
+	private int index(MetroGraph.Edge edge, boolean[] dropped) {
+		int from = this.id(edge.from()), to = this.id(edge.to());
+		if (from == -1 || to == -1) {
+			return -1;
+		}
+		for (int e = this.offsets[from]; e < this.offsets[from + 1]; e++) {
+			if (!dropped[e] && this.targets[e] == to && this.weights[e] == edge.weight() && Objects.equals(this.lineName(this.lines[e]), edge.line())) {
+				return e;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return number of Nodes
+	 */
+	public int size() {
+		return this.nodes.length;
+	}
+
+	/**
+	 * @return number of Edges
+	 */
+	public int edges() {
+		return this.targets.length;
+	}
+
+	public MetroGraph.Node node(int id) {
+		return this.nodes[id];
+	}
+
+	/**
+	 * @return id of the Node, or -1 if it is not within this graph
+	 */
+	public int id(MetroGraph.Node node) {
+		// Graphs built by generateGraph give every Node the id of its row, so we seldom need the map.
+		int row = node.id();
+		if (row >= 0 && row < this.nodes.length && this.nodes[row] == node) {
+			return row;
+		}
+		Integer id = this.ids.get(node);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * Find the id of the first Node of a station.
+	 *
+	 * @return id of the station, or -1 if it is not within this graph
+	 */
+	public int id(String station) {
+		return this.stations.getOrDefault(station, -1);
+	}
+
+	/**
+	 * @return index of the first Edge leaving the Node
+	 */
+	public int first(int node) {
+		return this.offsets[node];
+	}
+
+	/**
+	 * @return index after the last Edge leaving the Node
+	 */
+	public int end(int node) {
+		return this.offsets[node + 1];
+	}
+
+	/**
+	 * @return index of the first Edge going to the Node, within the reversed Edges
+	 */
+	public int firstIn(int node) {
+		return this.inOffsets[node];
+	}
+
+	/**
+	 * @return index after the last Edge going to the Node, within the reversed Edges
+	 */
+	public int endIn(int node) {
+		return this.inOffsets[node + 1];
+	}
+
+	/**
+	 * @return id of the Node a reversed Edge comes from
+	 */
+	public int source(int in) {
+		return this.sources[in];
+	}
+
+	/**
+	 * @return index of the Edge of a reversed Edge
+	 */
+	public int inEdge(int in) {
+		return this.inEdges[in];
+	}
+
+	/**
+	 * @return straight line distance between two Nodes in km
+	 */
+	public double distance(int from, int to) {
+		return this.haversine.distance(from, to);
+	}
+
+	/**
+	 * A lower bound of the shortest path between two Nodes, for A*: the chord between them (see Haversine.chord),
+	 * shrunk so that it never drops by more than the weight of an Edge.
+	 *
+	 * @return lower bound in km
+	 */
+	public double bound(int from, int to) {
+		return this.scale * this.haversine.chord(from, to);
+	}
+
+	/**
+	 * @return Haversine of our Nodes, by id
+	 */
+	public Haversine haversine() {
+		return this.haversine;
+	}
+
+	/**
+	 * @return index of the shortest Edge from one Node to another, or -1 if there is none
+	 */
+	public int edge(int from, int to) {
+		int found = -1;
+		for (int e = this.offsets[from]; e < this.offsets[from + 1]; e++) {
+			if (this.targets[e] == to && (found == -1 || this.weights[e] < this.weights[found])) {
+				found = e;
+			}
+		}
+		return found;
+	}
+
+	public int target(int edge) {
+		return this.targets[edge];
+	}
+	public double weight(int edge) {
+		return this.weights[edge];
+	}
+
+	/**
+	 * @return line id of the Edge, or TRANSFER
+	 */
+	public int line(int edge) {
+		return this.lines[edge];
+	}
+
+	/**
+	 * @return name of the line (as in Train), or null for TRANSFER
+	 */
+	public String lineName(int line) {
+		return line == TRANSFER ? null : this.lineNames[line];
+	}
+	public int lines() {
+		return this.lineNames.length;
+	}
+
+	/**
+	 * Every search needs its own buffers, so rather than keeping search state within our Nodes, a search
+	 * borrows a SearchEngine and gives it back once done. Engines are pooled, so we only ever create as many
+	 * as there are searches running at once.
+	 *
+	 * @return SearchEngine over this graph, to be given back through release
+	 */
+	public SearchEngine acquire() {
+		SearchEngine engine = this.engines.poll();
+		return engine != null ? engine : new SearchEngine(this);
+	}
+
+	/**
+	 * Give a SearchEngine back to the pool. It must not be used after.
+	 */
+	public void release(SearchEngine engine) {
+		if (engine.graph() == this) {
+			this.engines.offer(engine);
+		}
+	}
+
+	/**
+	 * @return rough size of the CSR arrays in bytes
+	 */
+	public long bytes() {
+		return 4L * (this.offsets.length + this.targets.length + this.lines.length + this.inOffsets.length + this.sources.length + this.inEdges.length) + 8L * this.weights.length;
+	}
+}
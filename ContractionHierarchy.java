@@ -0,0 +1,523 @@
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * ContractionHierarchy is an optional preprocessing of a CompactGraph that makes point to point searches far
+ * faster, for when the same graph (one service period) answers many searches.
+ *
+ * Nodes are contracted (taken out of the graph) one at a time, least important first. When a Node is taken out,
+ * we add a shortcut Edge between two of its neighbours wherever the path through it was the only shortest path
+ * between them. A shortcut stores the two Edges it replaces, so that it can be unpacked back into stations.
+ *
+ * Every Node is then ranked by the order it was contracted in, and a search only ever needs to go up in rank:
+ * from the origin upwards, and from the destination upwards over reversed Edges, meeting at the top.
+ */
+public class ContractionHierarchy {
+	/**
+	 * Most Nodes a witness search may settle before we give up and add the shortcut anyway.
+	 */
+	private static final int WITNESS_LIMIT = 64;
+
+	private final CompactGraph graph;
+	private final int[] rank;
+
+	// Every Edge, original (ids below graph.edges()) and shortcut.
+	private final int[] from, to, first, second;
+	private final double[] weight;
+
+	// Upward Edges, by the Node they leave, and upward reversed Edges, by the Node they go to.
+	private final int[] upOffsets, upEdges, downOffsets, downEdges;
+
+	private final Queue<Query> queries = new ConcurrentLinkedQueue<>();
+
+	private ContractionHierarchy(CompactGraph graph, int[] rank, Edges edges) {
+		int size = graph.size();
+
+		this.graph = graph;
+		this.rank = rank;
+		this.from = Arrays.copyOf(edges.from, edges.size);
+		this.to = Arrays.copyOf(edges.to, edges.size);
+		this.first = Arrays.copyOf(edges.first, edges.size);
+		this.second = Arrays.copyOf(edges.second, edges.size);
+		this.weight = Arrays.copyOf(edges.weight, edges.size);
+
+		this.upOffsets = new int[size + 1];
+		this.downOffsets = new int[size + 1];
+
+		for (int e = 0; e < edges.size; e++) {
+			if (rank[this.to[e]] > rank[this.from[e]]) {
+				this.upOffsets[this.from[e] + 1]++;
+			} else if (rank[this.from[e]] > rank[this.to[e]]) {
+				this.downOffsets[this.to[e] + 1]++;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			this.upOffsets[i + 1] += this.upOffsets[i];
+			this.downOffsets[i + 1] += this.downOffsets[i];
+		}
+
+		this.upEdges = new int[this.upOffsets[size]];
+		this.downEdges = new int[this.downOffsets[size]];
+		int[] up = new int[size], down = new int[size];
+
+		for (int e = 0; e < edges.size; e++) {
+			if (rank[this.to[e]] > rank[this.from[e]]) {
+				this.upEdges[this.upOffsets[this.from[e]] + up[this.from[e]]++] = e;
+			} else if (rank[this.from[e]] > rank[this.to[e]]) {
+				this.downEdges[this.downOffsets[this.to[e]] + down[this.to[e]]++] = e;
+			}
+		}
+	}
+
+	/**
+	 * Here we contract every Node of the graph. The next Node to contract is the one with the smallest
+	 * priority: the number of shortcuts its contraction adds, less the Edges it takes out, plus the number of
+	 * its neighbours already contracted (so that contraction spreads evenly over the graph). Priorities change
+	 * as neighbours are contracted, so a Node's priority is found again before it is contracted.
+	 *
+	 * @param graph CompactGraph to contract
+	 * @return ContractionHierarchy
+	 */
+	public static ContractionHierarchy of(CompactGraph graph) {
+		int size = graph.size();
+		Edges edges = new Edges(graph.edges() * 2);
+		Adjacency out = new Adjacency(size), in = new Adjacency(size);
+
+		for (int node = 0; node < size; node++) {
+			for (int e = graph.first(node); e < graph.end(node); e++) {
+				int id = edges.add(node, graph.target(e), graph.weight(e), -1, -1);
+				out.add(node, id);
+				in.add(graph.target(e), id);
+			}
+		}
+
+		Contractor contractor = new Contractor(size, edges, out, in);
+		IndexedHeap heap = new IndexedHeap(size);
+		for (int node = 0; node < size; node++) {
+			heap.offer(node, contractor.priority(node));
+		}
+
+		int[] rank = new int[size];
+		int order = 0;
+
+		while (!heap.isEmpty()) {
+			int node = heap.poll();
+			double priority = contractor.priority(node);
+
+			if (!heap.isEmpty() && priority > heap.peekKey()) {
+				heap.offer(node, priority);
+				continue;
+			}
+			contractor.contract(node);
+			rank[node] = order++;
+		}
+		return new ContractionHierarchy(graph, rank, edges);
+	}
+
+	public CompactGraph graph() {
+		return this.graph;
+	}
+
+	/**
+	 * @return number of shortcuts added
+	 */
+	public int shortcuts() {
+		return this.from.length - this.graph.edges();
+	}
+
+	/**
+	 * @return rank of the Node, the order it was contracted in
+	 */
+	public int rank(int node) {
+		return this.rank[node];
+	}
+
+	/**
+	 * Find the shortest path between two Nodes.
+	 *
+	 * @param source id of the origin Node
+	 * @param target id of the destination Node
+	 * @return ids of the Nodes on the path, from source to target, or only the target if it cannot be reached
+	 */
+	public int[] path(int source, int target) {
+		Query query = this.acquire();
+		try {
+			query.search(source, target);
+			return query.path(target);
+		} finally {
+			this.release(query);
+		}
+	}
+
+	/**
+	 * @return distance of the shortest path between two Nodes, or Double.MAX_VALUE if it cannot be reached
+	 */
+	public double distance(int source, int target) {
+		Query query = this.acquire();
+		try {
+			return query.search(source, target);
+		} finally {
+			this.release(query);
+		}
+	}
+
+	/**
+	 * Queries are pooled just as SearchEngines are (see CompactGraph), so that the hierarchy can be
+	 * searched by many threads at once.
+	 */
+	public Query acquire() {
+		Query query = this.queries.poll();
+		return query != null ? query : new Query();
+	}
+	public void release(Query query) {
+		this.queries.offer(query);
+	}
+
+	/**
+	 * A Query holds the buffers of a single search: an upward search from the origin and an upward search
+	 * from the destination (over reversed Edges), stamped per search like a SearchEngine.
+	 */
+	public class Query {
+		private final double[] distance = new double[rank.length], backDistance = new double[rank.length];
+		private final int[] edge = new int[rank.length], backEdge = new int[rank.length];
+		private final int[] stamp = new int[rank.length], backStamp = new int[rank.length];
+		private final IndexedHeap heap = new IndexedHeap(rank.length), backHeap = new IndexedHeap(rank.length);
+
+		private int search, meeting = -1;
+		private int settled;
+
+		/**
+		 * Both sides are searched in turn. A side is done once its smallest key is no shorter than the shortest
+		 * path found so far, as going up can only make paths longer.
+		 *
+		 * @return distance of the shortest path, or Double.MAX_VALUE if it cannot be reached
+		 */
+		public double search(int source, int target) {
+			if (++this.search == 0) {
+				Arrays.fill(this.stamp, 0);
+				Arrays.fill(this.backStamp, 0);
+				this.search = 1;
+			}
+			this.heap.clear();
+			this.backHeap.clear();
+			this.meeting = -1;
+			this.settled = 0;
+
+			double best = Double.MAX_VALUE;
+
+			this.stamp[source] = this.search;
+			this.distance[source] = 0;
+			this.edge[source] = -1;
+			this.heap.offer(source, 0);
+
+			this.backStamp[target] = this.search;
+			this.backDistance[target] = 0;
+			this.backEdge[target] = -1;
+			this.backHeap.offer(target, 0);
+
+			while (true) {
+				boolean forward = !this.heap.isEmpty() && this.heap.peekKey() < best;
+				boolean backward = !this.backHeap.isEmpty() && this.backHeap.peekKey() < best;
+
+				if (!forward && !backward) {
+					break;
+				}
+				if (forward && (!backward || this.heap.peekKey() <= this.backHeap.peekKey())) {
+					int node = this.heap.poll();
+					this.settled++;
+
+					if (this.backStamp[node] == this.search && this.distance[node] + this.backDistance[node] < best) {
+						best = this.distance[node] + this.backDistance[node];
+						this.meeting = node;
+					}
+					for (int i = upOffsets[node]; i < upOffsets[node + 1]; i++) {
+						int e = upEdges[i], next = to[e];
+						double distance = this.distance[node] + weight[e];
+
+						if (this.stamp[next] != this.search || distance < this.distance[next]) {
+							this.stamp[next] = this.search;
+							this.distance[next] = distance;
+							this.edge[next] = e;
+							this.heap.offer(next, distance);
+						}
+					}
+				} else {
+					int node = this.backHeap.poll();
+					this.settled++;
+
+					if (this.stamp[node] == this.search && this.distance[node] + this.backDistance[node] < best) {
+						best = this.distance[node] + this.backDistance[node];
+						this.meeting = node;
+					}
+					for (int i = downOffsets[node]; i < downOffsets[node + 1]; i++) {
+						int e = downEdges[i], next = from[e];
+						double distance = this.backDistance[node] + weight[e];
+
+						if (this.backStamp[next] != this.search || distance < this.backDistance[next]) {
+							this.backStamp[next] = this.search;
+							this.backDistance[next] = distance;
+							this.backEdge[next] = e;
+							this.backHeap.offer(next, distance);
+						}
+					}
+				}
+			}
+			return best;
+		}
+
+		/**
+		 * Unpack the Edges of the last search into the Nodes of the path. Shortcuts are unpacked into the two
+		 * Edges they replace until only original Edges are left.
+		 *
+		 * @return ids of the Nodes on the path, from source to target, or only the target if it has not been reached
+		 */
+		public int[] path(int target) {
+			if (this.meeting == -1) {
+				return new int[] { target };
+			}
+			int[] stack = new int[from.length];
+			int[] path = new int[rank.length];
+			int length = 0, top = 0;
+
+			// Edges up to the meeting Node are found backwards, so we unpack them from the meeting Node down.
+			for (int node = this.meeting; this.edge[node] != -1; node = from[this.edge[node]]) {
+				stack[top++] = this.edge[node];
+			}
+			int[] up = Arrays.copyOf(stack, top);
+
+			path[length++] = up.length == 0 ? this.meeting : from[up[up.length - 1]];
+			for (int i = up.length - 1; i >= 0; i--) {
+				length = unpack(up[i], stack, path, length);
+			}
+			for (int node = this.meeting; this.backEdge[node] != -1; node = to[this.backEdge[node]]) {
+				length = unpack(this.backEdge[node], stack, path, length);
+			}
+			return Arrays.copyOf(path, length);
+		}
+
+		/**
+		 * @return number of Nodes settled by the last search
+		 */
+		public int settled() {
+			return this.settled;
+		}
+	}
+
+	/**
+	 * Append the Nodes an Edge passes through (but not the Node it leaves) to the path.
+	 */
+	private int unpack(int edge, int[] stack, int[] path, int length) {
+		int top = 0;
+		stack[top++] = edge;
+
+		while (top > 0) {
+			int e = stack[--top];
+			if (this.first[e] == -1) {
+				path[length++] = this.to[e];
+			} else {
+				stack[top++] = this.second[e];
+				stack[top++] = this.first[e];
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Contractor holds the graph while it is being contracted, along with what it needs for witness searches.
+	 */
+	private static class Contractor {
+		private final Edges edges;
+		private final Adjacency out, in;
+		private final boolean[] contracted;
+		private final int[] deleted;
+
+		private final double[] distance;
+		private final int[] stamp;
+		private final IndexedHeap heap;
+		private int search;
+
+		Contractor(int size, Edges edges, Adjacency out, Adjacency in) {
+			this.edges = edges;
+			this.out = out;
+			this.in = in;
+			this.contracted = new boolean[size];
+			this.deleted = new int[size];
+			this.distance = new double[size];
+			this.stamp = new int[size];
+			this.heap = new IndexedHeap(size);
+		}
+
+		double priority(int node) {
+			int removed = 0;
+			for (int i = 0; i < this.out.size(node); i++) {
+				if (!this.contracted[this.edges.to[this.out.get(node, i)]]) {
+					removed++;
+				}
+			}
+			for (int i = 0; i < this.in.size(node); i++) {
+				if (!this.contracted[this.edges.from[this.in.get(node, i)]]) {
+					removed++;
+				}
+			}
+			return this.shortcuts(node, false) - removed + this.deleted[node];
+		}
+
+		void contract(int node) {
+			this.shortcuts(node, true);
+			this.contracted[node] = true;
+
+			for (int i = 0; i < this.out.size(node); i++) {
+				this.deleted[this.edges.to[this.out.get(node, i)]]++;
+			}
+			for (int i = 0; i < this.in.size(node); i++) {
+				this.deleted[this.edges.from[this.in.get(node, i)]]++;
+			}
+		}
+
+		/**
+		 * For every pair of neighbours u -> node -> x, we look for a path from u to x that avoids the Node and is
+		 * no longer than going through it (a witness). If there is none, a shortcut u -> x is needed.
+		 *
+		 * @param add true to add the shortcuts, false to only count them
+		 * @return number of shortcuts needed
+		 */
+		private int shortcuts(int node, boolean add) {
+			int count = 0;
+
+			for (int i = 0; i < this.in.size(node); i++) {
+				int into = this.in.get(node, i), u = this.edges.from[into];
+				if (this.contracted[u]) {
+					continue;
+				}
+
+				double most = 0;
+				for (int j = 0; j < this.out.size(node); j++) {
+					int x = this.edges.to[this.out.get(node, j)];
+					if (!this.contracted[x] && x != u) {
+						most = Math.max(most, this.edges.weight[into] + this.edges.weight[this.out.get(node, j)]);
+					}
+				}
+				this.witness(u, node, most);
+
+				for (int j = 0; j < this.out.size(node); j++) {
+					int outof = this.out.get(node, j), x = this.edges.to[outof];
+					if (this.contracted[x] || x == u) {
+						continue;
+					}
+					double through = this.edges.weight[into] + this.edges.weight[outof];
+
+					if (this.stamp[x] != this.search || this.distance[x] > through) {
+						count++;
+						if (add) {
+							int id = this.edges.add(u, x, through, into, outof);
+							this.out.add(u, id);
+							this.in.add(x, id);
+						}
+					}
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * A Dijkstra search from u over Nodes not yet contracted (and not the Node being contracted), that gives up
+		 * past the longest path through the Node or after WITNESS_LIMIT Nodes.
+		 */
+		private void witness(int u, int avoid, double most) {
+			this.search++;
+			this.heap.clear();
+			this.stamp[u] = this.search;
+			this.distance[u] = 0;
+			this.heap.offer(u, 0);
+
+			int settled = 0;
+			while (!this.heap.isEmpty() && settled++ < WITNESS_LIMIT) {
+				int node = this.heap.poll();
+				if (this.distance[node] > most) {
+					break;
+				}
+				for (int i = 0; i < this.out.size(node); i++) {
+					int e = this.out.get(node, i), next = this.edges.to[e];
+					if (next == avoid || this.contracted[next]) {
+						continue;
+					}
+					double distance = this.distance[node] + this.edges.weight[e];
+
+					if (this.stamp[next] != this.search || distance < this.distance[next]) {
+						this.stamp[next] = this.search;
+						this.distance[next] = distance;
+						this.heap.offer(next, distance);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Every Edge of the hierarchy, within growable arrays. A shortcut stores the two Edges it replaces
+	 * (first and second), an original Edge stores -1 for both.
+	 */
+	private static class Edges {
+		private int[] from, to, first, second;
+		private double[] weight;
+		private int size;
+
+		Edges(int capacity) {
+			this.from = new int[Math.max(capacity, 1)];
+			this.to = new int[this.from.length];
+			this.first = new int[this.from.length];
+			this.second = new int[this.from.length];
+			this.weight = new double[this.from.length];
+		}
+
+		int add(int from, int to, double weight, int first, int second) {
+			if (this.size == this.from.length) {
+				int capacity = this.size * 2;
+				this.from = Arrays.copyOf(this.from, capacity);
+				this.to = Arrays.copyOf(this.to, capacity);
+				this.first = Arrays.copyOf(this.first, capacity);
+				this.second = Arrays.copyOf(this.second, capacity);
+				this.weight = Arrays.copyOf(this.weight, capacity);
+			}
+			this.from[this.size] = from;
+			this.to[this.size] = to;
+			this.weight[this.size] = weight;
+			this.first[this.size] = first;
+			this.second[this.size] = second;
+			return this.size++;
+		}
+	}
+
+	/**
+	 * Growable lists of Edge ids for every Node.
+	 */
+	private static class Adjacency {
+		private final int[][] lists;
+		private final int[] sizes;
+
+		Adjacency(int size) {
+			this.lists = new int[size][4];
+			this.sizes = new int[size];
+		}
+
+		void add(int node, int edge) {
+			if (this.sizes[node] == this.lists[node].length) {
+				this.lists[node] = Arrays.copyOf(this.lists[node], this.sizes[node] * 2);
+			}
+			this.lists[node][this.sizes[node]++] = edge;
+		}
+		int size(int node) {
+			return this.sizes[node];
+		}
+		int get(int node, int i) {
+			return this.lists[node][i];
+		}
+	}
+}
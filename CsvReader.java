@@ -0,0 +1,379 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * CsvReader reads a csv file (as in RFC 4180) one row at a time, straight from the bytes of the file.
+ *
+ * The file is read through a channel in chunks, and every row is copied (with its quotes taken out) into a single
+ * byte array, along with where each of its fields begins and ends. Nothing is allocated per field: Strings are only
+ * made when asked for, and numbers are parsed from the bytes themselves. Memory does not grow with the size of the
+ * file, only with the size of its largest row.
+ *
+ * Fields may be quoted, so that they can hold commas, line breaks and quotes (written twice, ""). Lines may end
+ * with CRLF or LF. Rows that break these rules are reported with the line they are found at.
+ */
+public class CsvReader implements Closeable {
+	private static final int CHUNK = 1 << 16;
+
+	/*
+	Powers of 10 that are exact as doubles, so that a number with few enough digits is parsed with a single,
+	correctly rounded multiplication or division.
+	 */
+	private static final double[] POWERS = new double[23];
+	static {
+		POWERS[0] = 1;
+		for (int i = 1; i < POWERS.length; i++) {
+			POWERS[i] = POWERS[i - 1] * 10;
+		}
+	}
+
+	private final ReadableByteChannel channel;
+	private final String source;
+	private final byte[] chunk = new byte[CHUNK];
+	private final ByteBuffer buffer = ByteBuffer.wrap(this.chunk);
+	private int position, limit;
+	private boolean end;
+
+	private byte[] row = new byte[256];
+	private int[] starts = new int[16], ends = new int[16];
+	private int fields, length;
+	private int line = 1, rowLine;
+
+	/**
+	 * @param channel channel to read from, closed along with this reader
+	 * @param source name of what is being read, for errors
+	 */
+	public CsvReader(ReadableByteChannel channel, String source) {
+		this.channel = channel;
+		this.source = source;
+	}
+
+	/**
+	 * @param file csv file
+	 * @return CsvReader of the file
+	 * @throws IOException if the file cannot be opened
+	 */
+	public static CsvReader open(File file) throws IOException {
+		return new CsvReader(FileChannel.open(file.toPath(), StandardOpenOption.READ), file.getPath());
+	}
+
+	/**
+	 * @return the next byte of the file, or -1 at its end
+	 */
+	private int read() throws IOException {
+		if (this.position == this.limit && !this.fill()) {
+			return -1;
+		}
+		return this.chunk[this.position++] & 0xFF;
+	}
+
+	/**
+	 * Read the next chunk of the file.
+	 *
+	 * @return true, if there is more to read, false at the end of the file
+	 */
+	private boolean fill() throws IOException {
+		if (this.end) {
+			return false;
+		}
+		this.buffer.clear();
+		int read;
+		do {
+			read = this.channel.read(this.buffer);
+		} while (read == 0);
+
+		if (read == -1) {
+			this.end = true;
+			return false;
+		}
+		this.position = 0;
+		this.limit = this.buffer.position();
+		return true;
+	}
+
+	/**
+	 * Here we read the next row, byte by byte. Outside of quotes, a comma ends a field and a line break ends
+	 * the row; inside of quotes, everything is part of the field, and two quotes are a single quote.
+	 *
+	 * @return true, if a row has been read, false if there are no more rows
+	 * @throws IOException if the file cannot be read, or the row is malformed
+	 */
+	public boolean next() throws IOException {
+		this.fields = 0;
+		this.length = 0;
+		this.rowLine = this.line;
+
+		int b = this.read();
+		if (b == -1) {
+			return false;
+		}
+
+		this.begin();
+		boolean quoted = false, closed = false;
+
+		while (true) {
+			if (quoted) {
+				if (b == -1) {
+					throw this.malformed("quoted field is never closed");
+				}
+				if (b == '"') {
+					int after = this.read();
+					if (after == '"') {
+						this.append('"');
+					} else {
+						quoted = false;
+						closed = true;
+						b = after;
+						continue;
+					}
+				} else {
+					if (b == '\n') {
+						this.line++;
+					}
+					this.append(b);
+					this.plain(true);
+				}
+			} else if (b == ',') {
+				this.finish();
+				this.begin();
+				closed = false;
+			} else if (b == '\n' || b == -1) {
+				this.finish();
+				if (b == '\n') {
+					this.line++;
+				}
+				return true;
+			} else if (b == '\r') {
+				int after = this.read();
+				if (after != '\n' && after != -1) {
+					throw this.malformed("carriage return without a line feed");
+				}
+				this.finish();
+				if (after == '\n') {
+					this.line++;
+				}
+				return true;
+			} else if (closed) {
+				throw this.malformed("unexpected character after a closing quote in field " + (this.fields + 1));
+			} else if (b == '"') {
+				if (this.length != this.starts[this.fields]) {
+					throw this.malformed("quote within an unquoted field " + (this.fields + 1));
+				}
+				quoted = true;
+			} else {
+				this.append(b);
+				this.plain(false);
+			}
+			b = this.read();
+		}
+	}
+
+	/**
+	 * Copy the plain bytes that follow within the chunk all at once, up to the next byte that means something:
+	 * a quote or line break, or (outside of quotes) a comma or carriage return.
+	 */
+	private void plain(boolean quoted) {
+		int from = this.position, to = from;
+		while (to < this.limit) {
+			byte b = this.chunk[to];
+			if (b == '"' || b == '\n' || !quoted && (b == ',' || b == '\r')) {
+				break;
+			}
+			to++;
+		}
+		int count = to - from;
+		if (count > 0) {
+			if (this.length + count > this.row.length) {
+				this.row = Arrays.copyOf(this.row, Math.max(this.row.length * 2, this.length + count));
+			}
+			System.arraycopy(this.chunk, from, this.row, this.length, count);
+			this.length += count;
+			this.position = to;
+		}
+	}
+
+	private void begin() {
+		if (this.fields == this.starts.length) {
+			this.starts = Arrays.copyOf(this.starts, this.fields * 2);
+			this.ends = Arrays.copyOf(this.ends, this.fields * 2);
+		}
+		this.starts[this.fields] = this.length;
+	}
+
+	private void finish() {
+		this.ends[this.fields++] = this.length;
+	}
+
+	private void append(int b) {
+		if (this.length == this.row.length) {
+			this.row = Arrays.copyOf(this.row, this.length * 2);
+		}
+		this.row[this.length++] = (byte) b;
+	}
+
+	/**
+	 * @return an IOException for the current row
+	 */
+	public IOException malformed(String message) {
+		return new IOException("Malformed row at line " + this.rowLine + " of " + this.source + ": " + message + ".");
+	}
+
+	/**
+	 * @return number of fields of the current row
+	 */
+	public int fields() {
+		return this.fields;
+	}
+
+	/**
+	 * @return line of the file the current row begins at
+	 */
+	public int line() {
+		return this.rowLine;
+	}
+
+	/**
+	 * @return length in bytes of a field
+	 */
+	public int length(int field) {
+		return this.ends[this.check(field)] - this.starts[field];
+	}
+
+	/**
+	 * @return byte at an index of a field
+	 */
+	public byte at(int field, int index) {
+		return this.row[this.starts[this.check(field)] + index];
+	}
+
+	/**
+	 * @return index of the first byte b within a field, from an index on, or -1
+	 */
+	public int indexOf(int field, char b, int from) {
+		for (int i = this.starts[this.check(field)] + from; i < this.ends[field]; i++) {
+			if (this.row[i] == b) {
+				return i - this.starts[field];
+			}
+		}
+		return -1;
+	}
+
+	public String string(int field) {
+		return this.string(field, 0, this.length(field));
+	}
+
+	/**
+	 * @return String of the bytes of a field from one index to another
+	 */
+	public String string(int field, int from, int to) {
+		return new String(this.row, this.starts[this.check(field)] + from, to - from, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return true, if a field holds exactly the given (ASCII) text, false otherwise
+	 */
+	public boolean equals(int field, String text) {
+		if (this.length(field) != text.length()) {
+			return false;
+		}
+		for (int i = 0; i < text.length(); i++) {
+			if (this.row[this.starts[field] + i] != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public double number(int field) throws IOException {
+		return this.number(field, 0, this.length(field));
+	}
+
+	/**
+	 * Parse a number out of the bytes of a field from one index to another (e.g. one coordinate of a point).
+	 * Numbers of up to 15 significant digits or so are parsed straight from the bytes; anything longer or
+	 * stranger is left to Double.parseDouble, so every number is parsed exactly as Double.valueOf would.
+	 *
+	 * @return number
+	 * @throws IOException if the bytes are not a number
+	 */
+	public double number(int field, int from, int to) throws IOException {
+		int start = this.starts[this.check(field)];
+		int i = start + from, end = start + to;
+
+		boolean negative = false;
+		if (i < end && (this.row[i] == '-' || this.row[i] == '+')) {
+			negative = this.row[i++] == '-';
+		}
+
+		long mantissa = 0;
+		int digits = 0, scale = 0;
+		boolean point = false, any = false;
+
+		for (; i < end; i++) {
+			byte b = this.row[i];
+
+			if (b >= '0' && b <= '9') {
+				any = true;
+				if (mantissa == 0 && b == '0') {
+					if (point) scale--;
+					continue;
+				}
+				if (digits >= 18) {
+					return this.parse(field, from, to);
+				}
+				mantissa = mantissa * 10 + (b - '0');
+				digits++;
+				if (point) scale--;
+			} else if (b == '.' && !point) {
+				point = true;
+			} else {
+				// Exponents, infinities and the like.
+				return this.parse(field, from, to);
+			}
+		}
+		if (!any) {
+			throw this.malformed("\"" + this.string(field, from, to) + "\" is not a number");
+		}
+
+		double value;
+		if (mantissa < 1L << 53 && -scale < POWERS.length) {
+			value = scale < 0 ? mantissa / POWERS[-scale] : mantissa;
+		} else {
+			return this.parse(field, from, to);
+		}
+		return negative ? -value : value;
+	}
+
+	private double parse(int field, int from, int to) throws IOException {
+		try {
+			return Double.parseDouble(this.string(field, from, to).trim());
+		} catch (NumberFormatException e) {
+			throw this.malformed("\"" + this.string(field, from, to) + "\" is not a number");
+		}
+	}
+
+	private int check(int field) {
+		if (field < 0 || field >= this.fields) {
+			throw new IndexOutOfBoundsException("Row at line " + this.rowLine + " of " + this.source + " has no field " + (field + 1) + ".");
+		}
+		return field;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
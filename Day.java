@@ -0,0 +1,42 @@
+import java.io.IOException;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * This Day class is for simple use to classify days, validate days or just
+ * any use case involving the day. Mostly used to avoid redundancy or easy
+ * checks.
+ */
+class Day {
+	public enum DayType {
+		WEEKDAY, WEEKEND;
+	}
+	private static final String[] WEEKDAYS = {
+			"monday", "tuesday", "wednesday", "thursday", "friday"
+	};
+	private static final String[] WEEKENDS = {
+			"saturday", "sunday"
+	};
+
+	public static boolean validate(String day) throws IOException {
+		boolean validate = day.equalsIgnoreCase("monday") || day.equalsIgnoreCase("tuesday") || day.equalsIgnoreCase("wednesday") || day.equalsIgnoreCase("thursday") ||
+							day.equalsIgnoreCase("friday") || day.equalsIgnoreCase("saturday") || day.equalsIgnoreCase("sunday");
+
+		if (!validate) {
+			throw new IOException("Incorrect/invalid input of day.");
+		}
+		return validate;
+	}
+	public static DayType type(String day) {
+		for (String weekend : WEEKENDS) {
+			if (day.equalsIgnoreCase(weekend)) {
+				return DayType.WEEKEND;
+			}
+		}
+		return DayType.WEEKDAY;
+	}
+}
\ No newline at end of file
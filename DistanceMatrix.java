@@ -0,0 +1,143 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * DistanceMatrix holds the shortest distances (in km) from a set of origins to a set of destinations, stored
+ * row by row within a single float array.
+ *
+ * Every row needs a one-to-all search from its origin, and these searches are independent of each other, so we
+ * spread the origins across a ForkJoinPool, where each task borrows its own SearchEngine and writes its rows.
+ */
+public class DistanceMatrix {
+	/**
+	 * Most origins a single task will search, before splitting.
+	 */
+	private static final int THRESHOLD = 8;
+
+	/**
+	 * Most distances a matrix holds, as many as a single array can (on most JVMs).
+	 */
+	public static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
+	private final int[] origins, destinations;
+	private final float[] distances;
+
+	/**
+	 * @throws IllegalArgumentException if the matrix would hold more than MAX_SIZE distances
+	 */
+	private DistanceMatrix(int[] origins, int[] destinations) {
+		long size = (long) origins.length * destinations.length;
+		if (size > MAX_SIZE) {
+			throw new IllegalArgumentException("A matrix of " + origins.length + " origins and " + destinations.length + " destinations holds " + size + " distances, more than " + MAX_SIZE + ".");
+		}
+		this.origins = origins;
+		this.destinations = destinations;
+		this.distances = new float[(int) size];
+	}
+
+	/**
+	 * Compute the matrix of every origin to every destination.
+	 *
+	 * @param graph CompactGraph to search
+	 * @param origins ids of the origins (rows)
+	 * @param destinations ids of the destinations (columns)
+	 * @param pool ForkJoinPool to run the searches in
+	 * @return DistanceMatrix
+	 * @throws IllegalArgumentException if the matrix would hold more than MAX_SIZE distances
+	 */
+	public static DistanceMatrix compute(CompactGraph graph, int[] origins, int[] destinations, ForkJoinPool pool) {
+		DistanceMatrix matrix = new DistanceMatrix(origins.clone(), destinations.clone());
+		pool.invoke(matrix.new Rows(graph, 0, origins.length));
+		return matrix;
+	}
+	public static DistanceMatrix compute(CompactGraph graph, int[] origins, int[] destinations) {
+		return compute(graph, origins, destinations, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Compute the matrix of every Node to every Node.
+	 */
+	public static DistanceMatrix compute(CompactGraph graph) {
+		int[] all = new int[graph.size()];
+		for (int i = 0; i < all.length; i++) {
+			all[i] = i;
+		}
+		return compute(graph, all, all);
+	}
+
+	/**
+	 * A task that searches from the origins of rows from (inclusive) to to (exclusive), splitting itself
+	 * in half while it has more than THRESHOLD rows.
+	 */
+	private class Rows extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final CompactGraph graph;
+		private final int from, to;
+
+		Rows(CompactGraph graph, int from, int to) {
+			this.graph = graph;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (this.to - this.from > THRESHOLD) {
+				int middle = (this.from + this.to) >>> 1;
+				invokeAll(new Rows(this.graph, this.from, middle), new Rows(this.graph, middle, this.to));
+				return;
+			}
+
+			SearchEngine engine = this.graph.acquire();
+			try {
+				for (int row = this.from; row < this.to; row++) {
+					engine.search(origins[row], -1);
+
+					int at = Math.multiplyExact(row, destinations.length);
+					for (int column = 0; column < destinations.length; column++) {
+						double distance = engine.distance(destinations[column]);
+						distances[at + column] = distance == Double.MAX_VALUE ? Float.POSITIVE_INFINITY : (float) distance;
+					}
+				}
+			} finally {
+				this.graph.release(engine);
+			}
+		}
+	}
+
+	public int rows() {
+		return this.origins.length;
+	}
+	public int columns() {
+		return this.destinations.length;
+	}
+	public int origin(int row) {
+		return this.origins[row];
+	}
+	public int destination(int column) {
+		return this.destinations[column];
+	}
+
+	/**
+	 * @return distance from the origin of the row to the destination of the column, or
+	 * Float.POSITIVE_INFINITY if it cannot be reached
+	 */
+	public float get(int row, int column) {
+		// The whole matrix fits in an array (see MAX_SIZE), so the index of a row and column within it does too.
+		return this.distances[row * this.destinations.length + column];
+	}
+
+	/**
+	 * @return the matrix, row by row
+	 */
+	public float[] distances() {
+		return this.distances;
+	}
+}
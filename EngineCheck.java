@@ -0,0 +1,167 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * EngineCheck checks every search of a SearchEngine against a reference Dijkstra search, written as plainly as it
+ * can be (a PriorityQueue of distances, with stale entries skipped), over every pair of Nodes of a graph and in every
+ * Mode. For every pair, the engine must find the same distance, or find that the destination cannot be reached, and
+ * its path must run from the origin to the destination along Edges of the graph that add up to that distance.
+ *
+ * The ContractionHierarchy of the graph (see Graph.contract) is checked the same way: its distance, and its path
+ * once every shortcut is unpacked back into Edges of the graph.
+ *
+ * Usage: java EngineCheck [time day ...]
+ *
+ * Without a time and day, the graph of every service period is checked (as in Benchmark.periods). Every mismatch is
+ * reported (up to MISMATCHES of them), and we exit with 1 if there are any.
+ */
+public class EngineCheck {
+	/**
+	 * Most mismatches we report before we only count them.
+	 */
+	public static final int MISMATCHES = 20;
+
+	/**
+	 * Largest difference (in km) between two distances that we still take as the same, as the bidirectional
+	 * searches add up the same weights in another order.
+	 */
+	public static final double EPSILON = 1e-9;
+
+	private static int mismatches;
+
+	public static void main(String[] args) throws IOException {
+		List<String[]> periods = new ArrayList<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			periods.add(new String[] { args[i], args[i + 1] });
+		}
+		if (periods.isEmpty()) {
+			periods.addAll(Benchmark.periods());
+		}
+		MetroGraph metro = new MetroGraph();
+		long pairs = 0;
+
+		for (String[] period : periods) {
+			MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> metroGraph = metro.generateGraph(period[0], period[1]);
+			CompactGraph graph = metroGraph.compact();
+			SearchEngine engine = new SearchEngine(graph);
+			ContractionHierarchy hierarchy = metroGraph.contract();
+			int unreachable = 0;
+
+			for (int source = 0; source < graph.size(); source++) {
+				double[] reference = dijkstra(graph, source);
+
+				for (int target = 0; target < graph.size(); target++) {
+					pairs++;
+					if (reference[target] == Double.MAX_VALUE) {
+						unreachable++;
+					}
+					for (SearchEngine.Mode mode : SearchEngine.Mode.values()) {
+						String name = period[0] + " " + period[1] + " " + mode + " from " + source + " to " + target;
+						boolean reached = engine.search(source, target, mode);
+
+						if (reference[target] == Double.MAX_VALUE) {
+							if (reached) {
+								mismatch(name + ": reached at " + engine.distance(target) + ", but cannot be reached");
+							}
+							continue;
+						}
+						if (!reached) {
+							mismatch(name + ": not reached, but " + reference[target] + " away");
+						} else if (Math.abs(engine.distance(target) - reference[target]) > EPSILON) {
+							mismatch(name + ": " + engine.distance(target) + " away, but " + reference[target] + " away");
+						} else {
+							check(graph, name, engine.path(target), source, target, reference[target]);
+						}
+					}
+
+					String name = period[0] + " " + period[1] + " ContractionHierarchy from " + source + " to " + target;
+					double distance = hierarchy.distance(source, target);
+					int[] path = hierarchy.path(source, target);
+
+					if (reference[target] == Double.MAX_VALUE) {
+						if (distance != Double.MAX_VALUE || path.length != 1) {
+							mismatch(name + ": reached at " + distance + " by " + Arrays.toString(path) + ", but cannot be reached");
+						}
+					} else if (distance == Double.MAX_VALUE) {
+						mismatch(name + ": not reached, but " + reference[target] + " away");
+					} else if (Math.abs(distance - reference[target]) > EPSILON) {
+						mismatch(name + ": " + distance + " away, but " + reference[target] + " away");
+					} else {
+						check(graph, name, path, source, target, reference[target]);
+					}
+				}
+			}
+			System.out.println(period[0] + " " + period[1] + ": " + graph.size() + " x " + graph.size() + " pairs (" + unreachable + " unreachable) checked in every Mode and in its ContractionHierarchy.");
+		}
+		System.out.println(pairs + " pairs checked, " + mismatches + " mismatches.");
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return distance from the source to every Node, or Double.MAX_VALUE if it cannot be reached
+	 */
+	private static double[] dijkstra(CompactGraph graph, int source) {
+		double[] distance = new double[graph.size()];
+		Arrays.fill(distance, Double.MAX_VALUE);
+		distance[source] = 0;
+
+		PriorityQueue<double[]> queue = new PriorityQueue<>(Comparator.comparingDouble(entry -> entry[0]));
+		queue.add(new double[] { 0, source });
+
+		while (!queue.isEmpty()) {
+			double[] entry = queue.poll();
+			int from = (int) entry[1];
+			if (entry[0] > distance[from]) {
+				continue;
+			}
+			for (int e = graph.first(from); e < graph.end(from); e++) {
+				int to = graph.target(e);
+				if (distance[from] + graph.weight(e) < distance[to]) {
+					distance[to] = distance[from] + graph.weight(e);
+					queue.add(new double[] { distance[to], to });
+				}
+			}
+		}
+		return distance;
+	}
+
+	/**
+	 * Check that a path runs from the source to the target along Edges of the graph, which add up to the distance.
+	 */
+	private static void check(CompactGraph graph, String name, int[] path, int source, int target, double distance) {
+		if (path.length == 0 || path[0] != source || path[path.length - 1] != target) {
+			mismatch(name + ": path " + Arrays.toString(path) + " does not run from " + source + " to " + target);
+			return;
+		}
+		double length = 0;
+		for (int i = 0; i + 1 < path.length; i++) {
+			int edge = graph.edge(path[i], path[i + 1]);
+			if (edge == -1) {
+				mismatch(name + ": path " + Arrays.toString(path) + " has no Edge from " + path[i] + " to " + path[i + 1]);
+				return;
+			}
+			length += graph.weight(edge);
+		}
+		if (Math.abs(length - distance) > EPSILON) {
+			mismatch(name + ": path " + Arrays.toString(path) + " is " + length + " long, but " + distance + " away");
+		}
+	}
+
+	private static void mismatch(String message) {
+		if (++mismatches <= MISMATCHES) {
+			System.out.println(message);
+		}
+	}
+}
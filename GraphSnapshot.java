@@ -0,0 +1,499 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * GraphSnapshot is a binary form of everything we build out of the stations csv file: the compiled stations
+ * and their rules (see ServiceRules), and the Edges of the graph of every service period. It is written once,
+ * next to the csv file, and read back through a memory mapped file, so that starting up does not mean parsing
+ * the csv file and ordering every line again, and processes reading the same snapshot share its pages.
+ *
+ * The snapshot is made up of a header, the names of every line, the stations, a table of where the Edges of
+ * every service period begin, then the Edges of every service period in CSR form (as in CompactGraph):
+ *
+ * int MAGIC, int VERSION, int PERIODS, long length and long last modified time of the csv file
+ * int lines, then every line name
+ * int stations, then for every station its name, connections, longitude, latitude, notes, last stop and rules
+ * long[PERIODS] position of every service period
+ * for every service period, int edges, int[stations + 1] offsets, int[edges] targets and int[edges] lines
+ *
+ * Numbers are big-endian, and Strings are an int length followed by UTF-8 bytes. The Edges of a service period
+ * are only read when a graph of that service period is built.
+ */
+public class GraphSnapshot {
+	/**
+	 * "MTAG", the first bytes of every snapshot.
+	 */
+	public static final int MAGIC = 0x4D544147;
+
+	/**
+	 * Version of the format, to be raised whenever the format (or how the Edges are built) changes.
+	 */
+	public static final int VERSION = 2;
+
+	private static final Map<String, GraphSnapshot> SNAPSHOTS = new HashMap<>();
+
+	private final ServiceRules rules;
+	private final String[] lines;
+	private final long length, modified;
+
+	// Either the mapped snapshot, or the Edges of every service period as compiled.
+	private final ByteBuffer buffer;
+	private final long[] positions;
+	private final int[][] offsets, targets, edgeLines;
+
+	// Weights of the Edges of every service period, measured all at once the first time they are needed.
+	private final double[][] weights = new double[ServiceRules.PERIODS][];
+	private Haversine haversine;
+	private TimeDependentRouter router;
+
+	private GraphSnapshot(ServiceRules rules, String[] lines, long length, long modified, ByteBuffer buffer, long[] positions, int[][] offsets, int[][] targets, int[][] edgeLines) {
+		this.rules = rules;
+		this.lines = lines;
+		this.length = length;
+		this.modified = modified;
+		this.buffer = buffer;
+		this.positions = positions;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.edgeLines = edgeLines;
+	}
+
+	/**
+	 * Get the snapshot of a stations csv file. If a snapshot of the csv file as it is now has already been
+	 * written, we load it; otherwise we compile the csv file and write its snapshot for next time. A snapshot is
+	 * kept once it is loaded, until the csv file changes.
+	 *
+	 * @param csv stations csv file
+	 * @return GraphSnapshot
+	 * @throws IOException if neither the snapshot nor the csv file can be read
+	 */
+	public static synchronized GraphSnapshot of(File csv) throws IOException {
+		String key = csv.getAbsolutePath();
+		GraphSnapshot snapshot = SNAPSHOTS.get(key);
+
+		if (snapshot != null && snapshot.current(csv)) {
+			return snapshot;
+		}
+		snapshot = null;
+		File file = file(csv);
+
+		if (file.isFile()) {
+			try {
+				snapshot = load(file);
+				if (!snapshot.current(csv)) {
+					snapshot = null;
+				}
+			} catch (IOException e) {
+				snapshot = null; // An old version or a broken snapshot is simply written again.
+			}
+		}
+		if (snapshot == null) {
+			snapshot = compile(csv);
+			try {
+				snapshot.write(file);
+			} catch (IOException e) {
+				// We can still run without a snapshot, e.g. if we cannot write next to the csv file.
+			}
+		}
+		SNAPSHOTS.put(key, snapshot);
+		return snapshot;
+	}
+
+	/**
+	 * @return the snapshot file of a stations csv file (the same name, ending in .snapshot)
+	 */
+	public static File file(File csv) {
+		String name = csv.getName();
+		int dot = name.lastIndexOf('.');
+
+		return new File(csv.getAbsoluteFile().getParentFile(), (dot == -1 ? name : name.substring(0, dot)) + ".snapshot");
+	}
+
+	/**
+	 * @return true, if this snapshot was taken of the csv file as it is now (or the csv file is gone), false otherwise
+	 */
+	public boolean current(File csv) {
+		return !csv.isFile() || (csv.length() == this.length && csv.lastModified() == this.modified);
+	}
+
+	/**
+	 * Here we compile the csv file and build the graph of every service period once, keeping its Edges. The csv
+	 * file is always read again (see ServiceRules.compile), as a snapshot is only ever compiled of a file that has
+	 * none yet or has changed since.
+	 *
+	 * @param csv stations csv file
+	 * @return GraphSnapshot
+	 * @throws IOException if the csv file cannot be read
+	 */
+	public static GraphSnapshot compile(File csv) throws IOException {
+		ServiceRules rules = ServiceRules.compile(csv);
+		MetroGraph metro = new MetroGraph();
+		Map<String, Integer> lineIds = new LinkedHashMap<>();
+
+		int[][] offsets = new int[ServiceRules.PERIODS][], targets = new int[ServiceRules.PERIODS][], edgeLines = new int[ServiceRules.PERIODS][];
+
+		for (int period = 0; period < ServiceRules.PERIODS; period++) {
+			MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> graph = metro.new Graph<>(new HashSet<>(), new HashSet<>());
+			List<MetroGraph.Node> nodes = metro.buildNodes(rules, ServiceRules.time(period), ServiceRules.dayType(period));
+
+			for (MetroGraph.Node node : nodes) {
+				graph.addNode(node);
+			}
+			Metrics.Span span = Metrics.begin(Metrics.Phase.EDGES);
+			metro.buildEdges(graph, nodes);
+			CompactGraph compact = graph.compact(nodes);
+			Metrics.end(span);
+
+			offsets[period] = new int[compact.size() + 1];
+			targets[period] = new int[compact.edges()];
+			edgeLines[period] = new int[compact.edges()];
+
+			for (int node = 0; node < compact.size(); node++) {
+				offsets[period][node + 1] = compact.end(node);
+
+				for (int e = compact.first(node); e < compact.end(node); e++) {
+					String line = compact.lineName(compact.line(e));
+
+					targets[period][e] = compact.target(e);
+					edgeLines[period][e] = line == null ? CompactGraph.TRANSFER : lineIds.computeIfAbsent(line, name -> lineIds.size());
+				}
+			}
+		}
+		return new GraphSnapshot(rules, lineIds.keySet().toArray(new String[0]), rules.length(), rules.modified(), null, null, offsets, targets, edgeLines);
+	}
+
+	/**
+	 * Write this snapshot to a file. We write to a temporary file first and then move it in place, so that
+	 * no process ever reads half of a snapshot.
+	 *
+	 * @param file snapshot file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(File file) throws IOException {
+		File temporary = new File(file.getPath() + ".tmp");
+		List<ServiceRules.Station> stations = this.rules.stations();
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(ServiceRules.PERIODS);
+			out.writeLong(this.length);
+			out.writeLong(this.modified);
+
+			out.writeInt(this.lines.length);
+			for (String line : this.lines) {
+				write(out, line);
+			}
+
+			out.writeInt(stations.size());
+			for (ServiceRules.Station station : stations) {
+				write(out, station.getName());
+				out.writeInt(station.getConnections().length);
+				for (String connection : station.getConnections()) {
+					write(out, connection);
+				}
+				out.writeDouble(station.getLongitude());
+				out.writeDouble(station.getLatitude());
+				write(out, station.getNotes());
+				out.writeBoolean(station.lastStop().isPresent());
+				if (station.lastStop().isPresent()) {
+					write(out, station.lastStop().get());
+				}
+
+				out.writeInt(station.getRules().size());
+				for (ServiceRules.Rule rule : station.getRules()) {
+					MetroGraph.Train train = rule.train();
+
+					write(out, train.train());
+					out.writeByte(train.type() == null ? -1 : train.type().ordinal());
+					out.writeByte(train.bound() == null ? -1 : train.bound().ordinal());
+					out.writeInt(rule.periods());
+				}
+			}
+
+			/*
+			Every service period takes 4 bytes for its count of Edges, then 4 bytes for every offset, target and line.
+			 */
+			long position = out.size() + 8L * ServiceRules.PERIODS;
+			for (int period = 0; period < ServiceRules.PERIODS; period++) {
+				out.writeLong(position);
+				position += 4L * (1 + this.offsets(period).length + 2 * this.targets(period).length);
+			}
+			for (int period = 0; period < ServiceRules.PERIODS; period++) {
+				int[] targets = this.targets(period);
+
+				out.writeInt(targets.length);
+				for (int offset : this.offsets(period)) {
+					out.writeInt(offset);
+				}
+				for (int target : targets) {
+					out.writeInt(target);
+				}
+				for (int line : this.edgeLines(period)) {
+					out.writeInt(line);
+				}
+			}
+		}
+
+		try {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static void write(DataOutputStream out, String string) throws IOException {
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Load a snapshot through a memory mapped file. The stations are read right away, while the Edges of a
+	 * service period are only read from the mapped file once needed.
+	 *
+	 * @param file snapshot file
+	 * @return GraphSnapshot
+	 * @throws IOException if the file cannot be read, or is not a snapshot of this version
+	 */
+	public static GraphSnapshot load(File file) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IOException(file + " is not a graph snapshot.");
+			}
+			int version = buffer.getInt();
+			if (version != VERSION || buffer.getInt() != ServiceRules.PERIODS) {
+				throw new IOException(file + " is a snapshot of version " + version + ", but version " + VERSION + " is needed.");
+			}
+			long length = buffer.getLong(), modified = buffer.getLong();
+
+			String[] lines = new String[buffer.getInt()];
+			for (int i = 0; i < lines.length; i++) {
+				lines[i] = read(buffer);
+			}
+
+			int count = buffer.getInt();
+			List<ServiceRules.Station> stations = new ArrayList<>(count);
+			LineCatalog catalog = new LineCatalog();
+
+			for (int i = 0; i < count; i++) {
+				String name = read(buffer);
+				String[] connections = new String[buffer.getInt()];
+				for (int c = 0; c < connections.length; c++) {
+					connections[c] = read(buffer);
+				}
+				double longitude = buffer.getDouble(), latitude = buffer.getDouble();
+				String notes = read(buffer);
+				Optional<String> lastStop = buffer.get() != 0 ? Optional.of(read(buffer)) : Optional.empty();
+
+				int size = buffer.getInt();
+				List<ServiceRules.Rule> rules = new ArrayList<>(size);
+				for (int r = 0; r < size; r++) {
+					String train = read(buffer);
+					int type = buffer.get(), bound = buffer.get();
+
+					rules.add(new ServiceRules.Rule(catalog.of(train,
+							type == -1 ? null : MetroGraph.Train.TrainType.values()[type],
+							bound == -1 ? null : MetroGraph.Train.Bound.values()[bound]), buffer.getInt()));
+				}
+				stations.add(new ServiceRules.Station(name, connections, longitude, latitude, notes, lastStop, rules, catalog));
+			}
+
+			long[] positions = new long[ServiceRules.PERIODS];
+			for (int period = 0; period < positions.length; period++) {
+				positions[period] = buffer.getLong();
+			}
+
+			// The Edges are only read once needed, so we make sure now that every service period is all there.
+			for (int period = 0; period < positions.length; period++) {
+				long position = positions[period];
+				int edges = position < buffer.position() || position + 4 > buffer.limit() ? -1 : buffer.getInt((int) position);
+
+				if (edges < 0 || position + 4L * (1 + count + 1 + 2L * edges) > buffer.limit()) {
+					throw new IOException(file + " is cut short, its Edges of service period " + period + " are not all there.");
+				}
+			}
+			return new GraphSnapshot(ServiceRules.of(stations, catalog, length, modified), lines, length, modified, buffer, positions, new int[ServiceRules.PERIODS][], new int[ServiceRules.PERIODS][], new int[ServiceRules.PERIODS][]);
+		} catch (RuntimeException e) {
+			// A snapshot cut short or otherwise broken reads past its end or into nonsense.
+			throw new IOException(file + " is not a readable graph snapshot.", e);
+		}
+	}
+
+	private static String read(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read the Edges of a service period out of the mapped snapshot, if they have not been read yet.
+	 */
+	private synchronized void read(int period) {
+		if (this.targets[period] != null) {
+			return;
+		}
+		ByteBuffer buffer = this.buffer.duplicate();
+		buffer.position((int) this.positions[period]);
+
+		int edges = buffer.getInt(), size = this.rules.stations().size();
+		int[] offsets = new int[size + 1], targets = new int[edges], lines = new int[edges];
+
+		buffer.asIntBuffer().get(offsets);
+		buffer.position(buffer.position() + 4 * offsets.length);
+		buffer.asIntBuffer().get(targets);
+		buffer.position(buffer.position() + 4 * edges);
+		buffer.asIntBuffer().get(lines);
+
+		this.offsets[period] = offsets;
+		this.edgeLines[period] = lines;
+		this.targets[period] = targets;
+	}
+
+	private int[] offsets(int period) {
+		this.read(period);
+		return this.offsets[period];
+	}
+	private int[] targets(int period) {
+		this.read(period);
+		return this.targets[period];
+	}
+	private int[] edgeLines(int period) {
+		this.read(period);
+		return this.edgeLines[period];
+	}
+
+	/**
+	 * Measure the weight of every Edge of a service period in a single batch (see Haversine).
+	 */
+	private synchronized double[] weights(int period) {
+		if (this.weights[period] == null) {
+			int[] offsets = this.offsets(period), targets = this.targets(period);
+
+			if (this.haversine == null) {
+				List<ServiceRules.Station> stations = this.rules.stations();
+				double[] latitudes = new double[stations.size()], longitudes = new double[stations.size()];
+
+				for (int i = 0; i < stations.size(); i++) {
+					latitudes[i] = stations.get(i).getLatitude();
+					longitudes[i] = stations.get(i).getLongitude();
+				}
+				this.haversine = new Haversine(latitudes, longitudes);
+			}
+			int[] sources = new int[targets.length];
+			for (int from = 0; from < offsets.length - 1; from++) {
+				Arrays.fill(sources, offsets[from], offsets[from + 1], from);
+			}
+			double[] weights = new double[targets.length];
+			this.haversine.distances(sources, targets, targets.length, weights);
+			this.weights[period] = weights;
+		}
+		return this.weights[period];
+	}
+
+	public ServiceRules rules() {
+		return this.rules;
+	}
+
+	/**
+	 * Here we merge the Edges of every service period into a single graph, where an Edge of the same stations and
+	 * line within many service periods is kept once, along with a mask of those service periods. It is built the
+	 * first time it is needed, then kept.
+	 *
+	 * @return TimeDependentRouter of the Edges of every service period
+	 */
+	public synchronized TimeDependentRouter timeDependentRouter() {
+		if (this.router == null) {
+			int size = this.rules.stations().size();
+			int[][] first = new int[ServiceRules.PERIODS][];
+			for (int period = 0; period < ServiceRules.PERIODS; period++) {
+				first[period] = this.offsets(period);
+				this.weights(period);
+			}
+
+			int[] offsets = new int[size + 1];
+			List<int[]> merged = new ArrayList<>(); // target, line, mask and the period and Edge it was first found within
+			Map<Long, Integer> found = new HashMap<>();
+
+			for (int from = 0; from < size; from++) {
+				found.clear();
+				for (int period = 0; period < ServiceRules.PERIODS; period++) {
+					int[] targets = this.targets(period), lines = this.edgeLines(period);
+
+					for (int e = first[period][from]; e < first[period][from + 1]; e++) {
+						long key = (long) targets[e] << 32 | (lines[e] & 0xFFFFFFFFL);
+						Integer index = found.get(key);
+						if (index == null) {
+							found.put(key, merged.size());
+							merged.add(new int[] { targets[e], lines[e], 1 << period, period, e });
+						} else {
+							merged.get(index)[2] |= 1 << period;
+						}
+					}
+				}
+				offsets[from + 1] = merged.size();
+			}
+
+			int[] targets = new int[merged.size()], lines = new int[merged.size()], masks = new int[merged.size()];
+			double[] lengths = new double[merged.size()];
+			for (int e = 0; e < merged.size(); e++) {
+				int[] edge = merged.get(e);
+				targets[e] = edge[0];
+				lines[e] = edge[1];
+				masks[e] = edge[2];
+				lengths[e] = this.weights[edge[3]][edge[4]];
+			}
+			this.router = new TimeDependentRouter(this.rules.registry(), offsets, targets, lines, masks, lengths, this.lines);
+		}
+		return this.router;
+	}
+
+	/**
+	 * Create the Edges of a service period between our Nodes, with the weights measured for that period.
+	 *
+	 * @param graph Graph of the Nodes
+	 * @param nodes Nodes of every station, in the order of the csv file (see MetroGraph.buildNodes)
+	 * @param period service period
+	 */
+	public void connect(MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> graph, List<MetroGraph.Node> nodes, int period) {
+		int[] offsets = this.offsets(period), targets = this.targets(period), lines = this.edgeLines(period);
+		double[] weights = this.weights(period);
+		MetroGraph metro = new MetroGraph();
+
+		for (int from = 0; from < nodes.size(); from++) {
+			for (int e = offsets[from]; e < offsets[from + 1]; e++) {
+				MetroGraph.Node to = nodes.get(targets[e]);
+				graph.connect(metro.new Edge(nodes.get(from), to, lines[e] == CompactGraph.TRANSFER ? null : this.lines[lines[e]], weights[e]));
+			}
+		}
+	}
+}
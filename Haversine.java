@@ -0,0 +1,160 @@
+import java.util.List;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * Haversine measures distances between many stations at once (see MetroGraph.distance).
+ *
+ * The coordinates of our stations are stored as arrays (latitudes, longitudes and the cosine of every latitude),
+ * rather than within Nodes, so the cosine of a station's latitude is found once rather than at every distance
+ * measured from it, and a batch of distances is a single loop over primitive arrays. Every distance is the same
+ * formula, in the same order, as MetroGraph.distance, so it gives exactly the same result.
+ *
+ * Every station is also stored as a point on a sphere as large as the Earth. The straight line (chord) between
+ * two such points is never longer than the distance along the surface, and needs no trigonometry at all, so it
+ * is what A* searches use to estimate the distance left (see CompactGraph.bound).
+ */
+public final class Haversine {
+	private final double[] latitudes, longitudes, cosines;
+	private final double[] x, y, z;
+
+	public Haversine(double[] latitudes, double[] longitudes) {
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		this.cosines = new double[latitudes.length];
+		this.x = new double[latitudes.length];
+		this.y = new double[latitudes.length];
+		this.z = new double[latitudes.length];
+
+		for (int i = 0; i < latitudes.length; i++) {
+			double lat = Math.toRadians(latitudes[i]), lon = Math.toRadians(longitudes[i]);
+
+			this.cosines[i] = Math.cos(lat);
+			this.x[i] = MetroGraph.EARTH_RADIUS * this.cosines[i] * Math.cos(lon);
+			this.y[i] = MetroGraph.EARTH_RADIUS * this.cosines[i] * Math.sin(lon);
+			this.z[i] = MetroGraph.EARTH_RADIUS * Math.sin(lat);
+		}
+	}
+
+	/**
+	 * @param nodes Nodes, whose ids are their positions in the List
+	 * @return Haversine of the Nodes
+	 */
+	public static Haversine of(List<? extends MetroGraph.Node> nodes) {
+		return of(nodes.toArray(new MetroGraph.Node[0]));
+	}
+
+	public static Haversine of(MetroGraph.Node[] nodes) {
+		double[] latitudes = new double[nodes.length], longitudes = new double[nodes.length];
+
+		for (int i = 0; i < nodes.length; i++) {
+			latitudes[i] = nodes[i].getLatitude();
+			longitudes[i] = nodes[i].getLongitude();
+		}
+		return new Haversine(latitudes, longitudes);
+	}
+
+	private static double distance(double latitude, double longitude, double cosine, double toLatitude, double toLongitude, double toCosine) {
+		double dlat = Math.toRadians(toLatitude - latitude);
+		double dlong = Math.toRadians(toLongitude - longitude);
+
+		double a = 0.5 - Math.cos(dlat) / 2 + cosine * toCosine * (1 - Math.cos(dlong)) / 2;
+
+		return 2 * MetroGraph.EARTH_RADIUS * Math.asin(Math.sqrt(a));
+	}
+
+	/**
+	 * @return distance in km between two stations
+	 */
+	public double distance(int from, int to) {
+		return distance(this.latitudes[from], this.longitudes[from], this.cosines[from], this.latitudes[to], this.longitudes[to], this.cosines[to]);
+	}
+
+	/**
+	 * @return distance in km from a point to a station
+	 */
+	public double distance(double latitude, double longitude, int to) {
+		return distance(latitude, longitude, Math.cos(Math.toRadians(latitude)), this.latitudes[to], this.longitudes[to], this.cosines[to]);
+	}
+
+	/**
+	 * The chord between two stations, which is never longer than the distance along the surface between them.
+	 * As the chord is a straight line, chord(a, c) <= chord(a, b) + chord(b, c).
+	 *
+	 * @return chord in km between two stations
+	 */
+	public double chord(int from, int to) {
+		double dx = this.x[from] - this.x[to], dy = this.y[from] - this.y[to], dz = this.z[from] - this.z[to];
+		return Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+
+	/**
+	 * Measure the distance of every pair (from[i], to[i]), e.g. the weights of a list of Edges.
+	 *
+	 * @param from stations from
+	 * @param to stations to
+	 * @param count number of pairs
+	 * @param distances distances in km, by pair
+	 */
+	public void distances(int[] from, int[] to, int count, double[] distances) {
+		for (int i = 0; i < count; i++) {
+			int f = from[i], t = to[i];
+			distances[i] = distance(this.latitudes[f], this.longitudes[f], this.cosines[f], this.latitudes[t], this.longitudes[t], this.cosines[t]);
+		}
+	}
+
+	/**
+	 * Measure the distance from one station to many.
+	 *
+	 * @param from station from
+	 * @param to stations to
+	 * @param count number of stations to
+	 * @param distances distances in km, by station to
+	 */
+	public void distances(int from, int[] to, int count, double[] distances) {
+		double latitude = this.latitudes[from], longitude = this.longitudes[from], cosine = this.cosines[from];
+
+		for (int i = 0; i < count; i++) {
+			int t = to[i];
+			distances[i] = distance(latitude, longitude, cosine, this.latitudes[t], this.longitudes[t], this.cosines[t]);
+		}
+	}
+
+	/**
+	 * Measure the distance from a point to many stations.
+	 *
+	 * @param to stations to
+	 * @param count number of stations to
+	 * @param distances distances in km, by station to
+	 */
+	public void distances(double latitude, double longitude, int[] to, int count, double[] distances) {
+		double cosine = Math.cos(Math.toRadians(latitude));
+
+		for (int i = 0; i < count; i++) {
+			int t = to[i];
+			distances[i] = distance(latitude, longitude, cosine, this.latitudes[t], this.longitudes[t], this.cosines[t]);
+		}
+	}
+
+	/**
+	 * Measure the distance from one station to every station.
+	 *
+	 * @param from station from
+	 * @param distances distances in km, by station to
+	 */
+	public void distances(int from, double[] distances) {
+		double latitude = this.latitudes[from], longitude = this.longitudes[from], cosine = this.cosines[from];
+
+		for (int t = 0; t < this.latitudes.length; t++) {
+			distances[t] = distance(latitude, longitude, cosine, this.latitudes[t], this.longitudes[t], this.cosines[t]);
+		}
+	}
+
+	public int size() {
+		return this.latitudes.length;
+	}
+}
@@ -0,0 +1,164 @@
+import java.util.Arrays;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * IndexedHeap is a 4-ary min heap of int ids (e.g. Node ids of a CompactGraph) keyed by a double (e.g. tentative
+ * distance). Unlike a PriorityQueue, it knows where each id is within the heap, so the key of an id that is already
+ * within the heap can be decreased rather than pushing the id again.
+ *
+ * The heap does not allocate once created, and clearing it takes constant time, so one heap can be reused for
+ * every search.
+ */
+public final class IndexedHeap {
+	private final int[] heap, position;
+	private final double[] keys;
+	private int size;
+
+	// Work done since the heap was last cleared.
+	private int pushes, decreases;
+
+	/**
+	 * @param capacity number of ids (ids range from 0 to capacity - 1)
+	 */
+	public IndexedHeap(int capacity) {
+		this.heap = new int[capacity];
+		this.keys = new double[capacity];
+		this.position = new int[capacity];
+		Arrays.fill(this.position, -1);
+	}
+
+	public int size() {
+		return this.size;
+	}
+	public boolean isEmpty() {
+		return this.size == 0;
+	}
+	public void clear() {
+		this.size = 0;
+		this.pushes = 0;
+		this.decreases = 0;
+	}
+
+	/**
+	 * Positions are not reset when the heap is cleared, so we check that the id is indeed at its position.
+	 *
+	 * @return true, if the id is within the heap, false otherwise
+	 */
+	public boolean contains(int id) {
+		int at = this.position[id];
+		return at >= 0 && at < this.size && this.heap[at] == id;
+	}
+
+	/**
+	 * @return key of the id, only if it is within the heap
+	 */
+	public double key(int id) {
+		return this.keys[this.position[id]];
+	}
+
+	/**
+	 * Push the id into the heap, or if it is already within the heap and the key is smaller,
+	 * decrease its key.
+	 *
+	 * @return true, if the id was pushed or its key decreased, false otherwise
+	 */
+	public boolean offer(int id, double key) {
+		if (this.contains(id)) {
+			int at = this.position[id];
+			if (key >= this.keys[at]) {
+				return false;
+			}
+			this.up(at, id, key);
+			this.decreases++;
+			return true;
+		}
+		this.up(this.size++, id, key);
+		this.pushes++;
+		return true;
+	}
+
+	/**
+	 * @return number of ids pushed since the heap was last cleared
+	 */
+	public int pushes() {
+		return this.pushes;
+	}
+
+	/**
+	 * @return number of keys decreased since the heap was last cleared
+	 */
+	public int decreases() {
+		return this.decreases;
+	}
+
+	/**
+	 * @return key of the id at the top of the heap
+	 */
+	public double peekKey() {
+		return this.keys[0];
+	}
+	public int peek() {
+		return this.heap[0];
+	}
+
+	/**
+	 * Remove the id with the smallest key.
+	 *
+	 * @return id with the smallest key
+	 */
+	public int poll() {
+		int top = this.heap[0];
+		this.position[top] = -1;
+
+		if (--this.size > 0) {
+			this.down(0, this.heap[this.size], this.keys[this.size]);
+		}
+		return top;
+	}
+
+	private void up(int at, int id, double key) {
+		while (at > 0) {
+			int parent = (at - 1) >>> 2;
+			if (this.keys[parent] <= key) {
+				break;
+			}
+			this.place(at, this.heap[parent], this.keys[parent]);
+			at = parent;
+		}
+		this.place(at, id, key);
+	}
+
+	private void down(int at, int id, double key) {
+		while (true) {
+			int child = (at << 2) + 1;
+			if (child >= this.size) {
+				break;
+			}
+			int smallest = child;
+			int last = Math.min(child + 4, this.size);
+
+			for (int i = child + 1; i < last; i++) {
+				if (this.keys[i] < this.keys[smallest]) {
+					smallest = i;
+				}
+			}
+			if (this.keys[smallest] >= key) {
+				break;
+			}
+			this.place(at, this.heap[smallest], this.keys[smallest]);
+			at = smallest;
+		}
+		this.place(at, id, key);
+	}
+
+	private void place(int at, int id, double key) {
+		this.heap[at] = id;
+		this.keys[at] = key;
+		this.position[id] = at;
+	}
+}
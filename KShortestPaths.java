@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * KShortestPaths finds the k shortest paths between two stations that never go through the same Node twice, so
+ * that riders have alternatives when a line is crowded, using Yen's algorithm.
+ *
+ * Every path found after the first leaves a shorter one at some stop (its spur), having followed it (its root) up
+ * to there. From every stop of every path found, we search for the shortest way on to the destination that does not
+ * go back through its root, nor leave the stop the way a path already found with the same root does; the shortest
+ * of every such candidate is the next path. As with Lawler's take on it, a path only spurs from the stop it left its
+ * own shorter path at, or any stop after, since every spur before was already searched from that shorter path.
+ *
+ * Every spur search borrows the same SearchEngine (see SearchEngine.spur), and is guided by a single ShortestPathTree
+ * to the destination (which our Graph keeps, see ShortestPathTree.to), so a search settles little more than the
+ * stops of the path it finds.
+ * Finding a few alternatives thus costs only a few times as much as finding the shortest path.
+ *
+ * Alternatives may also be asked to differ from one another by a share of their stations, so that paths which
+ * only change platforms within a station complex are not given as alternatives. A path that does not differ enough
+ * is passed over, and is not spurred from either, as the paths found from it would mostly be as alike.
+ */
+public class KShortestPaths {
+	/**
+	 * Most paths we find (as a multiple of k) while looking for alternatives that differ enough, before we give up.
+	 */
+	public static final int ATTEMPTS = 8;
+
+	/**
+	 * A single path found: ids of its Nodes, its distance in km, and the index of the stop at which it left the
+	 * path it was found from (0 for the shortest path). Paths are equal if their Nodes are.
+	 */
+	public record Alternative(int[] stops, double distance, int deviation) {
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof Alternative other && Arrays.equals(this.stops, other.stops);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(this.stops);
+		}
+	}
+
+	private KShortestPaths() { }
+
+	/**
+	 * Here we find up to k shortest paths from the source to the destination of a ShortestPathTree, shortest
+	 * first, each of which has at least a share of its stations (by station complex) that none of the paths
+	 * before it have.
+	 *
+	 * @param left ShortestPathTree to the destination (see ShortestPathTree.to)
+	 * @param source id of the origin Node
+	 * @param k most paths to find
+	 * @param difference share (0 to 1) of the stations of every path that no shorter path found may go through
+	 * @return paths found, shortest first, or none if the destination cannot be reached
+	 */
+	public static List<Alternative> find(ShortestPathTree left, int source, int k, double difference) {
+		if (!left.reversed()) {
+			throw new IllegalArgumentException("A ShortestPathTree to the destination is needed, not one from an origin.");
+		}
+		CompactGraph graph = left.graph();
+		int target = left.source();
+
+		List<Alternative> alternatives = new ArrayList<>();
+		if (k <= 0 || !left.reached(source)) {
+			return alternatives;
+		}
+		List<Alternative> found = new ArrayList<>();
+		PriorityQueue<Alternative> candidates = new PriorityQueue<>(Comparator.comparingDouble(Alternative::distance));
+		Set<Alternative> seen = new HashSet<>();
+
+		SearchEngine engine = graph.acquire();
+		try {
+			engine.unban();
+			engine.spur(source, target, left);
+			Alternative shortest = new Alternative(engine.path(target), engine.distance(target), 0);
+			candidates.add(shortest);
+			seen.add(shortest);
+
+			while (!candidates.isEmpty() && alternatives.size() < k && found.size() < k * ATTEMPTS) {
+				Alternative next = candidates.poll();
+				found.add(next);
+				if (!differs(graph, next, alternatives, difference)) {
+					continue;
+				}
+				alternatives.add(next);
+				if (alternatives.size() == k) {
+					break;
+				}
+
+				int[] stops = next.stops();
+				double root = 0;
+				for (int i = 0; i < stops.length - 1; i++) {
+					if (i >= next.deviation()) {
+						spur(engine, left, found, stops, i, root, candidates, seen);
+					}
+					root += graph.weight(graph.edge(stops[i], stops[i + 1]));
+				}
+			}
+		} finally {
+			engine.unban();
+			graph.release(engine);
+		}
+		return alternatives;
+	}
+
+	/**
+	 * Search for the shortest way on from a stop of a path, keeping whatever we find as a candidate.
+	 *
+	 * @param stops path we spur from
+	 * @param i index of the stop we spur from
+	 * @param root distance of the path up to the stop
+	 */
+	private static void spur(SearchEngine engine, ShortestPathTree left, List<Alternative> found, int[] stops, int i, double root, PriorityQueue<Alternative> candidates, Set<Alternative> seen) {
+		CompactGraph graph = engine.graph();
+		int from = stops[i], target = left.source();
+
+		engine.unban();
+		for (int j = 0; j < i; j++) {
+			engine.ban(stops[j]);
+		}
+
+		// Every way a path with the same root left this stop is taken already, over any line.
+		for (int p = 0; p < found.size(); p++) {
+			int[] other = found.get(p).stops();
+			if (other.length > i + 1 && Arrays.equals(other, 0, i + 1, stops, 0, i + 1)) {
+				for (int e = graph.first(from); e < graph.end(from); e++) {
+					if (graph.target(e) == other[i + 1]) {
+						engine.banEdge(e);
+					}
+				}
+			}
+		}
+
+		if (engine.spur(from, target, left)) {
+			int[] spur = engine.path(target);
+			int[] path = Arrays.copyOf(stops, i + spur.length);
+			System.arraycopy(spur, 0, path, i, spur.length);
+
+			Alternative candidate = new Alternative(path, root + engine.distance(target), i);
+			if (seen.add(candidate)) {
+				candidates.add(candidate);
+			}
+		}
+	}
+
+	/**
+	 * @return true, if at least a share of the stations of a path are not those of any path already given
+	 */
+	private static boolean differs(CompactGraph graph, Alternative path, List<Alternative> alternatives, double difference) {
+		if (difference <= 0 || alternatives.isEmpty()) {
+			return true;
+		}
+		Set<Object> stations = stations(graph, path);
+
+		for (int a = 0; a < alternatives.size(); a++) {
+			Set<Object> other = stations(graph, alternatives.get(a));
+			int differ = 0;
+			for (Object station : stations) {
+				if (!other.contains(station)) {
+					differ++;
+				}
+			}
+			if (differ < difference * stations.size()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return stations of a path, by station complex (or by name, if its Nodes have no StationRegistry)
+	 */
+	private static Set<Object> stations(CompactGraph graph, Alternative path) {
+		Set<Object> stations = new HashSet<>();
+		for (int stop : path.stops()) {
+			MetroGraph.Node node = graph.node(stop);
+			stations.add(node.stationId() != -1 ? (Object) node.stationId() : node.getStation());
+		}
+		return stations;
+	}
+}
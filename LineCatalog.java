@@ -0,0 +1,237 @@
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * LineCatalog gives every Train (a line, its TrainType and its Bound) a small id and a single instance shared by
+ * every Node, and every line (by name, whatever its type or bound) an id of its own.
+ *
+ * The trains that run at a station are then held as a mask of longs (bit n of word n / 64 is set if Train n runs),
+ * as are the lines, so whether two stations share a line is an AND of their masks, rather than comparing the trains
+ * of one with every train of the other. The MTA has fewer than 64 trains, so a mask is a single long, but a mask
+ * grows by a long for every 64 more, so a network of any size may be held.
+ *
+ * Every ServiceRules has a catalog of its own (as does every MetroGraph, for Nodes built from their own conditions),
+ * in which ids are given in the order trains are first seen. Masks of different catalogs are not to be mixed.
+ */
+public final class LineCatalog {
+	/**
+	 * Mask of no trains or lines.
+	 */
+	public static final long[] NONE = new long[0];
+
+	/**
+	 * A Train given an id, along with the id of its line, the id of the first Train of its kind, and its label.
+	 */
+	private record Entry(MetroGraph.Train train, int line, int kind, String label) {}
+
+	private final Map<MetroGraph.Train, Integer> ids = new HashMap<>();
+	private final Map<String, Integer> lines = new HashMap<>();
+
+	/*
+	Both arrays are copied (one longer) whenever an id is given, and never changed after, so ids may be looked up
+	without holding the lock.
+	 */
+	private volatile Entry[] entries = new Entry[0];
+	private volatile String[] names = new String[0];
+
+	/**
+	 * @return the single instance of a Train
+	 */
+	public MetroGraph.Train of(String line, MetroGraph.Train.TrainType type, MetroGraph.Train.Bound bound) {
+		return this.train(this.id(new MetroGraph.Train(line, type, bound)));
+	}
+
+	/**
+	 * Here we find the id of a Train, giving it one (and keeping it as the single instance of its line, type and
+	 * bound) if it has none yet.
+	 *
+	 * @param train Train
+	 * @return id of the Train
+	 */
+	public synchronized int id(MetroGraph.Train train) {
+		Integer id = this.ids.get(train);
+		if (id != null) {
+			return id;
+		}
+		Entry[] entries = this.entries;
+
+		Integer line = this.lines.get(train.train());
+		if (line == null) {
+			line = this.names.length;
+			String[] names = Arrays.copyOf(this.names, line + 1);
+			names[line] = train.train();
+			this.names = names;
+			this.lines.put(train.train(), line);
+		}
+
+		/*
+		Trains of the same line and type are written the same way (see Path.toString), whatever their bound, so
+		every Train points to the first of its kind.
+		 */
+		int kind = entries.length;
+		for (int i = 0; i < entries.length; i++) {
+			if (entries[i].line() == line && entries[i].train().type() == train.type()) {
+				kind = i;
+				break;
+			}
+		}
+
+		String label = null;
+		if (train.type() != null) {
+			switch (train.type()) {
+				case LOCAL: label = "(" + train.train() + ")"; break;
+				case EXPRESS: label = "<" + train.train() + ">"; break;
+			}
+		}
+
+		id = entries.length;
+		entries = Arrays.copyOf(entries, id + 1);
+		entries[id] = new Entry(train, line, kind, label);
+		this.entries = entries;
+		this.ids.put(train, id);
+		return id;
+	}
+
+	/**
+	 * @return number of Trains given an id
+	 */
+	public int size() {
+		return this.entries.length;
+	}
+
+	public MetroGraph.Train train(int id) {
+		return this.entries[id].train();
+	}
+
+	/**
+	 * @return id of the line of a Train
+	 */
+	public int line(int id) {
+		return this.entries[id].line();
+	}
+	public String lineName(int line) {
+		return this.names[line];
+	}
+
+	/**
+	 * @return id of the first Train of the same line and type as a Train, which is written the same way
+	 */
+	public int kind(int id) {
+		return this.entries[id].kind();
+	}
+
+	/**
+	 * @return a Train as written within a Path, e.g. "(6)" or "<6 Express>", or null if it has no type
+	 */
+	public String label(int id) {
+		return this.entries[id].label();
+	}
+
+	/**
+	 * @param mask mask of Trains of this catalog
+	 * @return the Trains of a mask, as a Set (in the order of their ids) that is read from the mask itself
+	 */
+	public Set<MetroGraph.Train> trains(long[] mask) {
+		return new AbstractSet<>() {
+			@Override
+			public Iterator<MetroGraph.Train> iterator() {
+				return new Iterator<>() {
+					private int next = LineCatalog.next(mask, 0);
+
+					@Override
+					public boolean hasNext() {
+						return this.next != -1;
+					}
+
+					@Override
+					public MetroGraph.Train next() {
+						if (this.next == -1) {
+							throw new NoSuchElementException();
+						}
+						int id = this.next;
+						this.next = LineCatalog.next(mask, id + 1);
+						return LineCatalog.this.train(id);
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object object) {
+				if (!(object instanceof MetroGraph.Train)) {
+					return false;
+				}
+				Integer id;
+				synchronized (LineCatalog.this) {
+					id = LineCatalog.this.ids.get(object);
+				}
+				return id != null && has(mask, id);
+			}
+
+			@Override
+			public int size() {
+				int size = 0;
+				for (long word : mask) {
+					size += Long.bitCount(word);
+				}
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * @return a copy of a mask with a bit set, as long as it needs to be
+	 */
+	public static long[] with(long[] mask, int bit) {
+		long[] copy = Arrays.copyOf(mask, Math.max(mask.length, (bit >>> 6) + 1));
+		copy[bit >>> 6] |= 1L << bit;
+		return copy;
+	}
+
+	/**
+	 * @return whether a bit of a mask is set
+	 */
+	public static boolean has(long[] mask, int bit) {
+		return (bit >>> 6) < mask.length && (mask[bit >>> 6] >>> bit & 1) != 0;
+	}
+
+	/**
+	 * @return whether two masks have a bit set in common
+	 */
+	public static boolean intersects(long[] a, long[] b) {
+		for (int i = Math.min(a.length, b.length) - 1; i >= 0; i--) {
+			if ((a[i] & b[i]) != 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the first bit of a mask set at or after a bit, or -1 if there is none
+	 */
+	public static int next(long[] mask, int from) {
+		int i = from >>> 6;
+		if (i >= mask.length) {
+			return -1;
+		}
+		long word = mask[i] & -1L << from;
+		while (word == 0) {
+			if (++i == mask.length) {
+				return -1;
+			}
+			word = mask[i];
+		}
+		return (i << 6) + Long.numberOfTrailingZeros(word);
+	}
+}
@@ -0,0 +1,272 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * LineTopology orders the stations of every line so that we only need to connect each station to the
+ * stations right before and after it, rather than to every other station on the line.
+ *
+ * The csv file does not give us the order of stops, so we chain them geographically: for each line we
+ * find the minimum spanning tree of its stations (by distance), which follows the tracks, branches included.
+ * That tree is then split into sequences of stops, a trunk running from one end of the line to the other, and
+ * branches that each begin at the stop they split off from.
+ */
+public class LineTopology {
+	private final Map<String, List<List<MetroGraph.Node>>> sequences;
+
+	private LineTopology(Map<String, List<List<MetroGraph.Node>>> sequences) {
+		this.sequences = Collections.unmodifiableMap(sequences);
+	}
+
+	/**
+	 * Here we group our Nodes by the lines that run at them and order each line.
+	 *
+	 * @param nodes Nodes in a stable order (e.g. the order of the csv file)
+	 * @return LineTopology of every line
+	 */
+	public static LineTopology of(List<? extends MetroGraph.Node> nodes) {
+		Map<String, List<MetroGraph.Node>> lines = new LinkedHashMap<>();
+
+		for (MetroGraph.Node node : nodes) {
+			// A line is held once, whatever the types or bounds of its trains (see LineCatalog).
+			long[] mask = node.lineMask();
+			for (int line = LineCatalog.next(mask, 0); line != -1; line = LineCatalog.next(mask, line + 1)) {
+				lines.computeIfAbsent(node.catalog().lineName(line), name -> new ArrayList<>()).add(node);
+			}
+		}
+
+		Map<String, List<List<MetroGraph.Node>>> sequences = new LinkedHashMap<>();
+		lines.forEach((line, stops) -> sequences.put(line, order(stops)));
+
+		return new LineTopology(sequences);
+	}
+
+	/**
+	 * Using Prim's algorithm, we find the minimum spanning tree of the stops of a line, then split it into sequences.
+	 *
+	 * @param stops stops of a single line
+	 * @return sequences of stops
+	 */
+	private static List<List<MetroGraph.Node>> order(List<MetroGraph.Node> stops) {
+		int n = stops.size();
+		if (n < 2) {
+			return List.of(List.copyOf(stops));
+		}
+
+		Haversine haversine = Haversine.of(stops);
+		int[] parent = new int[n];
+		double[] cost = new double[n], row = new double[n];
+		boolean[] inTree = new boolean[n];
+		List<List<Integer>> tree = new ArrayList<>();
+
+		Arrays.fill(parent, -1);
+		Arrays.fill(cost, Double.MAX_VALUE);
+		for (int i = 0; i < n; i++) {
+			tree.add(new ArrayList<>());
+		}
+		cost[0] = 0;
+
+		for (int added = 0; added < n; added++) {
+			int next = -1;
+			for (int i = 0; i < n; i++) {
+				if (!inTree[i] && (next == -1 || cost[i] < cost[next])) {
+					next = i;
+				}
+			}
+			inTree[next] = true;
+
+			if (parent[next] != -1) {
+				tree.get(next).add(parent[next]);
+				tree.get(parent[next]).add(next);
+			}
+			haversine.distances(next, row);
+			for (int i = 0; i < n; i++) {
+				if (!inTree[i] && row[i] < cost[i]) {
+					cost[i] = row[i];
+					parent[i] = next;
+				}
+			}
+		}
+
+		/*
+		The end of a line is the stop farthest from any stop, so we root the tree there, then
+		always follow the longest way down so that the trunk covers the whole line.
+		 */
+		int[] up = new int[n];
+		double[] distance = new double[n];
+		int root = farthest(walk(haversine, tree, 0, up, distance), distance);
+		int[] order = walk(haversine, tree, root, up, distance);
+
+		double[] height = new double[n];
+		int[] heavy = new int[n];
+		Arrays.fill(heavy, -1);
+
+		for (int i = n - 1; i > 0; i--) {
+			int node = order[i], p = up[node];
+			double through = height[node] + distance[node] - distance[p];
+
+			if (heavy[p] == -1 || through > height[p]) {
+				height[p] = through;
+				heavy[p] = node;
+			}
+		}
+
+		List<List<MetroGraph.Node>> sequences = new ArrayList<>();
+		Deque<int[]> starts = new ArrayDeque<>();
+		starts.push(new int[] { -1, root });
+
+		while (!starts.isEmpty()) {
+			int[] start = starts.pop();
+			List<MetroGraph.Node> sequence = new ArrayList<>();
+
+			if (start[0] != -1) {
+				sequence.add(stops.get(start[0]));
+			}
+			for (int node = start[1]; node != -1; node = heavy[node]) {
+				sequence.add(stops.get(node));
+
+				for (int neighbour : tree.get(node)) {
+					if (neighbour != up[node] && neighbour != heavy[node]) {
+						starts.push(new int[] { node, neighbour });
+					}
+				}
+			}
+			sequences.add(Collections.unmodifiableList(sequence));
+		}
+		return sequences;
+	}
+
+	/**
+	 * Walks the tree from a stop in breadth first order, storing the stop we came from and
+	 * the distance along the tree to every stop.
+	 *
+	 * @return stops in the order they were walked
+	 */
+	private static int[] walk(Haversine haversine, List<List<Integer>> tree, int start, int[] up, double[] distance) {
+		int[] order = new int[haversine.size()];
+		int head = 0, tail = 0;
+
+		Arrays.fill(up, -1);
+		order[tail++] = start;
+		distance[start] = 0;
+
+		while (head < tail) {
+			int node = order[head++];
+
+			for (int neighbour : tree.get(node)) {
+				if (neighbour != start && up[neighbour] == -1) {
+					up[neighbour] = node;
+					distance[neighbour] = distance[node] + haversine.distance(node, neighbour);
+					order[tail++] = neighbour;
+				}
+			}
+		}
+		return order;
+	}
+
+	private static int farthest(int[] order, double[] distance) {
+		int far = order[0];
+		for (int node : order) {
+			if (distance[node] > distance[far]) {
+				far = node;
+			}
+		}
+		return far;
+	}
+
+	/**
+	 * Here we fit this topology to the Edges of a graph that has been changed since it was built (see
+	 * Graph.update): every sequence is cut wherever two stops next to each other are no longer joined both ways
+	 * by an Edge of the line (e.g. a suspended segment, or a closed station), and every Edge of a line that does
+	 * not join two stops next to each other (e.g. a shuttle) becomes a sequence of its own.
+	 *
+	 * @param graph CompactGraph of our Nodes, as changed
+	 * @return LineTopology of the lines as they run within the graph
+	 */
+	public LineTopology within(CompactGraph graph) {
+		Map<String, List<List<MetroGraph.Node>>> sequences = new LinkedHashMap<>();
+		Map<String, Set<Long>> covered = new HashMap<>();
+
+		this.sequences.forEach((line, lineSequences) -> {
+			List<List<MetroGraph.Node>> kept = new ArrayList<>();
+			Set<Long> pairs = covered.computeIfAbsent(line, name -> new HashSet<>());
+
+			for (List<MetroGraph.Node> sequence : lineSequences) {
+				List<MetroGraph.Node> piece = new ArrayList<>();
+				int last = -1;
+
+				for (MetroGraph.Node node : sequence) {
+					int id = graph.id(node);
+					if (id != -1 && last != -1 && joined(graph, line, last, id) && joined(graph, line, id, last)) {
+						pairs.add(pair(last, id));
+					} else {
+						if (piece.size() > 1) {
+							kept.add(piece);
+						}
+						piece = new ArrayList<>();
+					}
+					if (id != -1) {
+						piece.add(node);
+					}
+					last = id;
+				}
+				if (piece.size() > 1) {
+					kept.add(piece);
+				}
+			}
+			sequences.put(line, kept);
+		});
+
+		for (int from = 0; from < graph.size(); from++) {
+			for (int e = graph.first(from); e < graph.end(from); e++) {
+				String line = graph.lineName(graph.line(e));
+				int to = graph.target(e);
+
+				if (line != null && covered.computeIfAbsent(line, name -> new HashSet<>()).add(pair(from, to))) {
+					sequences.computeIfAbsent(line, name -> new ArrayList<>()).add(new ArrayList<>(List.of(graph.node(from), graph.node(to))));
+				}
+			}
+		}
+		return new LineTopology(sequences);
+	}
+
+	private static boolean joined(CompactGraph graph, String line, int from, int to) {
+		for (int e = graph.first(from); e < graph.end(from); e++) {
+			if (graph.target(e) == to && line.equals(graph.lineName(graph.line(e)))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the same key for both directions between two Nodes
+	 */
+	private static long pair(int a, int b) {
+		return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+	}
+
+	/**
+	 * @return every line and its sequences of stops
+	 */
+	public Map<String, List<List<MetroGraph.Node>>> sequences() {
+		return this.sequences;
+	}
+	public List<List<MetroGraph.Node>> sequences(String line) {
+		return this.sequences.getOrDefault(line, List.of());
+	}
+}
@@ -0,0 +1,350 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * LoadDriver replays a mix of queries (origin, destination, time and day) against our graphs from many clients at
+ * once, at a target rate, and reports the throughput along with the p50, p99 and p999 latency of the queries.
+ *
+ * The graph of every service period is generated before we begin, so every query is only a search, run on the
+ * graph of the period its time and day fall within. Queries are either picked at random from the stations of the
+ * csv file (with a fixed seed), or read from a csv file of origin,destination,time,day rows. A fraction of them
+ * are shortestWalkPath searches, the rest are dijkstras searches.
+ *
+ * Every client is given its share of the target rate, and so a time at which each of its queries should begin.
+ * Latency is measured from that time rather than from when the query actually began: a client that falls behind
+ * (because the last query was slow) would otherwise send fewer queries, and leave the slow ones out of the very
+ * latencies that should show them. With a rate of 0, every client sends its next query as soon as the last one
+ * is answered, which finds the most queries per second we can take.
+ *
+ * With --server, queries are sent as GET /route requests to a RouteServer (e.g. http://localhost:8080) instead,
+ * and no graph is generated here.
+ *
+ * The graphs share a single RouteCache of --cache stops (RouteCache.CAPACITY, if not given), or none with 0.
+ *
+ * Usage: java LoadDriver [--csv file] [--queries file] [--rate N] [--clients N] [--walk F] [--warmup s] [--duration s] [--seed N] [--cache N] [--server url]
+ */
+public class LoadDriver {
+	public static final String[] DAYS = { "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday" };
+
+	// Number of queries of a random mix, which every client goes around.
+	private static final int MIX = 1 << 16;
+
+	/**
+	 * A single query. walk, if it is a shortestWalkPath search rather than a dijkstras search.
+	 */
+	record Query(String origin, String destination, String time, String day, boolean walk) {}
+
+	/**
+	 * Latencies (in ns) of the queries measured, in order, along with the queries that failed.
+	 */
+	record Report(long[] latencies, long errors, double seconds) {
+		double throughput() {
+			return this.latencies.length / this.seconds;
+		}
+		long percentile(double percentile) {
+			return this.latencies.length == 0 ? 0 : this.latencies[(int) Math.min(this.latencies.length - 1, Math.ceil(percentile * this.latencies.length) - 1)];
+		}
+	}
+
+	private final List<MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge>> graphs = new ArrayList<>();
+	private final List<Query> queries;
+	private final int[] periods;
+
+	// The RouteServer queries are sent to, if they are not answered here.
+	private final String server;
+	private final HttpClient client;
+
+	/**
+	 * Generate the graph of every service period of a csv file.
+	 *
+	 * @param csv stations csv file
+	 * @param queries queries to replay
+	 * @param cache RouteCache shared by the graphs, or null for none
+	 * @throws IOException if the graphs cannot be generated, or a query is not a valid time and day
+	 */
+	public LoadDriver(File csv, List<Query> queries, RouteCache<MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge>.Path<MetroGraph.Node>> cache) throws IOException {
+		MetroGraph metro = new MetroGraph();
+		for (String[] period : Benchmark.periods()) {
+			MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> graph = metro.generateGraph(csv, period[0], period[1]);
+			if (graph.getNodes().isEmpty()) {
+				throw new IOException("No graph could be generated of " + csv + ".");
+			}
+			graph.setCache(cache);
+			this.graphs.add(graph);
+		}
+
+		this.queries = queries;
+		this.periods = periods(queries);
+		this.server = null;
+		this.client = null;
+
+		/*
+		A graph builds what its searches need (its compact form, its TransferRouter and so on) on its first search,
+		so we run a search of each kind on every graph now, rather than within the queries we measure.
+		 */
+		for (MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> graph : this.graphs) {
+			MetroGraph.Node node = graph.getNodes().iterator().next();
+			try {
+				graph.dijkstras(node.getStation(), node.getStation());
+				graph.shortestWalkPath(node.getStation(), node.getStation());
+			} catch (RuntimeException e) {
+				// Only the structures built along the way matter here.
+			}
+		}
+	}
+
+	/**
+	 * Send queries to a RouteServer rather than answering them here.
+	 *
+	 * @param server address of the RouteServer, e.g. http://localhost:8080
+	 * @param queries queries to replay
+	 * @throws IOException if a query is not a valid time and day
+	 */
+	public LoadDriver(String server, List<Query> queries) throws IOException {
+		this.queries = queries;
+		this.periods = periods(queries);
+		this.server = server.endsWith("/") ? server.substring(0, server.length() - 1) : server;
+		this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+	}
+
+	private static int[] periods(List<Query> queries) throws IOException {
+		int[] periods = new int[queries.size()];
+		for (int i = 0; i < queries.size(); i++) {
+			Query query = queries.get(i);
+			Time.validate(query.time());
+			Day.validate(query.day());
+			periods[i] = ServiceRules.period(Integer.parseInt(query.time()), Day.type(query.day()));
+		}
+		return periods;
+	}
+
+	public static void main(String[] args) throws Exception {
+		File csv = new File("mta_stations.csv"), replay = null;
+		String server = null;
+		double rate = 0, walk = 0.2, warmup = 2, duration = 10;
+		int clients = Runtime.getRuntime().availableProcessors(), capacity = RouteCache.CAPACITY;
+		long seed = 1;
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "--csv": csv = new File(args[i + 1]); break;
+				case "--queries": replay = new File(args[i + 1]); break;
+				case "--rate": rate = Double.parseDouble(args[i + 1]); break;
+				case "--clients": clients = Integer.parseInt(args[i + 1]); break;
+				case "--walk": walk = Double.parseDouble(args[i + 1]); break;
+				case "--warmup": warmup = Double.parseDouble(args[i + 1]); break;
+				case "--duration": duration = Double.parseDouble(args[i + 1]); break;
+				case "--seed": seed = Long.parseLong(args[i + 1]); break;
+				case "--cache": capacity = Integer.parseInt(args[i + 1]); break;
+				case "--server": server = args[i + 1]; break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i] + ".");
+			}
+		}
+
+		long start = System.nanoTime();
+		List<Query> queries = replay == null ? mix(csv, walk, seed) : read(replay, walk, seed);
+		RouteCache<MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge>.Path<MetroGraph.Node>> cache = capacity > 0 ? new RouteCache<>(capacity, path -> path.path().size()) : null;
+		LoadDriver driver = server == null ? new LoadDriver(csv, queries, cache) : new LoadDriver(server, queries);
+		System.out.println(String.format(Locale.ROOT, "%s in %.1f s, replaying %d queries from %d client(s) at %s.",
+				server == null ? "Generated " + driver.graphs.size() + " graphs of " + csv : "Sending to " + server, (System.nanoTime() - start) / 1e9, queries.size(), clients, rate > 0 ? rate + " queries/s" : "full speed"));
+
+		Report report = driver.run(clients, rate, warmup, duration);
+		System.out.println(String.format(Locale.ROOT, "%d queries answered (%d failed) in %.1f s: %.1f queries/s", report.latencies().length, report.errors(), report.seconds(), report.throughput()));
+		System.out.println(String.format(Locale.ROOT, "p50 %.1f us, p99 %.1f us, p999 %.1f us, max %.1f us",
+				report.percentile(0.5) / 1e3, report.percentile(0.99) / 1e3, report.percentile(0.999) / 1e3, report.percentile(1) / 1e3));
+		if (cache != null && server == null) {
+			System.out.println("Cache: " + cache);
+		}
+	}
+
+	/**
+	 * @return MIX queries between random stations (of distinct names) of a csv file, at random times and days
+	 */
+	public static List<Query> mix(File csv, double walk, long seed) throws IOException {
+		Set<String> unique = new LinkedHashSet<>();
+		for (ServiceRules.Station station : ServiceRules.of(csv).stations()) {
+			unique.add(station.getName());
+		}
+		List<String> names = new ArrayList<>(unique);
+		if (names.size() < 2) {
+			throw new IOException(csv + " has too few stations to query.");
+		}
+
+		Random random = new Random(seed);
+		List<Query> queries = new ArrayList<>(MIX);
+		while (queries.size() < MIX) {
+			String origin = names.get(random.nextInt(names.size())), destination = names.get(random.nextInt(names.size()));
+			if (!origin.equals(destination)) {
+				String time = String.format("%02d%02d", random.nextInt(24), random.nextInt(60));
+				queries.add(new Query(origin, destination, time, DAYS[random.nextInt(DAYS.length)], random.nextDouble() < walk));
+			}
+		}
+		return queries;
+	}
+
+	/**
+	 * @return queries of a csv file of origin,destination,time,day rows (with a header)
+	 */
+	public static List<Query> read(File file, double walk, long seed) throws IOException {
+		Random random = new Random(seed);
+		List<Query> queries = new ArrayList<>();
+
+		try (CsvReader csv = CsvReader.open(file)) {
+			if (!csv.next()) {
+				throw new IOException(file + " is empty.");
+			}
+			while (csv.next()) {
+				if (csv.fields() == 1 && csv.length(0) == 0) {
+					continue;
+				}
+				if (csv.fields() < 4) {
+					throw csv.malformed("expected origin,destination,time,day but found " + csv.fields() + " field(s)");
+				}
+				queries.add(new Query(csv.string(0), csv.string(1), csv.string(2), csv.string(3), random.nextDouble() < walk));
+			}
+		}
+		if (queries.isEmpty()) {
+			throw new IOException(file + " has no queries.");
+		}
+		return queries;
+	}
+
+	/**
+	 * Here we run every client within a thread of its own. Client c of n sends its k-th query at start + (k + c / n) *
+	 * interval, where interval is n / rate, so together the clients send queries at the rate. Queries meant to begin
+	 * during the warmup are run but not measured.
+	 *
+	 * @param clients number of clients
+	 * @param rate target rate in queries per second, or 0 for as fast as the clients can go
+	 * @param warmup seconds to run before measuring
+	 * @param duration seconds to measure
+	 * @return Report of the queries measured
+	 */
+	public Report run(int clients, double rate, double warmup, double duration) throws InterruptedException {
+		long interval = rate > 0 ? (long) (1e9 * clients / rate) : 0;
+		long start = System.nanoTime() + 10_000_000L, measure = start + (long) (warmup * 1e9), end = measure + (long) (duration * 1e9);
+
+		long[][] latencies = new long[clients][];
+		long[] errors = new long[clients], finished = new long[clients];
+		Thread[] threads = new Thread[clients];
+
+		for (int c = 0; c < clients; c++) {
+			int client = c;
+			threads[c] = new Thread(() -> {
+				long[] measured = new long[1024];
+				int count = 0;
+				long failed = 0;
+				long intended = start + (interval * client) / clients;
+
+				for (int k = client; ; k += clients) {
+					long now = System.nanoTime();
+					if (interval > 0) {
+						while (now < intended) {
+							LockSupport.parkNanos(intended - now);
+							now = System.nanoTime();
+						}
+					} else {
+						intended = Math.max(now, start);
+					}
+					if (intended >= end) {
+						break;
+					}
+
+					boolean ok = this.query(k % this.queries.size());
+					long latency = System.nanoTime() - intended;
+
+					if (intended >= measure) {
+						if (ok) {
+							if (count == measured.length) {
+								measured = Arrays.copyOf(measured, count * 2);
+							}
+							measured[count++] = latency;
+						} else {
+							failed++;
+						}
+					}
+					intended += interval;
+				}
+				latencies[client] = Arrays.copyOf(measured, count);
+				errors[client] = failed;
+				finished[client] = System.nanoTime();
+			}, "LoadDriver client " + c);
+			threads[c].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		long[] merged = new long[Arrays.stream(latencies).mapToInt(l -> l.length).sum()];
+		int at = 0;
+		for (long[] l : latencies) {
+			System.arraycopy(l, 0, merged, at, l.length);
+			at += l.length;
+		}
+		Arrays.sort(merged);
+
+		/*
+		A client may still be answering a query when the time is up, so we measure until the last one finishes
+		(at full speed), or over the duration (at a target rate, where the rate of queries is fixed).
+		 */
+		long last = Arrays.stream(finished).max().orElse(end);
+		double seconds = (interval > 0 ? end - measure : Math.max(end, last) - measure) / 1e9;
+		return new Report(merged, Arrays.stream(errors).sum(), seconds);
+	}
+
+	/**
+	 * @return true, if the query was answered, false if it failed (e.g. a station that does not exist)
+	 */
+	private boolean query(int index) {
+		Query query = this.queries.get(index);
+		if (this.server != null) {
+			return this.send(query);
+		}
+		MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> graph = this.graphs.get(this.periods[index]);
+
+		try {
+			return (query.walk() ? graph.shortestWalkPath(query.origin(), query.destination()) : graph.dijkstras(query.origin(), query.destination())) != null;
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return true, if the RouteServer answered the query with a route
+	 */
+	private boolean send(Query query) {
+		String uri = this.server + "/route?from=" + encode(query.origin()) + "&to=" + encode(query.destination()) + "&time=" + query.time() + "&day=" + query.day() + "&mode=" + (query.walk() ? "walk" : "shortest");
+		try {
+			return this.client.send(HttpRequest.newBuilder(URI.create(uri)).GET().build(), HttpResponse.BodyHandlers.discarding()).statusCode() == 200;
+		} catch (IOException e) {
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static String encode(String value) {
+		return URLEncoder.encode(value, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,307 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * Metrics measures where the time goes when we build graphs and search them: how long every Phase takes (and how
+ * many bytes it allocates), and how much work every search does (Nodes settled, Edges relaxed, pushes into the heap
+ * and keys decreased within it), along with how many routes were found within a RouteCache.
+ *
+ * Everything is switched on by running with -Dmetro.metrics=true, and costs nothing otherwise: ENABLED is a
+ * constant, so with it off begin() always returns null, end() returns at once, and the JIT drops both. With it on,
+ * the totals of every Phase are kept in LongAdders (so threads do not contend over them), and are exposed through
+ * JMX as the MXBean "mta:type=Metrics" (see MetricsMXBean). Every Phase and search is also a JDK Flight Recorder
+ * event (metro.Phase and metro.Search), recorded whenever a recording is running, e.g. with
+ * -XX:StartFlightRecording.
+ */
+public final class Metrics {
+	public static final boolean ENABLED = Boolean.getBoolean("metro.metrics");
+
+	public static final String NAME = "mta:type=Metrics";
+
+	public enum Phase {
+		PARSE, // Reading the rows of the csv file.
+		RULES, // Evaluating the conditions of every row for every service period (Node.build).
+		NODES, // Instantiating the Nodes of a service period.
+		EDGES, // Ordering every line and connecting its stops (buildEdges).
+		CONNECT, // Looking up the Edges of a service period within the snapshot, and compacting the graph.
+		GENERATE, // The whole of generateGraph, including the phases above.
+		SEARCH, // A dijkstras search.
+		WALK, // A shortestWalkPath search.
+		PATH, // Building the Path of the ids a search found.
+		RENDER, // Path.toString.
+		ALTERNATIVES, // Finding the k shortest paths between two stations (see KShortestPaths), every spur search included.
+		UPDATE // Applying a change to a graph (see Graph.update), repairing its ShortestPathTrees.
+	}
+
+	private static final int PHASES = Phase.values().length;
+	private static final LongAdder[] CALLS = adders(PHASES), NANOS = adders(PHASES), BYTES = adders(PHASES);
+	private static final LongAdder SEARCHES = new LongAdder(), SETTLED = new LongAdder(), RELAXED = new LongAdder(), PUSHES = new LongAdder(), DECREASES = new LongAdder();
+	private static final LongAdder HITS = new LongAdder(), MISSES = new LongAdder();
+
+	private static final com.sun.management.ThreadMXBean THREADS = ENABLED ? allocations() : null;
+
+	static {
+		if (ENABLED) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(NAME));
+			} catch (Exception e) {
+				// We still keep our totals (and record events), there is just no MXBean to read them through.
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private Metrics() {}
+
+	/**
+	 * A Phase that has begun, but not yet ended.
+	 */
+	public static final class Span {
+		private final Phase phase;
+		private final long nanos, bytes;
+		private final PhaseEvent event;
+		private final SearchEvent search;
+
+		private Span(Phase phase) {
+			this.phase = phase;
+			this.event = new PhaseEvent();
+			this.event.begin();
+			this.search = phase == Phase.SEARCH ? new SearchEvent() : null;
+			if (this.search != null) {
+				this.search.begin();
+			}
+			this.bytes = allocated();
+			this.nanos = System.nanoTime();
+		}
+	}
+
+	/**
+	 * @return Span of the Phase, or null if Metrics are not ENABLED
+	 */
+	public static Span begin(Phase phase) {
+		return ENABLED ? new Span(phase) : null;
+	}
+
+	/**
+	 * End a Span (if there is one), adding it to the totals of its Phase.
+	 */
+	public static void end(Span span) {
+		if (span == null) {
+			return;
+		}
+		long nanos = System.nanoTime() - span.nanos, bytes = allocated() - span.bytes;
+		int phase = span.phase.ordinal();
+
+		CALLS[phase].increment();
+		NANOS[phase].add(nanos);
+		BYTES[phase].add(bytes);
+
+		if (span.event.shouldCommit()) {
+			span.event.phase = span.phase.name();
+			span.event.bytes = bytes;
+			span.event.commit();
+		}
+	}
+
+	/**
+	 * End the Span of a search (of Phase.SEARCH), adding the work its engine did to the totals.
+	 */
+	public static void search(Span span, SearchEngine.Mode mode, SearchEngine engine) {
+		if (span == null) {
+			return;
+		}
+		end(span);
+
+		SEARCHES.increment();
+		SETTLED.add(engine.settled());
+		RELAXED.add(engine.relaxed());
+		PUSHES.add(engine.pushes());
+		DECREASES.add(engine.decreases());
+
+		SearchEvent event = span.search;
+		if (event != null && event.shouldCommit()) {
+			event.mode = mode == null ? null : mode.name();
+			event.settled = engine.settled();
+			event.relaxed = engine.relaxed();
+			event.pushes = engine.pushes();
+			event.decreases = engine.decreases();
+			event.commit();
+		}
+	}
+
+	/**
+	 * Count a route asked of a RouteCache, whether it was kept (a hit) or had to be searched for (a miss).
+	 */
+	public static void cache(boolean hit) {
+		if (ENABLED) {
+			(hit ? HITS : MISSES).increment();
+		}
+	}
+
+	/**
+	 * @return bytes allocated by this thread so far, or 0 if the JVM does not count them
+	 */
+	private static long allocated() {
+		return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+	}
+
+	private static com.sun.management.ThreadMXBean allocations() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads && threads.isThreadAllocatedMemorySupported()) {
+			threads.setThreadAllocatedMemoryEnabled(true);
+			return threads;
+		}
+		return null;
+	}
+
+	private static LongAdder[] adders(int size) {
+		LongAdder[] adders = new LongAdder[size];
+		for (int i = 0; i < size; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	private static Map<String, Long> totals(LongAdder[] adders) {
+		Map<String, Long> totals = new LinkedHashMap<>();
+		for (Phase phase : Phase.values()) {
+			totals.put(phase.name(), adders[phase.ordinal()].sum());
+		}
+		return totals;
+	}
+
+	/**
+	 * What Metrics exposes through JMX (e.g. within JConsole or VisualVM), every total since the JVM began
+	 * (or since the last reset).
+	 */
+	public interface MetricsMXBean {
+		/**
+		 * @return number of times every Phase ran
+		 */
+		Map<String, Long> getPhaseCalls();
+
+		/**
+		 * @return total ns spent within every Phase
+		 */
+		Map<String, Long> getPhaseNanos();
+
+		/**
+		 * @return total bytes allocated within every Phase (by the threads that ran it)
+		 */
+		Map<String, Long> getPhaseBytes();
+
+		long getSearches();
+		long getSettled();
+		long getRelaxed();
+		long getPushes();
+
+		/**
+		 * @return number of times a key was decreased rather than a Node pushed again (a heap without
+		 * decrease-key would have pushed, and later popped, that Node twice)
+		 */
+		long getDecreases();
+
+		/**
+		 * @return routes returned from a RouteCache, and routes a RouteCache had to search for
+		 */
+		long getCacheHits();
+		long getCacheMisses();
+
+		void reset();
+	}
+
+	private static final class Bean implements MetricsMXBean {
+		public Map<String, Long> getPhaseCalls() {
+			return totals(CALLS);
+		}
+		public Map<String, Long> getPhaseNanos() {
+			return totals(NANOS);
+		}
+		public Map<String, Long> getPhaseBytes() {
+			return totals(BYTES);
+		}
+		public long getSearches() {
+			return SEARCHES.sum();
+		}
+		public long getSettled() {
+			return SETTLED.sum();
+		}
+		public long getRelaxed() {
+			return RELAXED.sum();
+		}
+		public long getPushes() {
+			return PUSHES.sum();
+		}
+		public long getDecreases() {
+			return DECREASES.sum();
+		}
+		public long getCacheHits() {
+			return HITS.sum();
+		}
+		public long getCacheMisses() {
+			return MISSES.sum();
+		}
+		public void reset() {
+			for (int i = 0; i < PHASES; i++) {
+				CALLS[i].reset();
+				NANOS[i].reset();
+				BYTES[i].reset();
+			}
+			SEARCHES.reset();
+			SETTLED.reset();
+			RELAXED.reset();
+			PUSHES.reset();
+			DECREASES.reset();
+			HITS.reset();
+			MISSES.reset();
+		}
+	}
+
+	@Name("metro.Phase")
+	@Label("Phase")
+	@Category("Metro")
+	@Description("A phase of building a graph or of a search")
+	static final class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+
+		@Label("Allocated")
+		@DataAmount
+		long bytes;
+	}
+
+	@Name("metro.Search")
+	@Label("Search")
+	@Category("Metro")
+	@Description("The work a single search did")
+	static final class SearchEvent extends Event {
+		@Label("Mode")
+		String mode;
+
+		@Label("Settled")
+		int settled;
+
+		@Label("Relaxed")
+		int relaxed;
+
+		@Label("Pushes")
+		int pushes;
+
+		@Label("Decreases")
+		int decreases;
+	}
+}
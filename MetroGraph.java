@@ -1,19 +1,22 @@
 import java.io.File;
 import java.io.IOException;
-import java.text.DecimalFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.PriorityQueue;
-import java.util.Queue;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * DO NOT COPY, MODIFY OR DISTRIBUTE
@@ -21,7 +24,30 @@ import java.util.Set;
  * - Created by Pride
  */
 public class MetroGraph {
-	public static void main(String[] args) {
+	/**
+	 * Furthest distance (in km) between two rows of the same station name that we will still consider
+	 * the same station complex (that we can transfer within).
+	 */
+	public static final double TRANSFER_DISTANCE = 0.3;
+
+	/**
+	 * Furthest distance (in km) we will walk from a raw coordinate to a station to begin a path.
+	 */
+	public static final double WALKING_DISTANCE = 1.0;
+
+	/**
+	 * Radius of the Earth in km.
+	 */
+	public static final double EARTH_RADIUS = 6371;
+
+	private final LineCatalog catalog = new LineCatalog(); // Of Nodes built from their own conditions (see Node.build).
+
+	public static void main(String[] args) throws IOException {
+		// With --serve, we answer queries over HTTP for as long as we run (see RouteServer), rather than only one.
+		if (args.length > 0 && args[0].equals("--serve")) {
+			RouteServer.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		Scanner input = new Scanner(System.in);
 
 		System.out.print("Input a time: "); // User input (time)
@@ -46,108 +72,212 @@ public class MetroGraph {
 			*/
 			System.out.println("Shortest Path: " + graph.dijkstras(origin, destination));
 			System.out.println("Shortest Walk Path: " + graph.shortestWalkPath(origin, destination));
+
+			// Other ways to go, for when a line is crowded, each through a fifth of stations the others are not.
+			List<Graph<Node, Edge>.Path<Node>> alternatives = graph.alternatives(origin, destination, 3, 0.2);
+			for (int i = 1; i < alternatives.size(); i++) {
+				System.out.println("Alternative " + i + ": " + alternatives.get(i));
+			}
+
+			// The same trip, as the service changes along the way rather than as it is at the time we leave.
+			try {
+				System.out.println("Trip: " + new MetroGraph().departAt(origin, destination, inputTime, inputDay).map(Object::toString).orElse("none"));
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
 		}
 	}
 
+	/**
+	 * Using the Haversine formula, we can calculate the distance between 2 points of longitude and latitude
+	 * and convert it to a metric that can be compared to. In this case, we will convert to kilometers.
+	 *
+	 * @return distance between 2 points in km.
+	 */
+	public static double distance(double latitude, double longitude, double toLatitude, double toLongitude) {
+		double dlat = Math.toRadians(toLatitude - latitude);
+		double dlong = Math.toRadians(toLongitude - longitude);
+
+		double a = 0.5 - Math.cos(dlat) / 2 + Math.cos(Math.toRadians(latitude)) * Math.cos(Math.toRadians(toLatitude)) * (1 - Math.cos(dlong)) / 2;
+
+		return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(a));
+	}
+
 	/**
 	 * What we will do here is attempt to generate a graph given the user inputs of the certain time and day.
 	 *
 	 * We will store certain data so that we can use it when we create new nodes and edges (time, day, whether we are in rush hours and day type).
-	 * We then scan the csv file so that we can enter data of the stations, trains available, conditions, and coordinates.
+	 * We then get the compiled csv file (see ServiceRules, read and compiled only once, then kept in a GraphSnapshot) so that we
+	 * can enter data of the stations, trains available, conditions, and coordinates.
 	 *
 	 * Using the data that we accessed and inputted, we now assign them to new Node objects (which represent our stations),
 	 * which then calculate the trains available according to our data.
 	 *
 	 * We can then create Edges simply by instantiating Edge objects that have been assigned from Nodes and to Nodes according to
-	 * the trains at each station.
+	 * the trains at each station, as stored within the snapshot for the service period.
 	 *
 	 * Finally, we'll create a Graph object that takes in a Set of Nodes and a Set of Edges.
 	 *
 	 * @return our Graph
+	 * @throws IOException if the time or day is invalid, or the csv file cannot be read (or a row of it is malformed)
 	 */
-	public Graph<Node, Edge> generateGraph(String inputTime, String inputDay) {
+	public Graph<Node, Edge> generateGraph(String inputTime, String inputDay) throws IOException {
+		return this.generateGraph(new File("mta_stations.csv"), inputTime, inputDay);
+	}
+
+	/**
+	 * Generate a graph of any stations csv file of the same columns as ours (e.g. one written by NetworkGenerator).
+	 *
+	 * @param csv stations csv file
+	 * @return our Graph
+	 * @throws IOException if the time or day is invalid, or the csv file cannot be read (or a row of it is malformed)
+	 */
+	public Graph<Node, Edge> generateGraph(File csv, String inputTime, String inputDay) throws IOException {
+		Metrics.Span span = Metrics.begin(Metrics.Phase.GENERATE);
 		try {
-			if (Time.validate(inputTime) && Day.validate(inputDay)) {
-				int time = Integer.valueOf(inputTime);
+			Time.validate(inputTime);
+			Day.validate(inputDay);
+			int time = Integer.valueOf(inputTime);
 
-				/*
-				Here we'll read the csv file and access its data
-				 */
-				Scanner scanner;
-				try {
-					scanner = new Scanner(new File("mta_stations.csv"));
-					scanner.nextLine();
+			/*
+			Here we'll get the compiled conditions of the csv file (read only once, then kept in a snapshot)
+			and access its data
+			 */
+			GraphSnapshot snapshot = GraphSnapshot.of(csv);
+			ServiceRules rules = snapshot.rules();
 
-					Graph<Node, Edge> graph = new Graph<>(new HashSet<>(), new HashSet<>());
+			Graph<Node, Edge> graph = new Graph<>(new HashSet<>(), new HashSet<>());
+			List<Node> nodes = this.buildNodes(rules, time, Day.type(inputDay));
 
-					boolean rush = (time >= 700 && time <= 1000) || (time >= 1600 && time <= 2000); // Calculate rush hours
+			for (Node node : nodes) {
+				graph.addNode(node);
+			}
 
-					while (scanner.hasNextLine()) {
-						String[] split = scanner.nextLine().split(",");
+			/*
+			The Edges of every service period are built once and stored within our snapshot (see buildEdges),
+			so we only have to look them up.
+			 */
+			Metrics.Span connect = Metrics.begin(Metrics.Phase.CONNECT);
+			snapshot.connect(graph, nodes, ServiceRules.period(time, Day.type(inputDay)));
+
+			// Our searches run over the compact form of the graph, with ids in the order of the csv file.
+			graph.compact(nodes);
+			graph.setIndex(rules.index());
+			graph.setPeriod(ServiceRules.period(time, Day.type(inputDay)));
+			Metrics.end(connect);
+			return graph;
+		} finally {
+			Metrics.end(span);
+		}
+	}
 
-						/*
-						We'll just get purely numerical coordinates and ignore the unnecessary POINT(... stuff
-						 */
-						String coordinates = split[3].substring(split[3].indexOf('(') + 1, split[3].length() - 1);
-						int separation = coordinates.indexOf(' ');
+	/**
+	 * Plan a trip leaving at a time and day, over the service of every period the trip runs through rather than
+	 * the graph of the time it leaves at: a line is only ridden while it runs, or waited for until it begins to.
+	 * This is a single search over the Edges of every service period at once (see TimeDependentRouter), so no
+	 * graph is generated.
+	 *
+	 * @return Trip arriving earliest, or empty if the destination cannot be reached
+	 * @throws IOException if the time or day is invalid, or the csv file cannot be read
+	 * @throws NoSuchElementException if inputted stations do not exist
+	 */
+	public Optional<TimeDependentRouter.Trip> departAt(String origin, String destination, String inputTime, String inputDay) throws IOException, NoSuchElementException {
+		return this.departAt(new File("mta_stations.csv"), origin, destination, inputTime, inputDay);
+	}
 
-						double longitude = Double.valueOf(coordinates.substring(0, separation)), latitude = Double.valueOf(coordinates.substring(separation + 1));
+	/**
+	 * Plan a trip over any stations csv file of the same columns as ours (see departAt).
+	 *
+	 * @param csv stations csv file
+	 */
+	public Optional<TimeDependentRouter.Trip> departAt(File csv, String origin, String destination, String inputTime, String inputDay) throws IOException, NoSuchElementException {
+		Time.validate(inputTime);
+		Day.validate(inputDay);
 
-						/*
-						If we have multiple conditions, which we do, we will just store them all as one string, as we see
-						in the 5th column of the csv file. Because I have split each column's values by the ',' character,
-						this is necessary.
-						 */
-						StringBuilder build = new StringBuilder();
+		GraphSnapshot snapshot = GraphSnapshot.of(csv);
+		StationIndex index = snapshot.rules().index();
+		return snapshot.timeDependentRouter().route(index.resolve(origin), index.resolve(destination), TimeDependentRouter.minute(Integer.valueOf(inputTime), inputDay));
+	}
 
-						for (int i = 5; i < split.length; i++) {
-							build.append(split[i]);
-							if (i < split.length - 1) build.append(",");
-						}
+	/**
+	 * @return LineCatalog of the trains of Nodes built from their own conditions, rather than from a ServiceRules
+	 */
+	public LineCatalog catalog() {
+		return this.catalog;
+	}
 
-						/*
-						Instantiating our Nodes that we'll then store into our set.
-						 */
-						Node node = new Node(split[2], split[4].split("-"), longitude, latitude, build.toString()).applyFields(time, rush, Day.type(inputDay)).build();
-						for (Node existing : graph.getNodes()) {
-							if (existing.getStation().equals(node.getStation())) {
-								node.getTrains().forEach(train -> existing.addTrain(train));
-							}
-						}
-						graph.addNode(node);
-					}
-					scanner.close();
-
-					/*
-					We'll create some Edges. This runs quite inefficiently, but that's fine. We just need an accurate
-					network of stations.
-
-					TODO: make the graph somewhat smaller(?)
-					*/
-					for (Node from : graph.getNodes()) {
-						for (Node to : graph.getNodes()) {
-							for (Train train : to.getTrains()) {
-								if (from.getTrains().contains(train)) {
-									Edge edge = new Edge(from, to);
-
-									graph.addEdge(edge);
-									graph.addEdge(from, edge);
-								}
-							}
-						}
-					}
-					return graph;
-				} catch (Exception e) { e.printStackTrace(); }
+	/**
+	 * Instantiate the Nodes of every station at a time and day, in the order of the csv file. The trains
+	 * available are looked up from the compiled conditions rather than built from the conditions String,
+	 * and every Node is given the id of its row within the StationRegistry.
+	 *
+	 * @param rules compiled csv file
+	 * @param time time in military standard
+	 * @param dayType type of day
+	 * @return our Nodes
+	 */
+	public List<Node> buildNodes(ServiceRules rules, int time, Day.DayType dayType) {
+		Metrics.Span span = Metrics.begin(Metrics.Phase.NODES);
+		List<Node> nodes = new ArrayList<>();
+
+		int period = ServiceRules.period(time, dayType);
+		boolean rush = Time.rush(time); // Calculate rush hours
+		StationRegistry registry = rules.registry();
+
+		for (int i = 0; i < rules.stations().size(); i++) {
+			ServiceRules.Station station = rules.stations().get(i);
+			nodes.add(new Node(station.getName(), station.getConnections(), station.getLatitude(), station.getLongitude(), station.getNotes()).applyFields(time, rush, dayType).build(station, period).register(registry, i));
+		}
+		Metrics.end(span);
+		return nodes;
+	}
+
+	/**
+	 * We'll create some Edges. Each line is ordered into sequences of stops (see LineTopology), so we only
+	 * have to connect every stop to the stops right next to it on that line.
+	 *
+	 * Rows of the csv file with the same station name within walking distance of each other are the same
+	 * station complex, so we can transfer between them. We find the rows close to each row through a
+	 * SpatialIndex rather than measuring the distance to every other row.
+	 *
+	 * @param graph Graph of our Nodes
+	 * @param nodes our Nodes, in the order of the csv file
+	 * @return LineTopology of our Nodes
+	 */
+	public LineTopology buildEdges(Graph<Node, Edge> graph, List<Node> nodes) {
+		LineTopology topology = LineTopology.of(nodes);
+
+		topology.sequences().forEach((line, sequences) -> {
+			for (List<Node> sequence : sequences) {
+				for (int i = 1; i < sequence.size(); i++) {
+					graph.connect(new Edge(sequence.get(i - 1), sequence.get(i), line));
+					graph.connect(new Edge(sequence.get(i), sequence.get(i - 1), line));
+				}
+			}
+		});
+
+		SpatialIndex spatial = SpatialIndex.of(nodes);
+		for (int i = 0; i < nodes.size(); i++) {
+			Node node = nodes.get(i);
+
+			for (int j : spatial.within(i, TRANSFER_DISTANCE)) {
+				Node other = nodes.get(j);
+
+				if (j < i && node.getStation().equals(other.getStation())) {
+					graph.connect(new Edge(node, other));
+					graph.connect(new Edge(other, node));
+				}
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
 		}
-		return new Graph<>(new HashSet<>(), new HashSet<>());
+		return topology;
 	}
 
 	/**
 	 * This Graph object will store our Set of Nodes and Set of Edges by G = {V, E}
 	 *
+	 * No state of a search is kept on our Nodes or Edges (see SearchEngine), so once built, a Graph can be
+	 * searched by many threads at once, as long as it is not changed while being searched.
+	 *
 	 * @param <V> type V, vertices
 	 * @param <E> type E, edges
 	 */
@@ -156,6 +286,35 @@ public class MetroGraph {
 		private Set<E> edges;
 
 		private Map<V, List<E>> graph;
+		private volatile CompactGraph compact;
+		private List<V> order; // Order to give our Nodes ids in, once our compact graph has been dropped (see changed).
+		private volatile ContractionHierarchy hierarchy;
+		private volatile TransferRouter router;
+		private volatile SpatialIndex spatial;
+		private StationIndex index;
+		private LineTopology topology;
+
+		// Routes asked for most (see RouteCache), or null to always search, and the service period of our graph.
+		private volatile RouteCache<Path<V>> cache = new RouteCache<>(RouteCache.CAPACITY, path -> path.path().size());
+		private int period = -1;
+
+		/*
+		The last TREES ShortestPathTrees searched, kept (and repaired) through changes to the graph, as well as the
+		Edges of every station closed, by its first Node, and how many changes have been applied.
+		 */
+		private final Map<Integer, ShortestPathTree> trees = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, ShortestPathTree> eldest) {
+				return this.size() > TREES;
+			}
+		};
+		private final Map<Node, List<E>> closed = new HashMap<>();
+		private int changes;
+
+		/**
+		 * Most ShortestPathTrees we keep (see shortestPathTree).
+		 */
+		public static final int TREES = 32;
 
 		public Graph(Set<V> nodes, Set<E> edges) {
 			this.nodes = nodes;
@@ -170,128 +329,798 @@ public class MetroGraph {
 		 * the shortest path by finding the shortest route to get from one
 		 * station to the other by space metric.
 		 *
+		 * The search itself is run by our SearchEngine over the compact form of our graph,
+		 * and the Path is only built once we have found the destination. Routes asked for
+		 * before are kept within our RouteCache, until our graph changes.
+		 *
 		 * @param origin
 		 * @param destination
 		 * @return shortest Path
 		 * @throws NoSuchElementException if inputted stations do not exist
 		 */
-		public Path dijkstras(String origin, String destination) throws NoSuchElementException {
-			Node source = null, dest = null;
-			for (V node : this.nodes) {
-				if (source == null) {
-					if (node.getStation().equals(origin)) {
-						source = node;
-					}
+		public Path<V> dijkstras(String origin, String destination) throws NoSuchElementException {
+			return this.cached(origin, destination, "dijkstras", () -> dijkstras(origin, destination, SearchEngine.Mode.DIJKSTRA, null));
+		}
+
+		/**
+		 * Look a route up within our RouteCache (if we have one), searching for it only if it is not kept. Every
+		 * caller is given a Path of its own, so that changing it does not change the one kept.
+		 */
+		private Path<V> cached(String origin, String destination, String mode, Supplier<Path<V>> search) throws NoSuchElementException {
+			RouteCache<Path<V>> cache = this.cache;
+			if (cache == null) {
+				return search.get();
+			}
+			CompactGraph compact = this.compact();
+			RouteCache.Key key = new RouteCache.Key(this.id(compact, origin), this.id(compact, destination), this.period, mode);
+			return new Path<>(cache.get(key, compact, search));
+		}
+
+		/**
+		 * Find the shortest path between two stations, searching in the given Mode (see SearchEngine).
+		 * Every Mode finds a shortest path, they differ in how many stations they settle to find it.
+		 *
+		 * @param origin
+		 * @param destination
+		 * @param mode way to run the search
+		 * @param stats if not null, stores the stats of this search
+		 * @return shortest Path
+		 * @throws NoSuchElementException if inputted stations do not exist
+		 */
+		public Path<V> dijkstras(String origin, String destination, SearchEngine.Mode mode, SearchStats stats) throws NoSuchElementException {
+			CompactGraph compact = this.compact();
+			int source = this.id(compact, origin), dest = this.id(compact, destination);
+
+			SearchEngine engine = compact.acquire();
+			try {
+				Metrics.Span span = Metrics.begin(Metrics.Phase.SEARCH);
+				engine.search(source, dest, mode);
+				Metrics.search(span, mode, engine);
+				if (stats != null) {
+					stats.record(mode, engine);
 				}
-				if (dest == null) {
-					if (node.getStation().equals(destination)) {
-						dest = node;
+				return this.path(compact, engine.path(dest));
+			} finally {
+				compact.release(engine);
+			}
+		}
+		public Path<V> dijkstras(String origin, String destination, SearchEngine.Mode mode) throws NoSuchElementException {
+			return dijkstras(origin, destination, mode, null);
+		}
+
+		/**
+		 * Find the shortest path between two stations (as dijkstras does) as a Route: its Legs, each on a
+		 * single line, rather than every station along the way.
+		 *
+		 * @param origin
+		 * @param destination
+		 * @return Route of the shortest path
+		 * @throws NoSuchElementException if inputted stations do not exist
+		 */
+		public Route route(String origin, String destination) throws NoSuchElementException {
+			CompactGraph compact = this.compact();
+			int source = this.id(compact, origin), dest = this.id(compact, destination);
+
+			SearchEngine engine = compact.acquire();
+			try {
+				Metrics.Span span = Metrics.begin(Metrics.Phase.SEARCH);
+				engine.search(source, dest, SearchEngine.Mode.DIJKSTRA);
+				Metrics.search(span, SearchEngine.Mode.DIJKSTRA, engine);
+				return Route.of(compact, engine.path(dest));
+			} finally {
+				compact.release(engine);
+			}
+		}
+		public Path<V> dijkstras(Node origin, Node destination) {
+			return dijkstras(origin.getStation(), destination.getStation());
+		}
+
+		/**
+		 * Contract our graph into a ContractionHierarchy, so that point to point searches can be answered far
+		 * faster. This is a one-off cost for a graph, so the hierarchy is kept until the graph changes.
+		 *
+		 * @return ContractionHierarchy of our compact graph
+		 */
+		public ContractionHierarchy contract() {
+			CompactGraph compact = this.compact();
+			ContractionHierarchy hierarchy = this.hierarchy;
+
+			if (hierarchy == null || hierarchy.graph() != compact) {
+				synchronized (this) {
+					if (this.hierarchy == null || this.hierarchy.graph() != compact) {
+						this.hierarchy = ContractionHierarchy.of(compact);
 					}
+					hierarchy = this.hierarchy;
+				}
+			}
+			return hierarchy;
+		}
+
+		/**
+		 * Find the shortest path between two stations through a ContractionHierarchy of this graph.
+		 *
+		 * @param hierarchy ContractionHierarchy of our graph (see contract)
+		 * @param origin
+		 * @param destination
+		 * @return shortest Path
+		 * @throws NoSuchElementException if inputted stations do not exist
+		 */
+		public Path<V> dijkstras(ContractionHierarchy hierarchy, String origin, String destination) throws NoSuchElementException {
+			CompactGraph compact = hierarchy.graph();
+			return this.path(compact, hierarchy.path(this.id(compact, origin), this.id(compact, destination)));
+		}
+
+		/**
+		 * Run a one-to-all search from the origin, finding the shortest path to every station.
+		 *
+		 * @param origin
+		 * @return ShortestPathTree of the origin
+		 * @throws NoSuchElementException if the inputted station does not exist
+		 */
+		public ShortestPathTree shortestPathTree(String origin) throws NoSuchElementException {
+			CompactGraph compact = this.compact();
+			int source = this.id(compact, origin);
+
+			synchronized (this.trees) {
+				ShortestPathTree tree = this.trees.get(source);
+				if (tree != null && tree.graph() == compact) {
+					return tree;
+				}
+			}
+			ShortestPathTree tree = ShortestPathTree.of(compact, source);
+			synchronized (this.trees) {
+				this.trees.put(source, tree);
+			}
+			return tree;
+		}
+
+		/**
+		 * Run a one-to-all search backwards from the destination, finding the shortest path from every station to it
+		 * (see ShortestPathTree.to). Trees to a destination are kept along with trees from an origin, under -1 - the
+		 * id of the destination.
+		 *
+		 * @param destination
+		 * @return ShortestPathTree to the destination
+		 * @throws NoSuchElementException if the inputted station does not exist
+		 */
+		public ShortestPathTree shortestPathTreeTo(String destination) throws NoSuchElementException {
+			CompactGraph compact = this.compact();
+			int key = -1 - this.id(compact, destination);
+
+			synchronized (this.trees) {
+				ShortestPathTree tree = this.trees.get(key);
+				if (tree != null && tree.graph() == compact) {
+					return tree;
 				}
 			}
+			ShortestPathTree tree = ShortestPathTree.to(compact, -1 - key);
+			synchronized (this.trees) {
+				this.trees.put(key, tree);
+			}
+			return tree;
+		}
+
+		/**
+		 * Get the shortest Path to the destination out of a ShortestPathTree of this graph.
+		 *
+		 * @param tree ShortestPathTree of the origin
+		 * @param destination
+		 * @return shortest Path
+		 * @throws NoSuchElementException if the inputted station does not exist
+		 */
+		public Path<V> dijkstras(ShortestPathTree tree, String destination) throws NoSuchElementException {
+			return this.path(tree.graph(), tree.path(this.id(tree.graph(), destination)));
+		}
+
+		/**
+		 * Compute the distance between every origin and every destination, with the searches spread
+		 * across the common ForkJoinPool.
+		 *
+		 * @param origins
+		 * @param destinations
+		 * @return DistanceMatrix, rows in the order of origins and columns in the order of destinations
+		 * @throws NoSuchElementException if any inputted station does not exist
+		 */
+		public DistanceMatrix distanceMatrix(List<String> origins, List<String> destinations) throws NoSuchElementException {
+			CompactGraph compact = this.compact();
+			return DistanceMatrix.compute(compact, this.ids(compact, origins), this.ids(compact, destinations));
+		}
+
+		/**
+		 * @return DistanceMatrix of every Node to every Node, in the order of the ids of our compact graph
+		 */
+		public DistanceMatrix distanceMatrix() {
+			return DistanceMatrix.compute(this.compact());
+		}
+
+		private int[] ids(CompactGraph compact, List<String> stations) throws NoSuchElementException {
+			int[] ids = new int[stations.size()];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = this.id(compact, stations.get(i));
+			}
+			return ids;
+		}
+
+		/**
+		 * Find the id of a station within our compact graph. If the name is not found as is, we
+		 * look it up within our StationIndex, so that different spellings of it are found too.
+		 *
+		 * @throws NoSuchElementException if the station does not exist, along with the closest names
+		 */
+		private int id(CompactGraph compact, String station) throws NoSuchElementException {
+			int id = compact.id(station);
+
 			/*
-			If the inputted origin or destination does not exist in our existing stations, we
+			If the inputted station does not exist in our existing stations, we
 			will throw an error;
 			 */
-			if (source == null || dest == null) {
-				throw new NoSuchElementException("Invalid origin or destination station.");
+			if (id == -1) {
+				id = compact.id(this.getIndex().resolve(station));
+				if (id == -1) {
+					throw new NoSuchElementException("Invalid station \"" + station + "\".");
+				}
 			}
-			this.resetVisits();
+			return id;
+		}
 
-			/*
-			Dijkstra's algorithm using Pair and PriorityQueue
-			 */
-			Map<Node, Pair<Path, Double>> tentative = new HashMap<>();
-			Queue<Node> heap = new PriorityQueue<>((from, to) -> (int) from.distance(to));
+		/**
+		 * Get the StationIndex of the names of our stations. If none has been given,
+		 * we build one from our Nodes.
+		 *
+		 * @return StationIndex
+		 */
+		public synchronized StationIndex getIndex() {
+			if (this.index == null) {
+				List<String> names = new ArrayList<>();
+				this.nodes.forEach(node -> names.add(node.getStation()));
+				this.index = new StationIndex(names);
+			}
+			return this.index;
+		}
+		public void setIndex(StationIndex index) {
+			this.index = index;
+		}
 
-			// Begin setting up tentative distances.
-			for (V node : this.nodes) {
-				tentative.put(node, Pair.of(new Path(node), Double.MAX_VALUE));
+		/**
+		 * Build a Path out of Node ids of our compact graph.
+		 */
+		private Path<V> path(CompactGraph compact, int[] ids) {
+			Metrics.Span span = Metrics.begin(Metrics.Phase.PATH);
+			Path<V> path = new Path<>();
+			for (int id : ids) {
+				path.addToPath(this.own(compact.node(id)));
 			}
-			tentative.put(source, Pair.of(new Path(source), 0.0));
-			heap.add(source);
+			Metrics.end(span);
+			return path;
+		}
 
-			// Run the algorithm and take care of visited nodes.
-			while (!heap.isEmpty()) {
-				source = heap.poll();
-				List<E> edges = this.graph.get(source);
+		/**
+		 * In this definition of "shortest path", we find the path with the least amount of walks required
+		 * (least transfers), and the shortest of those (see TransferRouter).
+		 *
+		 * A destination the router cannot reach by its lines and transfers (e.g. over an Edge added by update that is
+		 * not part of a line) is still reached by the shortest path, if there is one. As with dijkstras, the Path
+		 * of a destination that cannot be reached at all is only the destination.
+		 *
+		 * @return Path with least amount of walks
+		 * @throws NoSuchElementException if inputted stations do not exist
+		 */
+		public Path<V> shortestWalkPath(String origin, String destination) throws NoSuchElementException {
+			return this.cached(origin, destination, "shortestWalkPath", () -> this.walk(origin, destination));
+		}
+		private Path<V> walk(String origin, String destination) throws NoSuchElementException {
+			TransferRouter router = this.router();
+			CompactGraph compact = router.graph();
+			int target = this.id(compact, destination);
+
+			Metrics.Span span = Metrics.begin(Metrics.Phase.WALK);
+			Optional<TransferRouter.Journey> journey = router.fewestTransfers(this.id(compact, origin), target);
+			Metrics.end(span);
+			if (journey.isPresent()) {
+				return this.path(compact, journey.get().stops());
+			}
+			return this.dijkstras(origin, destination, SearchEngine.Mode.DIJKSTRA, null);
+		}
 
-				source.visit();
+		/**
+		 * Find every path between two stations that no other path beats on both transfers and distance,
+		 * so the more transfers a path takes, the shorter it is.
+		 *
+		 * @param origin
+		 * @param destination
+		 * @return Tuples of (transfers, distance in km, Path), fewest transfers first
+		 * @throws NoSuchElementException if inputted stations do not exist
+		 */
+		public List<Tuple<Integer, Double, Path<V>>> journeys(String origin, String destination) throws NoSuchElementException {
+			TransferRouter router = this.router();
+			CompactGraph compact = router.graph();
 
-				for (Edge edge : edges) {
-					Node to = edge.to();
+			List<Tuple<Integer, Double, Path<V>>> journeys = new ArrayList<>();
+			for (TransferRouter.Journey journey : router.route(this.id(compact, origin), this.id(compact, destination))) {
+				journeys.add(Tuple.of(journey.transfers(), journey.distance(), this.path(compact, journey.stops())));
+			}
+			return journeys;
+		}
 
-					if (!to.visited()) {
-						heap.add(to);
+		/**
+		 * Find up to k of the shortest paths between two stations that never go through the same station twice,
+		 * as alternatives to the shortest path (see KShortestPaths). Their searches are guided by the
+		 * ShortestPathTree to the destination, which we keep (see shortestPathTreeTo).
+		 *
+		 * @param origin
+		 * @param destination
+		 * @param k most Paths to find
+		 * @return Paths, shortest first, or none if there is no path
+		 * @throws NoSuchElementException if inputted stations do not exist
+		 */
+		public List<Path<V>> alternatives(String origin, String destination, int k) throws NoSuchElementException {
+			return this.alternatives(origin, destination, k, 0);
+		}
 
-						double distance = tentative.get(source).getRight() + source.distance(to);
+		/**
+		 * Find up to k of the shortest paths between two stations, as alternatives (see KShortestPaths), each of which
+		 * has at least a share of its stations that no shorter Path found goes through.
+		 *
+		 * @param origin
+		 * @param destination
+		 * @param k most Paths to find
+		 * @param difference share (0 to 1) of the stations of every Path that are not those of any shorter Path
+		 * @return Paths, shortest first, or none if there is no path
+		 * @throws NoSuchElementException if inputted stations do not exist
+		 */
+		public List<Path<V>> alternatives(String origin, String destination, int k, double difference) throws NoSuchElementException {
+			ShortestPathTree left = this.shortestPathTreeTo(destination);
+			CompactGraph compact = left.graph();
+			int source = this.id(compact, origin);
+
+			Metrics.Span span = Metrics.begin(Metrics.Phase.ALTERNATIVES);
+			List<KShortestPaths.Alternative> found = KShortestPaths.find(left, source, k, difference);
+			Metrics.end(span);
+
+			List<Path<V>> alternatives = new ArrayList<>();
+			for (KShortestPaths.Alternative alternative : found) {
+				alternatives.add(this.path(compact, alternative.stops()));
+			}
+			return alternatives;
+		}
 
-						if (distance < tentative.get(to).getRight()) {
-							// We will override our old Path with a new one containing this new Node/station
-							// at the head.
-							Path path = new Path(tentative.get(source).getLeft()).addToPath(to);
-							tentative.put(to, new Pair<>(path, distance));
+		/**
+		 * Get the TransferRouter of our graph, which is built once and kept until the graph changes. Its routes
+		 * are the sequences of our LineTopology, or, if none has been given, of a LineTopology of our Nodes
+		 * (in the order of their ids).
+		 *
+		 * @return TransferRouter of our compact graph
+		 */
+		public TransferRouter router() {
+			CompactGraph compact = this.compact();
+			TransferRouter router = this.router;
+
+			if (router == null || router.graph() != compact) {
+				synchronized (this) {
+					if (this.router == null || this.router.graph() != compact) {
+						LineTopology topology = this.topology;
+						if (topology == null) {
+							List<Node> order = new ArrayList<>();
+							for (int i = 0; i < compact.size(); i++) {
+								order.add(compact.node(i));
+							}
+							topology = LineTopology.of(order);
+							this.topology = topology;
 						}
+						// Lines only run where their Edges still are, once the graph has been changed (see update).
+						this.router = new TransferRouter(compact, this.changes > 0 ? topology.within(compact) : topology);
 					}
+					router = this.router;
 				}
 			}
-			return tentative.get(dest).getLeft();
+			return router;
 		}
-		public Path dijkstras(Node origin, Node destination) {
-			return dijkstras(origin.getStation(), destination.getStation());
+
+		/**
+		 * Get the SpatialIndex of the Nodes of our compact graph, which is built once and kept until the graph changes.
+		 *
+		 * @return SpatialIndex, by the ids of our compact graph
+		 */
+		public SpatialIndex spatialIndex() {
+			CompactGraph compact = this.compact();
+			SpatialIndex spatial = this.spatial;
+
+			if (spatial == null || spatial.graph() != compact) {
+				synchronized (this) {
+					if (this.spatial == null || this.spatial.graph() != compact) {
+						this.spatial = SpatialIndex.of(compact);
+					}
+					spatial = this.spatial;
+				}
+			}
+			return spatial;
+		}
+
+		/**
+		 * Find the k stations closest to a point.
+		 *
+		 * @param latitude
+		 * @param longitude
+		 * @param k
+		 * @return Nodes, closest first
+		 */
+		public List<V> nearest(double latitude, double longitude, int k) {
+			SpatialIndex spatial = this.spatialIndex();
+			List<V> nearest = new ArrayList<>();
+
+			for (int id : spatial.nearest(latitude, longitude, k)) {
+				nearest.add(this.own(spatial.node(id)));
+			}
+			return nearest;
 		}
 
 		/**
-		 * In this definition of "shortest path", we will attempt to create a path using
-		 * Dijkstra's algorithm that has the least amount of walks required (least transfers), if Dijkstra's path
-		 * does not already provide the path with the least amount of walks.
+		 * Find every station within a distance of a point.
 		 *
-		 * This is done by finding the most final stop that contains a train that is able to connect to
-		 * a station from earlier in the path. This removes any duplicates, if found, and will
-		 * attempt to create the shortest path with the shortest amount of walks.
+		 * @param latitude
+		 * @param longitude
+		 * @param distance in km
+		 * @return Nodes within the distance
+		 */
+		public List<V> within(double latitude, double longitude, double distance) {
+			SpatialIndex spatial = this.spatialIndex();
+			List<V> within = new ArrayList<>();
+
+			for (int id : spatial.within(latitude, longitude, distance)) {
+				within.add(this.own(spatial.node(id)));
+			}
+			return within;
+		}
+
+		/**
+		 * Find the shortest path from a raw coordinate to a station. Every station within WALKING_DISTANCE
+		 * of the coordinate (or the closest station, if there are none) could be our origin, so we search from
+		 * all of them at once, each beginning with the walk to it. The Path begins at the best of them.
 		 *
-		 * @return Path with least amount of walks
+		 * @param latitude
+		 * @param longitude
+		 * @param destination
+		 * @return shortest Path
+		 * @throws NoSuchElementException if the inputted station does not exist, or there are no stations
 		 */
-		public Path shortestWalkPath(String origin, String destination) {
-			this.resetVisits();
+		public Path<V> dijkstras(double latitude, double longitude, String destination) throws NoSuchElementException {
+			SpatialIndex spatial = this.spatialIndex();
+			CompactGraph compact = spatial.graph();
+			int target = this.id(compact, destination);
+
+			int[] sources = spatial.within(latitude, longitude, WALKING_DISTANCE);
+			if (sources.length == 0) {
+				sources = spatial.nearest(latitude, longitude, 1);
+				if (sources.length == 0) {
+					throw new NoSuchElementException("There are no stations.");
+				}
+			}
+			double[] distances = new double[sources.length];
+			for (int i = 0; i < sources.length; i++) {
+				distances[i] = spatial.distance(sources[i], latitude, longitude);
+			}
+
+			SearchEngine engine = compact.acquire();
+			try {
+				Metrics.Span span = Metrics.begin(Metrics.Phase.SEARCH);
+				engine.search(sources, distances, target);
+				Metrics.search(span, SearchEngine.Mode.DIJKSTRA, engine);
+				return this.path(compact, engine.path(target));
+			} finally {
+				compact.release(engine);
+			}
+		}
+
+		/**
+		 * Add walking transfers between every two stations within a distance of each other that are not
+		 * connected already, even if they do not share a name (e.g. stations joined by a passageway).
+		 *
+		 * @param distance in km
+		 * @return number of Edges added
+		 */
+		public synchronized int addWalkingTransfers(double distance) {
+			List<V> nodes = new ArrayList<>(this.nodes);
+			SpatialIndex spatial = SpatialIndex.of(nodes);
+			List<E> added = new ArrayList<>();
+
+			for (int i = 0; i < nodes.size(); i++) {
+				V node = nodes.get(i);
+
+				for (int j : spatial.within(i, distance)) {
+					V other = nodes.get(j);
+
+					if (j > i && !this.connected(node, other)) {
+						added.add(this.edge(node, other, null));
+						added.add(this.edge(other, node, null));
+					}
+				}
+			}
+			// As any other change, so that our Nodes keep their ids and our ShortestPathTrees are repaired.
+			if (!added.isEmpty()) {
+				this.update(List.of(), added);
+			}
+			return added.size();
+		}
 
-			Path dijkstras = dijkstras(origin, destination);
-			LinkedList<Node> path = dijkstras.path();
+		/**
+		 * Apply a change to our graph (e.g. a service change) without building it again: Edges are removed from
+		 * and added to our Sets and adjacency lists, and the compact graph is derived from the one before (see
+		 * CompactGraph.change), so no csv file is read and no line is ordered again. Every ShortestPathTree we keep
+		 * is repaired rather than searched again. Other structures (the TransferRouter, ContractionHierarchy and
+		 * SpatialIndex) are built again, as with any new graph, when they are next used.
+		 *
+		 * Searches that are already running finish on the graph as it was before the change.
+		 *
+		 * @param removed Edges to remove (Edges not within our graph are ignored)
+		 * @param added Edges to add, between our Nodes
+		 */
+		public synchronized void update(Collection<E> removed, Collection<E> added) {
+			Metrics.Span span = Metrics.begin(Metrics.Phase.UPDATE);
+			List<E> gone = new ArrayList<>();
+			for (E edge : removed) {
+				if (this.edges.contains(edge)) {
+					gone.add(edge);
+				}
+			}
 
-			int i = 0, j = -1, track = -1;
-			Iterator<Node> outerItr = new Path<>(path).path().iterator();
+			CompactGraph compact = this.compact, changed = compact == null ? null : compact.change(gone, added);
 
-			outer: while (outerItr.hasNext()) {
-				Node next = outerItr.next();
+			for (E edge : gone) {
+				this.edges.remove(edge);
+				List<E> adjacent = this.graph.get(edge.from());
+				if (adjacent != null) {
+					adjacent.remove(edge);
+				}
+			}
+			for (E edge : added) {
+				this.edges.add(edge);
+				this.graph.computeIfAbsent(this.own(edge.from()), node -> new ArrayList<>()).add(edge);
+			}
+			this.changes++;
+
+			if (changed != null) {
+				int count = gone.size() + added.size(), i = 0;
+				int[] from = new int[count], to = new int[count];
+				for (Collection<E> edges : List.of(gone, added)) {
+					for (E edge : edges) {
+						from[i] = changed.id(edge.from());
+						to[i++] = changed.id(edge.to());
+					}
+				}
+				synchronized (this.trees) {
+					this.trees.replaceAll((source, tree) -> tree.graph() == compact ? tree.repair(changed, from, to, count) : tree);
+				}
+			}
+			this.compact = changed;
 
-				Iterator<Node> innerItr = new Path<>(path).path().iterator();
+			RouteCache<Path<V>> cache = this.cache;
+			if (cache != null) {
+				cache.invalidate(this.period);
+			}
+			Metrics.end(span);
+		}
 
-				while (innerItr.hasNext()) {
-					track++;
-					Node nextNext = innerItr.next();
+		/**
+		 * Close a station: every Edge into and out of every row of its station complex is removed, until the
+		 * station is reopened.
+		 *
+		 * @param station name of the station (if more than one station has the name, the first is closed)
+		 * @return number of Edges removed
+		 * @throws NoSuchElementException if the station does not exist
+		 */
+		public synchronized int closeStation(String station) throws NoSuchElementException {
+			CompactGraph compact = this.compact();
+			Node key = compact.node(this.id(compact, station));
+			if (this.closed.containsKey(key)) {
+				return 0;
+			}
 
-					for (Train outerTrain : next.getTrains()) {
-						for (Train innerTrain : nextNext.getTrains()) {
-							if (outerTrain.train().equals(innerTrain.train())) {
-								j = track;
+			Set<Node> rows = this.complex(compact, key);
+			List<E> removed = new ArrayList<>();
+			for (Node row : rows) {
+				int id = compact.id(row);
+				removed.addAll(this.graph.getOrDefault(row, List.of()));
+
+				for (int in = compact.firstIn(id); in < compact.endIn(id); in++) {
+					Node source = compact.node(compact.source(in));
+					if (!rows.contains(source)) {
+						for (E edge : this.graph.getOrDefault(source, List.of())) {
+							if (edge.to() == row && !removed.contains(edge)) {
+								removed.add(edge);
 							}
 						}
 					}
 				}
-				for (int remove = 0; remove < j - i - 1; remove++) {
-					path.remove(i + 1);
+			}
+			this.closed.put(key, removed);
+			this.update(removed, List.of());
+			return removed.size();
+		}
+
+		/**
+		 * Reopen a closed station, putting back the Edges it was closed with. Edges to a station that is still
+		 * closed are only put back once that station is reopened as well.
+		 *
+		 * @param station name of the station
+		 * @return number of Edges put back
+		 * @throws NoSuchElementException if the station does not exist
+		 */
+		public synchronized int reopenStation(String station) throws NoSuchElementException {
+			CompactGraph compact = this.compact();
+			List<E> edges = this.closed.remove(compact.node(this.id(compact, station)));
+			if (edges == null) {
+				return 0;
+			}
+
+			List<E> added = new ArrayList<>();
+			for (E edge : edges) {
+				Node other = this.closedBy(compact, edge);
+				if (other == null) {
+					added.add(edge);
+				} else {
+					this.closed.get(other).add(edge);
 				}
-				track = -1;
-				j = 0;
-				i++;
 			}
-			return new Path(path);
+			this.update(List.of(), added);
+			return added.size();
+		}
+
+		/**
+		 * @return first Node of a closed station at either end of the Edge, or null if neither is closed
+		 */
+		private Node closedBy(CompactGraph compact, E edge) {
+			for (Node key : this.closed.keySet()) {
+				Set<Node> rows = this.complex(compact, key);
+				if (rows.contains(edge.from()) || rows.contains(edge.to())) {
+					return key;
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return every row of the station complex of a Node (see StationRegistry)
+		 */
+		private Set<Node> complex(CompactGraph compact, Node node) {
+			Set<Node> rows = new HashSet<>();
+			StationRegistry registry = node.registry();
+
+			if (registry != null && node.id() >= 0) {
+				for (int row : registry.rows(registry.station(node.id()))) {
+					int id = row < compact.size() && compact.node(row).id() == row ? row : -1;
+					if (id != -1) {
+						rows.add(compact.node(id));
+					}
+				}
+			}
+			if (rows.isEmpty()) {
+				rows.add(node);
+				for (int i = 0; i < compact.size(); i++) {
+					Node other = compact.node(i);
+					if (other.getStation().equals(node.getStation()) && other.distance(node) <= TRANSFER_DISTANCE) {
+						rows.add(other);
+					}
+				}
+			}
+			return rows;
+		}
+
+		/**
+		 * Suspend a line between two stations: every Edge of the line along the stops between them is removed
+		 * (both ways). Pass the Edges returned to update as added to resume the line.
+		 *
+		 * @param line name of the line (as in Train)
+		 * @param from station the suspension begins at
+		 * @param to station the suspension ends at
+		 * @return Edges removed
+		 * @throws NoSuchElementException if a station does not exist, or the line does not run between them
+		 */
+		public synchronized List<E> suspendLine(String line, String from, String to) throws NoSuchElementException {
+			CompactGraph compact = this.compact();
+			Set<Node> sources = this.complex(compact, compact.node(this.id(compact, from)));
+			Set<Node> targets = this.complex(compact, compact.node(this.id(compact, to)));
+
+			// A breadth first search along the Edges of the line only, from every row of the first station.
+			int[] previous = new int[compact.size()];
+			Arrays.fill(previous, -2);
+			ArrayDeque<Integer> queue = new ArrayDeque<>();
+			for (Node source : sources) {
+				previous[compact.id(source)] = -1;
+				queue.add(compact.id(source));
+			}
+
+			int found = -1;
+			while (!queue.isEmpty() && found == -1) {
+				int node = queue.poll();
+				if (targets.contains(compact.node(node))) {
+					found = node;
+					break;
+				}
+				for (int e = compact.first(node); e < compact.end(node); e++) {
+					if (line.equals(compact.lineName(compact.line(e))) && previous[compact.target(e)] == -2) {
+						previous[compact.target(e)] = node;
+						queue.add(compact.target(e));
+					}
+				}
+			}
+			if (found == -1) {
+				throw new NoSuchElementException("Line " + line + " does not run between \"" + from + "\" and \"" + to + "\".");
+			}
+
+			List<E> removed = new ArrayList<>();
+			for (int node = found; previous[node] >= 0; node = previous[node]) {
+				Node a = compact.node(previous[node]), b = compact.node(node);
+				for (E edge : this.graph.getOrDefault(a, List.of())) {
+					if (edge.to() == b && line.equals(edge.line())) {
+						removed.add(edge);
+					}
+				}
+				for (E edge : this.graph.getOrDefault(b, List.of())) {
+					if (edge.to() == a && line.equals(edge.line())) {
+						removed.add(edge);
+					}
+				}
+			}
+			this.update(removed, List.of());
+			return removed;
+		}
+
+		/**
+		 * Add a temporary shuttle between two stations, both ways, as a line of its own. Pass the Edges returned to
+		 * update as removed to take the shuttle away.
+		 *
+		 * @param from
+		 * @param to
+		 * @param line name of the shuttle's line
+		 * @return Edges added
+		 * @throws NoSuchElementException if a station does not exist
+		 */
+		public synchronized List<E> addShuttle(String from, String to, String line) throws NoSuchElementException {
+			CompactGraph compact = this.compact();
+			Node a = compact.node(this.id(compact, from)), b = compact.node(this.id(compact, to));
+
+			List<E> added = List.of(this.edge(a, b, line), this.edge(b, a, line));
+			this.update(List.of(), added);
+			return added;
+		}
+
+		private boolean connected(V from, V to) {
+			for (E edge : this.graph.getOrDefault(from, List.of())) {
+				if (edge.to() == to) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public RouteCache<Path<V>> getCache() {
+			return this.cache;
+		}
+
+		/**
+		 * @param cache RouteCache to keep our routes within (which may be shared by the graphs of many service
+		 * periods), or null to always search
+		 */
+		public void setCache(RouteCache<Path<V>> cache) {
+			this.cache = cache;
+		}
+
+		/**
+		 * @return service period of our graph, or -1 if it is of no single service period
+		 */
+		public int getPeriod() {
+			return this.period;
+		}
+		public void setPeriod(int period) {
+			this.period = period;
 		}
 
-		public void resetVisits() {
-			this.graph.keySet().forEach(node -> node.unvisit());
-			this.nodes.forEach(node -> node.unvisit());
-			this.edges.forEach(edge -> { edge.from().unvisit(); edge.to().unvisit(); });
+		public synchronized LineTopology getTopology() {
+			return this.topology;
+		}
+		public synchronized void setTopology(LineTopology topology) {
+			this.topology = topology;
+			this.router = null;
 		}
 
 		/**
@@ -310,13 +1139,86 @@ public class MetroGraph {
 			return this.edges;
 		}
 
-		public void addNode(V node) {
-			this.nodes.add(node);
+		/**
+		 * Get the compact (CSR) form of our graph, which our searches run on. If it has not yet
+		 * been built, or the graph has changed since, we build it from our Sets.
+		 *
+		 * @return CompactGraph
+		 */
+		public CompactGraph compact() {
+			CompactGraph compact = this.compact;
+
+			if (compact == null) {
+				synchronized (this) {
+					if (this.compact == null) {
+						this.compact = CompactGraph.of(this.order != null ? this.order : this.nodes, this.edges);
+					}
+					compact = this.compact;
+				}
+			}
+			return compact;
+		}
+
+		/**
+		 * Build the compact form of our graph, giving our Nodes ids in the order given.
+		 *
+		 * @param order every Node of the graph
+		 * @return CompactGraph
+		 */
+		public synchronized CompactGraph compact(List<V> order) {
+			this.compact = CompactGraph.of(order, this.edges);
+			this.order = null;
+			return this.compact;
 		}
-		public void addEdge(E edge) {
+
+		public synchronized void addNode(V node) {
+			this.changed();
+			if (this.nodes.add(node) && this.order != null) {
+				this.order.add(node);
+			}
+		}
+		public synchronized void addEdge(E edge) {
+			this.changed();
 			this.edges.add(edge);
 		}
 
+		/**
+		 * Drop our compact graph (built again when next searched) before a Node or Edge is added. Once our graph has
+		 * been searched, this is a change like any other (see update): every Node keeps its id, so that names resolve
+		 * to the same stations as before, and the routes of our service period are dropped from our RouteCache.
+		 * While the graph is still being built (or has not been searched since it last changed), there is nothing
+		 * to drop.
+		 */
+		private void changed() {
+			CompactGraph compact = this.compact;
+			if (compact == null) {
+				return;
+			}
+			List<V> order = new ArrayList<>(compact.size());
+			for (int i = 0; i < compact.size(); i++) {
+				order.add(this.own(compact.node(i)));
+			}
+			this.order = order;
+			this.compact = null;
+			this.changes++;
+
+			RouteCache<Path<V>> cache = this.cache;
+			if (cache != null) {
+				cache.invalidate(this.period);
+			}
+		}
+
+		/**
+		 * Add an Edge to our Set of Edges, as well as to the adjacency list of the Node
+		 * it comes from.
+		 *
+		 * @param edge
+		 */
+		public void connect(E edge) {
+			this.addEdge(edge);
+			this.addEdge(this.own(edge.from()), edge);
+		}
+
 		/**
 		 * If the graph does not contain existing Node 'node', then add it to
 		 * the graph, then add an edge. Otherwise, just add the edge.
@@ -324,7 +1226,8 @@ public class MetroGraph {
 		 * @param node
 		 * @param edge
 		 */
-		public void addEdge(V node, E edge) {
+		public synchronized void addEdge(V node, E edge) {
+			this.changed();
 			if (!this.graph.containsKey(node)) {
 				this.graph.put(node, new ArrayList<>());
 			}
@@ -337,6 +1240,19 @@ public class MetroGraph {
 		 *
 		 * @param <V>
 		 */
+		/*
+		Every Graph we build is of Nodes and Edges (see generateGraph), so a Node of our CompactGraph is always one of
+		our own Nodes, and an Edge we make between two of them is one of our own Edges.
+		 */
+		@SuppressWarnings("unchecked")
+		private V own(Node node) {
+			return (V) node;
+		}
+		@SuppressWarnings("unchecked")
+		private E edge(Node from, Node to, String line) {
+			return (E) new Edge(from, to, line);
+		}
+
 		class Path<V extends Node> {
 			// A LinkedList is a good way to represent a path because it is just one node to the next.
 			private LinkedList<V> path = new LinkedList<>();
@@ -356,7 +1272,7 @@ public class MetroGraph {
 			}
 			public Path() { }
 
-			public Path addToPath(V node) {
+			public Path<V> addToPath(V node) {
 				this.path.add(node);
 				return this;
 			}
@@ -378,6 +1294,19 @@ public class MetroGraph {
 				return this.path.getLast();
 			}
 
+			/**
+			 * @return this Path as a Route, of Legs on a single line each (see Route)
+			 */
+			public Route route() {
+				CompactGraph compact = Graph.this.compact();
+				int[] ids = new int[this.path.size()];
+				int i = 0;
+				for (V node : this.path) {
+					ids[i++] = compact.id(node);
+				}
+				return Route.of(compact, ids);
+			}
+
 			@Override
 			public boolean equals(Object object) {
 				Iterator<V> fItr = ((Path) object).path().iterator();
@@ -400,46 +1329,69 @@ public class MetroGraph {
 			 * but the MTA is rather inconsistent, and it takes time to transfer between stations,
 			 * so this will do relatively okay in providing some prediction of time it will take.
 			 *
+			 * Routes rendered often (e.g. by a server) are better written as a Route, by its Legs (see route()).
+			 *
 			 * @return the path along with the trains, time and stations required
 			 */
 			@Override
 			public String toString() {
+				Metrics.Span span = Metrics.begin(Metrics.Phase.RENDER);
 				StringBuilder builder = new StringBuilder();
-				LinkedList<Node> path = new LinkedList<>(this.path);
+				Iterator<V> iterator = this.path.iterator();
+				Node next = iterator.hasNext() ? iterator.next() : null;
+				long[] kinds = LineCatalog.NONE;
 
 				/*
 				We will visually display the path, along with the trains that are readily available
 				and required to take the route in this path.
 				 */
-				while (!path.isEmpty()) {
-					Node next = path.poll();
+				while (next != null) {
 					builder.append(next.getStation());
 
-					Set<String> trains = new HashSet<>();
-
-					if (path.peek() != null) {
-						Node second = path.peek();
+					if (iterator.hasNext()) {
+						Node second = iterator.next();
 
-						next.getTrains().forEach(fromTrain -> second.getTrains().forEach(toTrain -> {
-							if (fromTrain.train().equals(toTrain.train())) {
-								switch (fromTrain.type()) {
-									case LOCAL: trains.add("(" + fromTrain.train() + ")"); break;
-									case EXPRESS: trains.add("<" + fromTrain.train() + ">"); break;
-								}
+						/*
+						Every train of this station whose line also runs at the next is written once for
+						its line and type, whatever its bound (see LineCatalog.kind).
+						 */
+						LineCatalog catalog = next.catalog();
+						long[] trains = next.trainMask(), lines = second.lineMask();
+						if (kinds.length < trains.length) {
+							kinds = new long[trains.length];
+						} else {
+							Arrays.fill(kinds, 0);
+						}
+						for (int id = LineCatalog.next(trains, 0); id != -1; id = LineCatalog.next(trains, id + 1)) {
+							if (LineCatalog.has(lines, catalog.line(id)) && catalog.label(id) != null) {
+								kinds[catalog.kind(id) >>> 6] |= 1L << catalog.kind(id);
 							}
-						}));
-
-						for (String line : trains) {
-							builder.append(" " + line);
 						}
-						builder.append(" [" + new DecimalFormat("0.00").format(Math.round(next.distance(second) / 0.35)) + " mins]");
-						if (path.peek() != null) {
-							builder.append(" -> ");
+						for (int kind = LineCatalog.next(kinds, 0); kind != -1; kind = LineCatalog.next(kinds, kind + 1)) {
+							builder.append(' ').append(catalog.label(kind));
 						}
+						// Minutes are rounded to a whole number, so they always end in .00.
+						builder.append(" [").append(Math.round(this.weight(next, second) / 0.35)).append(".00 mins] -> ");
+						next = second;
+					} else {
+						next = null;
 					}
 				}
+				Metrics.end(span);
 				return builder.toString();
 			}
+
+			/**
+			 * @return weight of the Edge between two Nodes of this Path, as stored within our CompactGraph
+			 */
+			private double weight(Node from, Node to) {
+				CompactGraph compact = Graph.this.compact();
+				int f = compact.id(from), t = compact.id(to);
+				int edge = f == -1 || t == -1 ? -1 : compact.edge(f, t);
+
+				// A Path that does not follow our Edges is measured in a straight line.
+				return edge == -1 ? from.distance(to) : compact.weight(edge);
+			}
 		}
 	}
 
@@ -456,11 +1408,13 @@ public class MetroGraph {
 		private Day.DayType dayType;
 
 		private String lineConditions;
-		private Set<Train> trains;
+		private LineCatalog catalog = MetroGraph.this.catalog;
+		private long[] trains = LineCatalog.NONE, lines = LineCatalog.NONE; // Masks of the ids of our trains and their lines (see LineCatalog).
 		private Map<String, Train.TrainType> connections;
 		private Optional<String> lastStop = Optional.empty(); // Assuming we do not indeed need this
 
-		private boolean visited;
+		private StationRegistry registry;
+		private int id = -1;
 
 		public Node(String station, String[] connections, double latitude, double longitude, String lineConditions) {
 			if (station.isEmpty()) {
@@ -480,7 +1434,6 @@ public class MetroGraph {
 					this.connections.put(connection, Train.TrainType.LOCAL);
 				}
 			}
-			this.trains = new HashSet<>();
 		}
 
 		/**
@@ -512,13 +1465,43 @@ public class MetroGraph {
 				}
 				if (applyConditions(i, otherConditions, this.time, this.dayType, this.rush, (train, type, bound) -> {
 					if (!train.isEmpty() || train.length() >= 1) {
-						this.trains.add(new Train(train, type, bound));
+						this.addTrain(this.catalog.of(train, type, bound));
 					}
 				}));
 			}
 			return this;
 		}
 
+		/**
+		 * Here we build our Node from the compiled conditions of its row, which is just a lookup
+		 * of the trains available within the service period.
+		 *
+		 * @param station compiled row of this Node
+		 * @param period service period of the time and day
+		 * @return this Node
+		 */
+		public Node build(ServiceRules.Station station, int period) {
+			this.lastStop = station.lastStop();
+
+			this.catalog = station.catalog();
+			this.trains = station.trains(period);
+			this.lines = station.lines(period);
+			return this;
+		}
+
+		/**
+		 * Give this Node the identity of its row within a StationRegistry.
+		 *
+		 * @param registry StationRegistry of the csv file
+		 * @param id id of the row of this Node
+		 * @return this Node
+		 */
+		public Node register(StationRegistry registry, int id) {
+			this.registry = registry;
+			this.id = id;
+			return this;
+		}
+
 		public Node applyFields(int time, boolean rush, Day.DayType dayType) {
 			this.time = time;
 			this.rush = rush;
@@ -654,49 +1637,104 @@ public class MetroGraph {
 		public double getLatitude() {
 			return this.latitude;
 		}
+		/**
+		 * @return our trains, as read from our mask of them (see LineCatalog.trains)
+		 */
 		public Set<Train> getTrains() {
+			return this.catalog.trains(this.trains);
+		}
+
+		/**
+		 * @return LineCatalog that the ids of our masks are given by
+		 */
+		public LineCatalog catalog() {
+			return this.catalog;
+		}
+
+		/**
+		 * @return mask of the ids of our trains (bit n is set if catalog().train(n) runs here), not to be changed
+		 */
+		public long[] trainMask() {
 			return this.trains;
 		}
+
+		/**
+		 * @return mask of the ids of the lines of our trains (see LineCatalog.line), not to be changed
+		 */
+		public long[] lineMask() {
+			return this.lines;
+		}
+
+		/**
+		 * @return whether a line runs at both this Node and another of the same LineCatalog (as every Node of a graph is)
+		 */
+		public boolean shares(Node node) {
+			return LineCatalog.intersects(this.lines, node.lines);
+		}
 		public Optional<String> lastStop() {
 			return this.lastStop;
 		}
-		public boolean visited() {
-			return this.visited;
+		public void addTrain(Train train) {
+			int id = this.catalog.id(train);
+			// Our masks may be shared with a ServiceRules.Station (see build), so they are copied rather than changed.
+			this.trains = LineCatalog.with(this.trains, id);
+			this.lines = LineCatalog.with(this.lines, this.catalog.line(id));
 		}
-		public void visit() {
-			this.visited = true;
+
+		/**
+		 * @return id of the row of this Node within its StationRegistry, or -1 if it has none
+		 */
+		public int id() {
+			return this.id;
 		}
-		public void unvisit() {
-			this.visited = false;
+
+		/**
+		 * @return id of the physical station (station complex) of this Node, or -1 if it has no StationRegistry
+		 */
+		public int stationId() {
+			return this.registry == null ? -1 : this.registry.station(this.id);
 		}
-		public void addTrain(Train train) {
-			this.trains.add(train);
+		public StationRegistry registry() {
+			return this.registry;
 		}
 
 		/**
-		 * Using the Haversine formula, we can calculate the distance between 2 points of longitude and latitude
-		 * and convert it to a metric that can be compared to. In this case, we will convert to kilometers.
+		 * Calculate the distance between the coordinates of 2 Nodes (see MetroGraph.distance).
 		 *
 		 * @param node second node (second point)
 		 * @return distance between 2 points in km.
 		 */
 		public double distance(Node node) {
-			double dlat = Math.toRadians(node.getLatitude() - this.latitude);
-			double dlong = Math.toRadians(node.getLongitude() - this.longitude);
-
-			double a = 0.5 - Math.cos(dlat) / 2 + Math.cos(Math.toRadians(this.latitude)) * Math.cos(Math.toRadians(node.getLatitude())) * (1 - Math.cos(dlong)) / 2;
-
-			return 2 * 6371 * Math.asin(Math.sqrt(a));
+			return MetroGraph.distance(this.latitude, this.longitude, node.getLatitude(), node.getLongitude());
 		}
 
+		/**
+		 * Nodes of the same row of the same StationRegistry are equal, whatever the time and day they were built
+		 * for, so a Node is hashed by its id alone. Nodes without a StationRegistry are equal if their names and
+		 * coordinates are.
+		 */
 		@Override
 		public boolean equals(Object object) {
+			if (this == object) {
+				return true;
+			}
+			if (!(object instanceof Node)) {
+				return false;
+			}
 			Node other = (Node) object;
 
-			String thisLongitude = Double.toString(this.longitude), otherLongitude = Double.toString(other.getLongitude());
-			String thisLatitude = Double.toString(this.latitude), otherLatitude = Double.toString(other.getLatitude());
+			if (this.registry != null || other.registry != null) {
+				return this.registry == other.registry && this.id == other.id;
+			}
+			return Objects.equals(this.station, other.station) && Double.compare(this.latitude, other.latitude) == 0 && Double.compare(this.longitude, other.longitude) == 0;
+		}
 
-			return this.station.equals(other.getStation()) && thisLongitude.equals(otherLongitude) && thisLatitude.equals(otherLatitude) && this.trains.containsAll(other.getTrains());
+		@Override
+		public int hashCode() {
+			if (this.registry != null) {
+				return this.id;
+			}
+			return Objects.hash(this.station, this.latitude, this.longitude);
 		}
 
 		@Override
@@ -714,15 +1752,30 @@ public class MetroGraph {
 	 * We will be creating edges by having an Edge object to represent two nodes (from and to).
 	 * The weight of the edge will be calculated using Node's own distance function between the
 	 * two Nodes referenced in Edge.
+	 *
+	 * An Edge runs along a line (between two stops next to each other), or if it has no line, it
+	 * is a transfer within a station complex.
 	 */
 	class Edge {
 		private Node from, to;
 		private double weight;
+		private String line;
 
+		public Edge(Node from, Node to, String line) {
+			this(from, to, line, from.distance(to));
+		}
 		public Edge(Node from, Node to) {
+			this(from, to, null);
+		}
+
+		/**
+		 * @param weight distance between from and to, if already measured (see Haversine)
+		 */
+		public Edge(Node from, Node to, String line, double weight) {
 			this.from = from;
 			this.to = to;
-			this.weight = this.from.distance(this.to);
+			this.line = line;
+			this.weight = weight;
 		}
 
 		public Node from() {
@@ -734,6 +1787,12 @@ public class MetroGraph {
 		public double weight() {
 			return this.weight;
 		}
+		public String line() {
+			return this.line;
+		}
+		public boolean transfer() {
+			return this.line == null;
+		}
 		public static Edge of(Set<Edge> edges, Node from, Node to) {
 			for (Edge edge : edges) {
 				if (edge.from().equals(from) && edge.to().equals(to)) {
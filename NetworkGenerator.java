@@ -0,0 +1,222 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * NetworkGenerator writes a made up stations csv file, of the same columns as mta_stations.csv, so that we can
+ * see how building and searching graphs holds up on networks far larger than the MTA's.
+ *
+ * Every line is a run of stops along a smooth, random path, one stop about every SPACING km. Some of the stops
+ * are placed right next to a stop of another line and given its name, so they are the same station complex (and
+ * can be transferred within). Some lines also run an express service, stopping at every EXPRESS_EVERY-th stop.
+ *
+ * The NOTES of every row are written in the same words as the MTA's (see Node.applyConditions): every line runs
+ * at "all times", "all times exc nights", "weekdays and evenings", "rush hours" or "nights", and express services
+ * run "Express-weekdays AM southbound, PM northbound" (or the other way around). Lines are named L0001, L0002 and
+ * so on (express services X0001 Express, ...), all of the same width, so that no name is found within another
+ * name or within the words of a condition.
+ *
+ * Usage: java NetworkGenerator [--lines N] [--stops N] [--express F] [--transfers F] [--seed N] [--out file]
+ */
+public class NetworkGenerator {
+	public static final String HEADER = "URL,OBJECTID,NAME,the_geom,LINE,NOTES";
+
+	/**
+	 * Average distance (in km) between two stops of a line.
+	 */
+	public static final double SPACING = 0.8;
+
+	public static final int EXPRESS_EVERY = 3;
+
+	// Latitude and longitude the network is centred on (Manhattan).
+	private static final double LATITUDE = 40.75, LONGITUDE = -73.98;
+
+	// Conditions a line may run under, and how likely each is.
+	private static final String[] SERVICES = { "all times", "all times exc nights", "weekdays and evenings", "rush hours", "nights" };
+	private static final double[] ODDS = { 0.7, 0.1, 0.1, 0.05, 0.05 };
+
+	private final int lines, stops;
+	private final double express, transfers;
+	private final long seed;
+
+	/**
+	 * @param lines number of lines
+	 * @param stops number of stops of every line
+	 * @param express fraction of lines that also run an express service
+	 * @param transfers fraction of stops placed at a stop of another line (a transfer)
+	 * @param seed seed of the random network, the same seed always writes the same file
+	 */
+	public NetworkGenerator(int lines, int stops, double express, double transfers, long seed) {
+		if (lines < 1 || stops < 2) {
+			throw new IllegalArgumentException("A network needs at least 1 line of at least 2 stops.");
+		}
+		this.lines = lines;
+		this.stops = stops;
+		this.express = express;
+		this.transfers = transfers;
+		this.seed = seed;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int lines = 25, stops = 20;
+		double express = 0.3, transfers = 0.15;
+		long seed = 1;
+		File out = new File("synthetic_stations.csv");
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "--lines": lines = Integer.parseInt(args[i + 1]); break;
+				case "--stops": stops = Integer.parseInt(args[i + 1]); break;
+				case "--express": express = Double.parseDouble(args[i + 1]); break;
+				case "--transfers": transfers = Double.parseDouble(args[i + 1]); break;
+				case "--seed": seed = Long.parseLong(args[i + 1]); break;
+				case "--out": out = new File(args[i + 1]); break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i] + ".");
+			}
+		}
+		int rows = new NetworkGenerator(lines, stops, express, transfers, seed).write(out);
+		System.out.println("Wrote " + rows + " rows of " + lines + " lines to " + out + ".");
+	}
+
+	/**
+	 * Here we lay out every line, one after another. A line begins anywhere within a square (wide enough that
+	 * the network is about as dense as the MTA's) at any heading, and turns a little at every stop (turning back
+	 * in if it would leave the square). Stops already laid out are kept within a grid of SPACING wide cells, so a
+	 * stop to transfer to is found without measuring the distance to every other stop.
+	 *
+	 * @param file csv file to write
+	 * @return number of rows written
+	 * @throws IOException if the file cannot be written
+	 */
+	public int write(File file) throws IOException {
+		Random random = new Random(this.seed);
+		double side = Math.max(10, SPACING * Math.sqrt((double) this.lines * this.stops));
+		String format = "%0" + Math.max(4, String.valueOf(this.lines).length()) + "d";
+
+		List<double[]> points = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		List<Integer> owners = new ArrayList<>();
+		Map<Long, List<Integer>> grid = new HashMap<>();
+		int rows = 0, unnamed = 0;
+
+		try (Writer out = new BufferedWriter(new FileWriter(file), 1 << 16)) {
+			out.write(HEADER);
+			out.write('\n');
+
+			for (int line = 0; line < this.lines; line++) {
+				String local = "L" + String.format(format, line + 1), fast = "X" + String.format(format, line + 1) + " Express";
+				String service = service(random);
+				boolean express = random.nextDouble() < this.express;
+				String bounds = random.nextBoolean() ? "AM southbound, PM northbound" : "AM northbound, PM southbound";
+
+				double x = random.nextDouble() * side, y = random.nextDouble() * side;
+				double heading = random.nextDouble() * 2 * Math.PI;
+
+				for (int stop = 0; stop < this.stops; stop++) {
+					if (stop > 0) {
+						heading += random.nextGaussian() * 0.25;
+						double step = SPACING * (0.75 + random.nextDouble() / 2);
+
+						if (x + Math.cos(heading) * step < 0 || x + Math.cos(heading) * step > side || y + Math.sin(heading) * step < 0 || y + Math.sin(heading) * step > side) {
+							heading = Math.atan2(side / 2 - y, side / 2 - x) + random.nextGaussian() * 0.25;
+						}
+						x += Math.cos(heading) * step;
+						y += Math.sin(heading) * step;
+					}
+
+					// Either a transfer to the closest stop of another line, or a station of its own.
+					String name = null;
+					int near = random.nextDouble() < this.transfers ? nearest(grid, points, owners, x, y, line) : -1;
+					double px = x, py = y;
+					if (near != -1) {
+						name = names.get(near);
+						px = points.get(near)[0] + (random.nextDouble() - 0.5) * 0.1;
+						py = points.get(near)[1] + (random.nextDouble() - 0.5) * 0.1;
+					} else {
+						name = "Stop " + (++unnamed);
+					}
+
+					int index = points.size();
+					points.add(new double[] { px, py });
+					names.add(name);
+					owners.add(line);
+					grid.computeIfAbsent(cell(px, py), cell -> new ArrayList<>(2)).add(index);
+
+					boolean stopsExpress = express && (stop % EXPRESS_EVERY == 0 || stop == this.stops - 1);
+					String trains = stopsExpress ? local + "-" + fast : local;
+					String notes = local + "-" + service + (stopsExpress ? ", " + fast + "-weekdays " + bounds : "");
+
+					double latitude = LATITUDE + Math.toDegrees(py / MetroGraph.EARTH_RADIUS);
+					double longitude = LONGITUDE + Math.toDegrees(px / (MetroGraph.EARTH_RADIUS * Math.cos(Math.toRadians(LATITUDE))));
+
+					out.write("http://web.mta.info/nyct/service/," + (++rows) + "," + quote(name) + ",POINT (" + longitude + " " + latitude + ")," + quote(trains) + "," + quote(notes) + "\n");
+				}
+			}
+		}
+		return rows;
+	}
+
+	private String service(Random random) {
+		double odds = random.nextDouble();
+		for (int i = 0; i < SERVICES.length; i++) {
+			odds -= ODDS[i];
+			if (odds < 0) {
+				return SERVICES[i];
+			}
+		}
+		return SERVICES[0];
+	}
+
+	private static long cell(double x, double y) {
+		return ((long) Math.floor(x / SPACING) << 32) ^ ((long) Math.floor(y / SPACING) & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return the closest stop of another line within SPACING km of a point, or -1
+	 */
+	private static int nearest(Map<Long, List<Integer>> grid, List<double[]> points, List<Integer> owners, double x, double y, int line) {
+		int nearest = -1;
+		double best = SPACING * SPACING;
+
+		for (int dx = -1; dx <= 1; dx++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				List<Integer> cell = grid.get(cell(x + dx * SPACING, y + dy * SPACING));
+				if (cell == null) {
+					continue;
+				}
+				for (int i : cell) {
+					double[] point = points.get(i);
+					double distance = (point[0] - x) * (point[0] - x) + (point[1] - y) * (point[1] - y);
+					if (owners.get(i) != line && distance < best) {
+						best = distance;
+						nearest = i;
+					}
+				}
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * @return a field of the csv file, quoted if it has to be
+	 */
+	private static String quote(String field) {
+		if (field.indexOf(',') == -1 && field.indexOf('"') == -1 && field.indexOf('\n') == -1) {
+			return field;
+		}
+		return "\"" + field.replace("\"", "\"\"") + "\"";
+	}
+}
@@ -0,0 +1,307 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * Route is a path as its rider sees it: a list of Legs, each ridden on a single line (or walked, for a transfer)
+ * from the station we board at to the station we alight at, along with its distance and the minutes it takes.
+ *
+ * Legs are found from the line of every Edge of the path within our CompactGraph. Where stations are joined by
+ * Edges of many lines (e.g. the 4 and the 5), we take the line that rides furthest along the path before we would
+ * have to change, so a Route has as few Legs as its path allows.
+ *
+ * A Route is rendered by writing straight to an Appendable (a StringBuilder, a Writer, an HTTP response), as text
+ * or as JSON. Station and line names are written as they are, and numbers digit by digit, so rendering a Route
+ * allocates nothing beyond what the Appendable itself does.
+ */
+public class Route {
+	/**
+	 * A single Leg: the line ridden (null for a transfer), the positions within the Route's stops of the station we
+	 * board at and the station we alight at, and its distance in km.
+	 */
+	public record Leg(String line, int board, int alight, double distance) {
+		public boolean transfer() {
+			return this.line == null;
+		}
+
+		/**
+		 * @return number of stops ridden
+		 */
+		public int stops() {
+			return this.alight - this.board;
+		}
+
+		/**
+		 * @return estimated minutes, at TimeDependentRouter.SPEED (as Path.toString)
+		 */
+		public double minutes() {
+			return this.distance / TimeDependentRouter.SPEED;
+		}
+	}
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private final CompactGraph graph;
+	private final int[] stops;
+	private final List<Leg> legs;
+	private final double distance;
+
+	private Route(CompactGraph graph, int[] stops, List<Leg> legs) {
+		this.graph = graph;
+		this.stops = stops;
+		this.legs = Collections.unmodifiableList(legs);
+
+		double distance = 0;
+		for (Leg leg : legs) {
+			distance += leg.distance();
+		}
+		this.distance = distance;
+	}
+
+	/**
+	 * Here we split a path into Legs. From the station a Leg begins at, we try the line of every Edge to the next
+	 * stop and follow it for as long as it has an Edge to the stop after; the line that goes furthest is the Leg.
+	 * Stops that are not joined by an Edge at all (a path we did not search for) are walked, in a straight line.
+	 *
+	 * @param graph CompactGraph the path was found within
+	 * @param stops ids of the Nodes of the path, from origin to destination
+	 * @return Route of the path
+	 */
+	public static Route of(CompactGraph graph, int[] stops) {
+		List<Leg> legs = new ArrayList<>();
+
+		int board = 0;
+		while (board < stops.length - 1) {
+			int from = stops[board], to = stops[board + 1];
+			int line = CompactGraph.TRANSFER, alight = board + 1;
+			boolean joined = false;
+
+			for (int e = graph.first(from); e < graph.end(from); e++) {
+				if (graph.target(e) == to) {
+					int reach = board + 1;
+					while (reach < stops.length - 1 && edge(graph, stops[reach], stops[reach + 1], graph.line(e)) != -1) {
+						reach++;
+					}
+					if (!joined || reach > alight) {
+						line = graph.line(e);
+						alight = reach;
+						joined = true;
+					}
+				}
+			}
+
+			double distance = 0;
+			for (int stop = board; stop < alight; stop++) {
+				int e = joined ? edge(graph, stops[stop], stops[stop + 1], line) : -1;
+				distance += e == -1 ? graph.node(stops[stop]).distance(graph.node(stops[stop + 1])) : graph.weight(e);
+			}
+			legs.add(new Leg(graph.lineName(line), board, alight, distance));
+			board = alight;
+		}
+		return new Route(graph, stops, legs);
+	}
+
+	/**
+	 * @return the shortest Edge of a line from one Node to another, or -1
+	 */
+	private static int edge(CompactGraph graph, int from, int to, int line) {
+		int found = -1;
+		for (int e = graph.first(from); e < graph.end(from); e++) {
+			if (graph.target(e) == to && graph.line(e) == line && (found == -1 || graph.weight(e) < graph.weight(found))) {
+				found = e;
+			}
+		}
+		return found;
+	}
+
+	public List<Leg> legs() {
+		return this.legs;
+	}
+
+	/**
+	 * @return ids of the Nodes of the Route, from origin to destination
+	 */
+	public int[] stops() {
+		return this.stops;
+	}
+
+	/**
+	 * @return name of the station at a position within our stops
+	 */
+	public String station(int stop) {
+		return this.graph.node(this.stops[stop]).getStation();
+	}
+	public String origin() {
+		return this.station(0);
+	}
+	public String destination() {
+		return this.station(this.stops.length - 1);
+	}
+
+	/**
+	 * @return distance in km
+	 */
+	public double distance() {
+		return this.distance;
+	}
+	public double minutes() {
+		return this.distance / TimeDependentRouter.SPEED;
+	}
+
+	/**
+	 * @return number of changes from one train to another
+	 */
+	public int transfers() {
+		int rides = 0;
+		for (int i = 0; i < this.legs.size(); i++) {
+			if (!this.legs.get(i).transfer()) {
+				rides++;
+			}
+		}
+		return Math.max(rides - 1, 0);
+	}
+
+	/**
+	 * Write the Route as text, e.g. "Astor Pl (6) [2 stops, 2.78 mins] -> Grand Central - 42nd St", where a
+	 * transfer is written as "[walk, 0.41 mins]".
+	 *
+	 * @param out Appendable to write to
+	 * @return out
+	 * @throws IOException if out cannot be written to
+	 */
+	public <A extends Appendable> A text(A out) throws IOException {
+		out.append(this.origin());
+
+		for (int i = 0; i < this.legs.size(); i++) {
+			Leg leg = this.legs.get(i);
+			if (leg.transfer()) {
+				out.append(" [walk, ");
+			} else {
+				out.append(" (").append(leg.line()).append(") [");
+				integer(out, leg.stops());
+				out.append(leg.stops() == 1 ? " stop, " : " stops, ");
+			}
+			decimal(out, leg.minutes(), 2);
+			out.append(" mins] -> ").append(this.station(leg.alight()));
+		}
+		return out;
+	}
+
+	/**
+	 * Write the Route as a JSON object of its origin, destination, distance (km), minutes, transfers and Legs.
+	 *
+	 * @param out Appendable to write to
+	 * @return out
+	 * @throws IOException if out cannot be written to
+	 */
+	public <A extends Appendable> A json(A out) throws IOException {
+		out.append("{\"origin\":");
+		string(out, this.origin());
+		out.append(",\"destination\":");
+		string(out, this.destination());
+		out.append(",\"distance\":");
+		decimal(out, this.distance, 3);
+		out.append(",\"minutes\":");
+		decimal(out, this.minutes(), 2);
+		out.append(",\"transfers\":");
+		integer(out, this.transfers());
+		out.append(",\"legs\":[");
+
+		for (int i = 0; i < this.legs.size(); i++) {
+			Leg leg = this.legs.get(i);
+			out.append(i == 0 ? "{\"line\":" : ",{\"line\":");
+			if (leg.transfer()) {
+				out.append("null");
+			} else {
+				string(out, leg.line());
+			}
+			out.append(",\"board\":");
+			string(out, this.station(leg.board()));
+			out.append(",\"alight\":");
+			string(out, this.station(leg.alight()));
+			out.append(",\"stops\":");
+			integer(out, leg.stops());
+			out.append(",\"distance\":");
+			decimal(out, leg.distance(), 3);
+			out.append(",\"minutes\":");
+			decimal(out, leg.minutes(), 2);
+			out.append('}');
+		}
+		out.append("]}");
+		return out;
+	}
+
+	@Override
+	public String toString() {
+		try {
+			return this.text(new StringBuilder()).toString();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e); // A StringBuilder is never closed.
+		}
+	}
+
+	private static void integer(Appendable out, long value) throws IOException {
+		if (value < 0) {
+			out.append('-');
+			value = -value;
+		}
+		long power = 1;
+		while (power <= value / 10) {
+			power *= 10;
+		}
+		for (; power > 0; power /= 10) {
+			out.append((char) ('0' + value / power % 10));
+		}
+	}
+
+	/**
+	 * Write a number rounded (half up) to a number of decimal places.
+	 */
+	private static void decimal(Appendable out, double value, int places) throws IOException {
+		long scale = 1;
+		for (int i = 0; i < places; i++) {
+			scale *= 10;
+		}
+		long scaled = Math.round(Math.abs(value) * scale);
+		if (value < 0 && scaled != 0) {
+			out.append('-');
+		}
+		integer(out, scaled / scale);
+		out.append('.');
+		for (long power = scale / 10; power > 0; power /= 10) {
+			out.append((char) ('0' + scaled / power % 10));
+		}
+	}
+
+	/**
+	 * Write a JSON string (as RouteServer.quote), one character at a time.
+	 */
+	private static void string(Appendable out, String value) throws IOException {
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': out.append("\\\""); break;
+				case '\\': out.append("\\\\"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				case '\t': out.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 15]);
+					} else {
+						out.append(c);
+					}
+			}
+		}
+		out.append('"');
+	}
+}
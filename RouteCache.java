@@ -0,0 +1,199 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * RouteCache keeps the results of the routes asked for most, keyed by origin, destination, service period and
+ * query mode, since a few hundred pairs of stations make up most of what is asked for.
+ *
+ * The cache is bounded by weight rather than by count (the weight of a Path is its number of stops), and evicts
+ * the route used least recently once it is full. Every route is kept along with the CompactGraph it was found on,
+ * and a route of a graph that has changed since is never returned (see Graph.update, which also drops every route
+ * of its service period at once).
+ *
+ * When many threads ask for the same route of the same graph at once, only the first searches for it; the others
+ * wait for, and share, its result (or its failure).
+ *
+ * @param <V> result of a route, e.g. a Path
+ */
+public class RouteCache<V> {
+	/**
+	 * Weight (stops of every route) a Graph's cache holds, if it is not given one.
+	 */
+	public static final int CAPACITY = 1 << 17;
+
+	/**
+	 * A single route asked for: ids of its origin and destination, its service period (or -1, if the graph is of
+	 * no single period) and the way it was searched for, e.g. "dijkstras" or "shortestWalkPath".
+	 */
+	public record Key(int origin, int destination, int period, String mode) {}
+
+	private record Entry<V>(Object graph, V value, int weight) {}
+
+	/**
+	 * A search running for a route, on a graph (compared by identity), so that a search on a graph that has
+	 * since changed is never shared with callers of the changed graph.
+	 */
+	private record Flight(Key key, Object graph) {
+		@Override
+		public boolean equals(Object object) {
+			return object instanceof Flight other && this.key.equals(other.key) && this.graph == other.graph;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * this.key.hashCode() + System.identityHashCode(this.graph);
+		}
+	}
+
+	private final int capacity;
+	private final ToIntFunction<V> weigher;
+
+	private final Map<Key, Entry<V>> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private final Map<Flight, CompletableFuture<V>> flights = new ConcurrentHashMap<>();
+	private long weight;
+
+	private final LongAdder hits = new LongAdder(), misses = new LongAdder(), coalesced = new LongAdder(), evictions = new LongAdder();
+
+	/**
+	 * @param capacity most weight the cache holds
+	 * @param weigher weight of a result (at least 1 is counted for every result)
+	 */
+	public RouteCache(int capacity, ToIntFunction<V> weigher) {
+		this.capacity = capacity;
+		this.weigher = weigher;
+	}
+
+	/**
+	 * Here we return the route if it is kept (and was found on the same graph), or else join the search for it
+	 * if another thread has begun one, or else search for it ourselves and keep the result.
+	 *
+	 * @param key route asked for
+	 * @param graph the graph the route is to be found on, compared by identity
+	 * @param search finds the route if it is not kept
+	 * @return result of the route
+	 */
+	public V get(Key key, Object graph, Supplier<V> search) {
+		synchronized (this) {
+			Entry<V> entry = this.entries.get(key);
+			if (entry != null && entry.graph() == graph) {
+				this.hits.increment();
+				Metrics.cache(true);
+				return entry.value();
+			}
+		}
+
+		Flight id = new Flight(key, graph);
+		CompletableFuture<V> flight = new CompletableFuture<>(), running = this.flights.putIfAbsent(id, flight);
+		if (running != null) {
+			this.coalesced.increment();
+			try {
+				return running.join();
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof Error cause) {
+					throw cause;
+				}
+				throw e.getCause() instanceof RuntimeException cause ? cause : e;
+			}
+		}
+
+		this.misses.increment();
+		Metrics.cache(false);
+		try {
+			V value = search.get();
+			this.put(key, graph, value);
+			flight.complete(value);
+			return value;
+		} catch (Throwable e) {
+			// Errors too (e.g. a StackOverflowError), or else whoever waits for this search would wait forever.
+			flight.completeExceptionally(e);
+			throw e;
+		} finally {
+			this.flights.remove(id, flight);
+		}
+	}
+
+	private synchronized void put(Key key, Object graph, V value) {
+		Entry<V> entry = new Entry<>(graph, value, Math.max(1, this.weigher.applyAsInt(value)));
+		Entry<V> old = this.entries.put(key, entry);
+		this.weight += entry.weight() - (old == null ? 0 : old.weight());
+
+		Iterator<Entry<V>> eldest = this.entries.values().iterator();
+		while (this.weight > this.capacity && eldest.hasNext()) {
+			Entry<V> evicted = eldest.next();
+			if (evicted == entry) {
+				break; // A single route heavier than the whole cache is still kept, alone.
+			}
+			eldest.remove();
+			this.weight -= evicted.weight();
+			this.evictions.increment();
+		}
+	}
+
+	/**
+	 * Drop every route of a service period (e.g. once its graph has changed).
+	 */
+	public synchronized void invalidate(int period) {
+		Iterator<Map.Entry<Key, Entry<V>>> iterator = this.entries.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<Key, Entry<V>> entry = iterator.next();
+			if (entry.getKey().period() == period) {
+				this.weight -= entry.getValue().weight();
+				iterator.remove();
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		this.entries.clear();
+		this.weight = 0;
+	}
+
+	public synchronized int size() {
+		return this.entries.size();
+	}
+	public synchronized long weight() {
+		return this.weight;
+	}
+
+	/**
+	 * @return routes returned from the cache
+	 */
+	public long hits() {
+		return this.hits.sum();
+	}
+
+	/**
+	 * @return routes searched for
+	 */
+	public long misses() {
+		return this.misses.sum();
+	}
+
+	/**
+	 * @return routes that waited for the search of another thread rather than searching themselves
+	 */
+	public long coalesced() {
+		return this.coalesced.sum();
+	}
+	public long evictions() {
+		return this.evictions.sum();
+	}
+
+	@Override
+	public String toString() {
+		return this.size() + " routes (weight " + this.weight() + " of " + this.capacity + "), " + this.hits() + " hits, " + this.misses() + " misses, " + this.coalesced() + " coalesced, " + this.evictions() + " evictions";
+	}
+}
@@ -0,0 +1,503 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * RouteServer answers routing queries over HTTP, as JSON, from graphs it keeps warm: the graph of every service
+ * period is generated (and searched once, so that what its searches need is built) before the server starts, and
+ * every graph shares a single RouteCache. Once the csv file changes, its graphs are generated again (see graphs).
+ * It only listens on localhost.
+ *
+ * GET /route?from=&to=&time=&day=[&mode=shortest|walk|trip] a route between two stations (see Graph.dijkstras,
+ * Graph.shortestWalkPath and MetroGraph.departAt), along with its Legs (see Route) for shortest and walk
+ * GET /stations?q=[&limit=] stations by name: the exact match, completions and the closest names
+ * GET /matrix?from=&from=...&to=&to=...&time=&day= distances (in km) from every origin to every destination
+ * GET /health whether we are up, along with what we are doing
+ *
+ * Every request runs on a virtual thread of its own if the JVM has them (Java 21 on), or else on a thread of a
+ * pool. At most --concurrency requests are searched at once (on threads apart from those of the requests, so that
+ * we can stop waiting for one): a request that waits longer than --timeout ms for its turn is turned away (503),
+ * and one whose answer takes longer than that is answered with a 504.
+ *
+ * Usage: java RouteServer [--csv file] [--port N] [--concurrency N] [--timeout ms]
+ */
+public class RouteServer {
+	public static final int PORT = 8080;
+	public static final long TIMEOUT = 2000;
+
+	/**
+	 * Most origins (and most destinations) of a single matrix.
+	 */
+	public static final int MATRIX = 64;
+
+	/**
+	 * Least ms between two checks of whether the csv file has changed (see graphs).
+	 */
+	public static final long RELOAD = 1000;
+
+	/**
+	 * An answer to a request: its HTTP status and its JSON body.
+	 */
+	record Response(int status, String json) {
+		static Response error(int status, String message) {
+			return new Response(status, "{\"error\":" + quote(message) + "}");
+		}
+	}
+
+	/**
+	 * A request that cannot be answered as asked (400).
+	 */
+	private static class BadRequest extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		BadRequest(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * The graph of every service period, and the index of every station, of a single GraphSnapshot of the csv file.
+	 */
+	private record Graphs(GraphSnapshot snapshot, List<MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge>> graphs, StationIndex index) {}
+
+	private final File csv;
+	private final MetroGraph metro = new MetroGraph();
+	private final RouteCache<MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge>.Path<MetroGraph.Node>> cache = new RouteCache<>(RouteCache.CAPACITY, path -> path.path().size());
+	private volatile Graphs graphs;
+	private volatile long checked;
+
+	private final int concurrency;
+	private final long timeout;
+	private final Semaphore permits;
+	private final ExecutorService threads, searches;
+
+	private final long started = System.nanoTime();
+	private HttpServer server;
+
+	/**
+	 * Generate (and warm up) the graph of every service period of a csv file.
+	 *
+	 * @param csv stations csv file
+	 * @param concurrency most requests searched at once
+	 * @param timeout ms a request may wait for its turn, and again for its answer
+	 * @throws IOException if the graphs cannot be generated
+	 */
+	public RouteServer(File csv, int concurrency, long timeout) throws IOException {
+		this.csv = csv;
+		this.concurrency = concurrency;
+		this.timeout = timeout;
+		this.permits = new Semaphore(concurrency);
+		this.threads = threads(0);
+		this.searches = threads(concurrency);
+
+		this.graphs = this.generate();
+		this.checked = System.nanoTime();
+	}
+
+	/**
+	 * Generate (and warm up) the graph of every service period of the csv file as it is now.
+	 *
+	 * @return Graphs of the csv file
+	 * @throws IOException if the graphs cannot be generated
+	 */
+	private Graphs generate() throws IOException {
+		GraphSnapshot snapshot = GraphSnapshot.of(this.csv);
+		List<MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge>> graphs = new ArrayList<>();
+
+		for (String[] period : Benchmark.periods()) {
+			MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> graph = this.metro.generateGraph(this.csv, period[0], period[1]);
+			if (graph.getNodes().isEmpty()) {
+				throw new IOException("No graph could be generated of " + this.csv + ".");
+			}
+			graph.setCache(this.cache);
+			graphs.add(graph);
+
+			// As in LoadDriver, the structures a graph builds on its first searches are built now.
+			MetroGraph.Node node = graph.getNodes().iterator().next();
+			try {
+				graph.dijkstras(node.getStation(), node.getStation());
+				graph.shortestWalkPath(node.getStation(), node.getStation());
+			} catch (RuntimeException e) {
+				// Only the structures built along the way matter here.
+			}
+		}
+		snapshot.timeDependentRouter();
+		this.cache.clear();
+		return new Graphs(snapshot, graphs, snapshot.rules().index());
+	}
+
+	/**
+	 * Here we check (at most once every RELOAD ms) whether the csv file has changed, and if it has, generate its
+	 * graphs again. Requests keep being answered from the graphs we have until the new ones are ready, and if
+	 * they cannot be generated (e.g. the file is being written), we keep the graphs we have and try again later.
+	 *
+	 * @return Graphs of the csv file
+	 */
+	private Graphs graphs() {
+		long now = System.nanoTime();
+		if (now - this.checked < TimeUnit.MILLISECONDS.toNanos(RELOAD)) {
+			return this.graphs;
+		}
+		synchronized (this) {
+			if (now - this.checked >= TimeUnit.MILLISECONDS.toNanos(RELOAD)) {
+				try {
+					if (!this.graphs.snapshot().current(this.csv)) {
+						this.graphs = this.generate();
+					}
+				} catch (IOException | RuntimeException e) {
+					System.err.println("Could not generate the graphs of " + this.csv + " again: " + e.getMessage());
+				}
+				this.checked = System.nanoTime();
+			}
+		}
+		return this.graphs;
+	}
+
+	public static void main(String[] args) throws IOException {
+		File csv = new File("mta_stations.csv");
+		int port = PORT, concurrency = 4 * Runtime.getRuntime().availableProcessors();
+		long timeout = TIMEOUT;
+
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			switch (args[i]) {
+				case "--csv": csv = new File(args[i + 1]); break;
+				case "--port": port = Integer.parseInt(args[i + 1]); break;
+				case "--concurrency": concurrency = Integer.parseInt(args[i + 1]); break;
+				case "--timeout": timeout = Long.parseLong(args[i + 1]); break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i] + ".");
+			}
+		}
+
+		long start = System.nanoTime();
+		RouteServer server = new RouteServer(csv, concurrency, timeout);
+		server.start(port);
+		Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+
+		System.out.println(String.format(Locale.ROOT, "Serving %d graphs of %s on http://localhost:%d (ready in %.1f s, %s).",
+				server.graphs.graphs().size(), csv, server.port(), (System.nanoTime() - start) / 1e9, virtual() ? "virtual threads" : "a pool of " + concurrency + " threads"));
+	}
+
+	/**
+	 * Begin listening on localhost.
+	 *
+	 * @param port port to listen on, or 0 for any free port
+	 */
+	public void start(int port) throws IOException {
+		/*
+		The JDK's server writes the headers and the body of a response apart, and without TCP_NODELAY the body waits
+		on the client's delayed ACK of the headers (about 40 ms) on every request of a kept alive connection.
+		 */
+		if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		}
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		this.server.createContext("/route", exchange -> this.serve(exchange, this::route));
+		this.server.createContext("/stations", exchange -> this.serve(exchange, this::stations));
+		this.server.createContext("/matrix", exchange -> this.serve(exchange, this::matrix));
+		this.server.createContext("/health", exchange -> this.respond(exchange, this.health()));
+		this.server.setExecutor(this.threads);
+		this.server.start();
+	}
+
+	public void stop() {
+		if (this.server != null) {
+			this.server.stop(0);
+		}
+		this.threads.shutdownNow();
+		this.searches.shutdownNow();
+	}
+
+	public int port() {
+		return this.server.getAddress().getPort();
+	}
+
+	/**
+	 * @return true, if this JVM has virtual threads
+	 */
+	public static boolean virtual() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return an executor of a virtual thread for every task if this JVM has them (we compile against Java 17, so
+	 * we look it up by reflection), or else of a pool of that many threads (or of as many as it needs, for 0)
+	 */
+	private static ExecutorService threads(int size) {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			ThreadFactory factory = runnable -> {
+				Thread thread = new Thread(runnable, size == 0 ? "RouteServer" : "RouteServer search");
+				thread.setDaemon(true);
+				return thread;
+			};
+			return size == 0 ? Executors.newCachedThreadPool(factory) : Executors.newFixedThreadPool(size, factory);
+		}
+	}
+
+	/**
+	 * Here we wait (at most timeout ms) for a permit to search, then answer the request on another thread and wait
+	 * (at most timeout ms) for its answer. The permit is only given back once the search is done, even if we no
+	 * longer wait for it, since a search cannot be stopped halfway.
+	 */
+	private void serve(HttpExchange exchange, Function<Map<String, List<String>>, Response> handler) throws IOException {
+		if (!exchange.getRequestMethod().equals("GET")) {
+			this.respond(exchange, Response.error(405, "Only GET is supported."));
+			return;
+		}
+		Map<String, List<String>> parameters = parameters(exchange.getRequestURI().getRawQuery());
+
+		try {
+			if (!this.permits.tryAcquire(this.timeout, TimeUnit.MILLISECONDS)) {
+				this.respond(exchange, Response.error(503, "Too many requests at once."));
+				return;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			this.respond(exchange, Response.error(503, "Interrupted."));
+			return;
+		}
+
+		CompletableFuture<Response> answer;
+		try {
+			answer = CompletableFuture.supplyAsync(() -> this.answer(handler, parameters), this.searches);
+		} catch (RuntimeException e) {
+			this.permits.release();
+			throw e;
+		}
+		answer.whenComplete((response, failure) -> this.permits.release());
+
+		Response response;
+		try {
+			response = answer.get(this.timeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			response = Response.error(504, "No answer within " + this.timeout + " ms.");
+		} catch (ExecutionException | InterruptedException e) {
+			response = Response.error(500, String.valueOf(e.getCause()));
+		}
+		this.respond(exchange, response);
+	}
+
+	private Response answer(Function<Map<String, List<String>>, Response> handler, Map<String, List<String>> parameters) {
+		try {
+			return handler.apply(parameters);
+		} catch (BadRequest | IllegalArgumentException e) {
+			return Response.error(400, e.getMessage());
+		} catch (NoSuchElementException e) {
+			return Response.error(404, e.getMessage());
+		}
+	}
+
+	private void respond(HttpExchange exchange, Response response) throws IOException {
+		byte[] body = response.json().getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+		exchange.sendResponseHeaders(response.status(), body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * GET /route: a route between two stations at a time and day.
+	 */
+	private Response route(Map<String, List<String>> parameters) {
+		String from = required(parameters, "from"), to = required(parameters, "to"), time = required(parameters, "time"), day = required(parameters, "day");
+		String mode = parameters.getOrDefault("mode", List.of("shortest")).get(0);
+		MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> graph = this.graph(time, day);
+
+		StringBuilder json = new StringBuilder();
+		json.append("{\"from\":").append(quote(from)).append(",\"to\":").append(quote(to)).append(",\"time\":").append(quote(time)).append(",\"day\":").append(quote(day)).append(",\"mode\":").append(quote(mode));
+
+		switch (mode) {
+			case "shortest":
+			case "walk":
+				MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge>.Path<MetroGraph.Node> path = mode.equals("walk") ? graph.shortestWalkPath(from, to) : graph.dijkstras(from, to);
+				json.append(",\"stops\":[");
+				boolean first = true;
+				for (Object stop : path.path()) {
+					MetroGraph.Node node = (MetroGraph.Node) stop;
+					json.append(first ? "" : ",").append("{\"station\":").append(quote(node.getStation())).append(",\"latitude\":").append(node.getLatitude()).append(",\"longitude\":").append(node.getLongitude()).append('}');
+					first = false;
+				}
+				json.append("],\"text\":").append(quote(path.toString())).append(",\"route\":");
+				try {
+					path.route().json(json);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e); // A StringBuilder is never closed.
+				}
+				break;
+			case "trip":
+				Optional<TimeDependentRouter.Trip> trip;
+				try {
+					trip = this.metro.departAt(this.csv, from, to, time, day);
+				} catch (IOException e) {
+					throw new BadRequest(e.getMessage());
+				}
+				if (trip.isEmpty()) {
+					throw new NoSuchElementException("No trip from \"" + from + "\" to \"" + to + "\".");
+				}
+				TimeDependentRouter.Trip found = trip.get();
+				json.append(",\"minutes\":").append(String.format(Locale.ROOT, "%.2f", found.minutes())).append(",\"stops\":[");
+				for (int i = 0; i < found.stops().length; i++) {
+					json.append(i == 0 ? "" : ",").append("{\"station\":").append(quote(found.station(i))).append(",\"line\":").append(found.line(i) == null ? "null" : quote(found.line(i)))
+							.append(",\"arrival\":").append(quote(String.format("%04d", TimeDependentRouter.time(found.arrival(i))))).append('}');
+				}
+				json.append("],\"text\":").append(quote(found.toString()));
+				break;
+			default:
+				throw new BadRequest("Unknown mode \"" + mode + "\", only shortest, walk or trip.");
+		}
+		return new Response(200, json.append('}').toString());
+	}
+
+	/**
+	 * GET /stations: stations by name.
+	 */
+	private Response stations(Map<String, List<String>> parameters) {
+		String query = required(parameters, "q");
+		int limit = Integer.parseInt(parameters.getOrDefault("limit", List.of("10")).get(0));
+
+		StationIndex index = this.graphs().index();
+		Optional<String> exact = index.lookup(query);
+		return new Response(200, "{\"query\":" + quote(query) + ",\"exact\":" + (exact.isPresent() ? quote(exact.get()) : "null")
+				+ ",\"complete\":" + array(index.complete(query, limit)) + ",\"search\":" + array(index.search(query, limit)) + "}");
+	}
+
+	/**
+	 * GET /matrix: distances from every origin to every destination.
+	 */
+	private Response matrix(Map<String, List<String>> parameters) {
+		List<String> origins = parameters.getOrDefault("from", List.of()), destinations = parameters.getOrDefault("to", List.of());
+		if (origins.isEmpty() || destinations.isEmpty()) {
+			throw new BadRequest("A matrix needs at least one from and one to.");
+		}
+		if (origins.size() > MATRIX || destinations.size() > MATRIX) {
+			throw new BadRequest("A matrix has at most " + MATRIX + " origins and " + MATRIX + " destinations.");
+		}
+		DistanceMatrix matrix = this.graph(required(parameters, "time"), required(parameters, "day")).distanceMatrix(origins, destinations);
+
+		StringBuilder json = new StringBuilder("{\"from\":" + array(origins) + ",\"to\":" + array(destinations) + ",\"km\":[");
+		for (int row = 0; row < matrix.rows(); row++) {
+			json.append(row == 0 ? "[" : ",[");
+			for (int column = 0; column < matrix.columns(); column++) {
+				float km = matrix.get(row, column);
+				json.append(column == 0 ? "" : ",").append(km == Float.POSITIVE_INFINITY ? "null" : String.format(Locale.ROOT, "%.3f", km));
+			}
+			json.append(']');
+		}
+		return new Response(200, json.append("]}").toString());
+	}
+
+	/**
+	 * GET /health: answered at once, without waiting for a permit.
+	 */
+	private Response health() {
+		return new Response(200, String.format(Locale.ROOT, "{\"status\":\"ok\",\"graphs\":%d,\"searching\":%d,\"concurrency\":%d,\"virtual\":%b,\"uptime\":%.1f,\"cache\":{\"routes\":%d,\"hits\":%d,\"misses\":%d,\"coalesced\":%d,\"evictions\":%d}}",
+				this.graphs.graphs().size(), this.concurrency - this.permits.availablePermits(), this.concurrency, virtual(), (System.nanoTime() - this.started) / 1e9,
+				this.cache.size(), this.cache.hits(), this.cache.misses(), this.cache.coalesced(), this.cache.evictions()));
+	}
+
+	/**
+	 * @return graph of the service period of a time and day
+	 */
+	private MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> graph(String time, String day) {
+		try {
+			Time.validate(time);
+			Day.validate(day);
+		} catch (IOException e) {
+			throw new BadRequest(e.getMessage());
+		}
+		return this.graphs().graphs().get(ServiceRules.period(Integer.parseInt(time), Day.type(day)));
+	}
+
+	private static String required(Map<String, List<String>> parameters, String name) {
+		List<String> values = parameters.get(name);
+		if (values == null || values.get(0).isEmpty()) {
+			throw new BadRequest("Missing parameter \"" + name + "\".");
+		}
+		return values.get(0);
+	}
+
+	/**
+	 * @return every parameter of a query string, by name, in order
+	 */
+	static Map<String, List<String>> parameters(String query) {
+		Map<String, List<String>> parameters = new LinkedHashMap<>();
+		if (query == null || query.isEmpty()) {
+			return parameters;
+		}
+		for (String pair : query.split("&")) {
+			int equals = pair.indexOf('=');
+			String name = URLDecoder.decode(equals == -1 ? pair : pair.substring(0, equals), StandardCharsets.UTF_8);
+			String value = equals == -1 ? "" : URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8);
+			parameters.computeIfAbsent(name, key -> new ArrayList<>()).add(value);
+		}
+		return parameters;
+	}
+
+	private static String array(List<String> values) {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < values.size(); i++) {
+			json.append(i == 0 ? "" : ",").append(quote(values.get(i)));
+		}
+		return json.append(']').toString();
+	}
+
+	/**
+	 * @return a JSON string of a String, with quotes, backslashes and control characters escaped
+	 */
+	static String quote(String value) {
+		StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+				case '"': json.append("\\\""); break;
+				case '\\': json.append("\\\\"); break;
+				case '\n': json.append("\\n"); break;
+				case '\r': json.append("\\r"); break;
+				case '\t': json.append("\\t"); break;
+				default:
+					if (c < 0x20) {
+						json.append(String.format("\\u%04x", (int) c));
+					} else {
+						json.append(c);
+					}
+			}
+		}
+		return json.append('"').toString();
+	}
+}
@@ -0,0 +1,62 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * RulesCheck checks that the compiled NOTES column (see ServiceRules) gives exactly the trains that building
+ * every Node from its own conditions (see Node.build) does, for every station, at every minute of the day, on a
+ * weekday and on a weekend. ServiceRules only evaluates the conditions once for every Window, so this is what tells
+ * us that no condition changes its value within a Window.
+ *
+ * Usage: java RulesCheck [csv file]
+ *
+ * Every mismatch is reported (up to MISMATCHES of them), and we exit with 1 if there are any.
+ */
+public class RulesCheck {
+	/**
+	 * Most mismatches we report before we only count them.
+	 */
+	public static final int MISMATCHES = 20;
+
+	public static void main(String[] args) throws IOException {
+		File csv = new File(args.length > 0 ? args[0] : "mta_stations.csv");
+		ServiceRules rules = ServiceRules.compile(csv);
+		MetroGraph metro = new MetroGraph();
+		int checked = 0, mismatches = 0;
+
+		for (Day.DayType dayType : Day.DayType.values()) {
+			for (int time = 0; time <= 2400; time++) {
+				if (time % 100 >= 60) {
+					continue;
+				}
+				int period = ServiceRules.period(time, dayType);
+				boolean rush = Time.rush(time);
+
+				for (ServiceRules.Station station : rules.stations()) {
+					MetroGraph.Node node = metro.new Node(station.getName(), station.getConnections(), station.getLatitude(), station.getLongitude(), station.getNotes()).applyFields(time, rush, dayType).build();
+
+					Set<MetroGraph.Train> built = node.getTrains(), compiled = rules.catalog().trains(station.trains(period));
+					Optional<String> lastStop = node.lastStop();
+					checked++;
+
+					if (!built.equals(compiled) || !lastStop.equals(station.lastStop())) {
+						if (++mismatches <= MISMATCHES) {
+							System.out.println(String.format("%s at %04d on a %s (%s): built %s to %s, compiled %s to %s", station.getName(), time, dayType, ServiceRules.window(period), built, lastStop, compiled, station.lastStop()));
+						}
+					}
+				}
+			}
+		}
+		System.out.println(checked + " stations and minutes checked, " + mismatches + " mismatches.");
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+}
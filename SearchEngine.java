@@ -0,0 +1,536 @@
+import java.util.Arrays;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * SearchEngine runs Dijkstra's algorithm over a CompactGraph. Tentative distances and the Edge we came from are
+ * stored in primitive arrays indexed by Node id, and the Nodes to settle next are kept in an IndexedHeap keyed by
+ * tentative distance. Only once the search is done do we walk back from the destination to build the path.
+ *
+ * Rather than clearing its arrays before every search, the engine stamps every Node it reaches with the number of
+ * the search, so a search only ever touches the Nodes it reaches and does not allocate.
+ *
+ * Point to point searches can also be run as A* or bidirectionally (see Mode). Edge weights are the Haversine
+ * distance between two Nodes, so the straight line distance to the destination never overestimates the distance
+ * left to travel, which makes it a heuristic that keeps every path found the shortest.
+ */
+public class SearchEngine {
+	/**
+	 * The way a point to point search is run.
+	 *
+	 * DIJKSTRA settles Nodes by their distance from the origin.
+	 * ASTAR settles Nodes by their distance from the origin plus their straight line distance to the destination.
+	 * BIDIRECTIONAL searches from the origin and (over reversed Edges) from the destination until they meet.
+	 * BIDIRECTIONAL_ASTAR is BIDIRECTIONAL, with both searches guided by the average of both straight line distances.
+	 */
+	public enum Mode { DIJKSTRA, ASTAR, BIDIRECTIONAL, BIDIRECTIONAL_ASTAR }
+
+	private final CompactGraph graph;
+
+	private final double[] distance, backDistance, potential;
+	private final int[] parent, edge, stamp;
+	private final int[] next, backEdge, backStamp, potentialStamp;
+	private final IndexedHeap heap, backHeap;
+
+	private int search, source = -1, target = -1, meeting = -1;
+	private double best;
+	private boolean bidirectional;
+	private int settled, relaxed;
+
+	private int[] banned, bannedEdges; // Stamped with bans for every Node and Edge banned (see spur).
+	private int bans;
+
+	public SearchEngine(CompactGraph graph) {
+		int size = graph.size();
+
+		this.graph = graph;
+		this.distance = new double[size];
+		this.parent = new int[size];
+		this.edge = new int[size];
+		this.stamp = new int[size];
+		this.heap = new IndexedHeap(size);
+
+		this.backDistance = new double[size];
+		this.next = new int[size];
+		this.backEdge = new int[size];
+		this.backStamp = new int[size];
+		this.backHeap = new IndexedHeap(size);
+
+		this.potential = new double[size];
+		this.potentialStamp = new int[size];
+	}
+
+	/**
+	 * Here we run Dijkstra's algorithm from the source, stopping once the target is settled.
+	 *
+	 * @param source id of the origin Node
+	 * @param target id of the destination Node, or -1 to settle every Node we can reach
+	 * @return true, if the target has been reached, false otherwise
+	 */
+	public boolean search(int source, int target) {
+		this.begin(source, target, 0);
+
+		while (!this.heap.isEmpty()) {
+			int from = this.heap.poll();
+			this.settled++;
+
+			if (from == target) {
+				return true;
+			}
+			double base = this.distance[from];
+
+			for (int e = this.graph.first(from); e < this.graph.end(from); e++) {
+				int to = this.graph.target(e);
+				double distance = base + this.graph.weight(e);
+
+				this.relaxed++;
+				if (this.stamp[to] != this.search || distance < this.distance[to]) {
+					this.reach(to, distance, from, e, distance);
+				}
+			}
+		}
+		return target == -1 || this.reached(target);
+	}
+
+	/**
+	 * Here we run Dijkstra's algorithm backwards from the target, over reversed Edges, settling every Node that can
+	 * reach it. Afterwards, distance(node) is the distance from the Node to the target, parent(node) is the Node
+	 * after it on its way there, and edge(node) the Edge it takes (see ShortestPathTree.to).
+	 *
+	 * @param target id of the destination Node
+	 */
+	public void searchTo(int target) {
+		this.begin(target, -1, 0);
+
+		while (!this.heap.isEmpty()) {
+			int to = this.heap.poll();
+			this.settled++;
+
+			double base = this.distance[to];
+
+			for (int in = this.graph.firstIn(to); in < this.graph.endIn(to); in++) {
+				int from = this.graph.source(in), e = this.graph.inEdge(in);
+				double distance = base + this.graph.weight(e);
+
+				this.relaxed++;
+				if (this.stamp[from] != this.search || distance < this.distance[from]) {
+					this.reach(from, distance, to, e, distance);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Here we run Dijkstra's algorithm from many sources at once, each of which we begin already some distance
+	 * away from (e.g. the walk from a raw coordinate to a station). The path found begins at whichever source
+	 * leads to the shortest path, and source() is -1 afterwards.
+	 *
+	 * @param sources ids of the origin Nodes
+	 * @param distances distance to begin with at every origin
+	 * @param target id of the destination Node, or -1 to settle every Node we can reach
+	 * @return true, if the target has been reached, false otherwise
+	 */
+	public boolean search(int[] sources, double[] distances, int target) {
+		this.reset(-1, target);
+
+		for (int i = 0; i < sources.length; i++) {
+			int source = sources[i];
+			if (this.stamp[source] != this.search || distances[i] < this.distance[source]) {
+				this.reach(source, distances[i], -1, -1, distances[i]);
+			}
+		}
+
+		while (!this.heap.isEmpty()) {
+			int from = this.heap.poll();
+			this.settled++;
+
+			if (from == target) {
+				return true;
+			}
+			double base = this.distance[from];
+
+			for (int e = this.graph.first(from); e < this.graph.end(from); e++) {
+				int to = this.graph.target(e);
+				double distance = base + this.graph.weight(e);
+
+				this.relaxed++;
+				if (this.stamp[to] != this.search || distance < this.distance[to]) {
+					this.reach(to, distance, from, e, distance);
+				}
+			}
+		}
+		return target == -1 || this.reached(target);
+	}
+
+	/**
+	 * Run a point to point search in the given Mode. Every Mode finds a shortest path, they only
+	 * differ in how many Nodes they settle to find it.
+	 *
+	 * @param source id of the origin Node
+	 * @param target id of the destination Node
+	 * @param mode way to run the search
+	 * @return true, if the target has been reached, false otherwise
+	 */
+	public boolean search(int source, int target, Mode mode) {
+		switch (mode) {
+			case ASTAR: return this.astar(source, target);
+			case BIDIRECTIONAL: return this.bidirectional(source, target, false);
+			case BIDIRECTIONAL_ASTAR: return this.bidirectional(source, target, true);
+			default: return this.search(source, target);
+		}
+	}
+
+	/**
+	 * A* settles Nodes by tentative distance plus the straight line distance to the target, so Nodes
+	 * leading away from the target are settled late, if at all.
+	 */
+	private boolean astar(int source, int target) {
+		this.begin(source, target, 0);
+
+		while (!this.heap.isEmpty()) {
+			int from = this.heap.poll();
+			this.settled++;
+
+			if (from == target) {
+				return true;
+			}
+			double base = this.distance[from];
+
+			for (int e = this.graph.first(from); e < this.graph.end(from); e++) {
+				int to = this.graph.target(e);
+				double distance = base + this.graph.weight(e);
+
+				this.relaxed++;
+				if (this.stamp[to] != this.search || distance < this.distance[to]) {
+					this.reach(to, distance, from, e, distance + this.heuristic(to));
+				}
+			}
+		}
+		return this.reached(target);
+	}
+
+	/**
+	 * Here we search from both the source and the target, always growing the side with the smaller key,
+	 * and keep the shortest path found through a Node reached by both. We can stop once the smallest keys of
+	 * both sides add up to at least that path.
+	 *
+	 * With A*, both sides use the same potential p(v) = (h_target(v) - h_source(v)) / 2, added for the forward
+	 * side and subtracted for the backward side, so that the keys of both sides stay comparable.
+	 */
+	private boolean bidirectional(int source, int target, boolean astar) {
+		this.begin(source, target, 0);
+		this.bidirectional = true;
+		this.backHeap.clear();
+
+		if (astar) {
+			// Potentials can only be found once the search has begun, so the source is keyed again.
+			this.heap.clear();
+			this.heap.offer(source, this.potential(source));
+		}
+
+		this.backStamp[target] = this.search;
+		this.backDistance[target] = 0;
+		this.next[target] = -1;
+		this.backEdge[target] = -1;
+		this.backHeap.offer(target, astar ? -this.potential(target) : 0);
+
+		if (source == target) {
+			this.meeting = source;
+			this.best = 0;
+			return true;
+		}
+
+		while (!this.heap.isEmpty() && !this.backHeap.isEmpty()) {
+			if (this.heap.peekKey() + this.backHeap.peekKey() >= this.best) {
+				break;
+			}
+
+			if (this.heap.peekKey() <= this.backHeap.peekKey()) {
+				int from = this.heap.poll();
+				double base = this.distance[from];
+				this.settled++;
+
+				for (int e = this.graph.first(from); e < this.graph.end(from); e++) {
+					int to = this.graph.target(e);
+					double distance = base + this.graph.weight(e);
+
+					this.relaxed++;
+					if (this.stamp[to] != this.search || distance < this.distance[to]) {
+						this.reach(to, distance, from, e, astar ? distance + this.potential(to) : distance);
+
+						if (this.backStamp[to] == this.search && distance + this.backDistance[to] < this.best) {
+							this.best = distance + this.backDistance[to];
+							this.meeting = to;
+						}
+					}
+				}
+			} else {
+				int to = this.backHeap.poll();
+				double base = this.backDistance[to];
+				this.settled++;
+
+				for (int in = this.graph.firstIn(to); in < this.graph.endIn(to); in++) {
+					int e = this.graph.inEdge(in), from = this.graph.source(in);
+					double distance = base + this.graph.weight(e);
+
+					this.relaxed++;
+					if (this.backStamp[from] != this.search || distance < this.backDistance[from]) {
+						this.backStamp[from] = this.search;
+						this.backDistance[from] = distance;
+						this.next[from] = to;
+						this.backEdge[from] = e;
+						this.backHeap.offer(from, astar ? distance - this.potential(from) : distance);
+
+						if (this.stamp[from] == this.search && distance + this.distance[from] < this.best) {
+							this.best = distance + this.distance[from];
+							this.meeting = from;
+						}
+					}
+				}
+			}
+		}
+		return this.meeting != -1;
+	}
+
+	/**
+	 * Here we run A* from the source to the target, never going through a banned Node or Edge (see ban), as the
+	 * spur searches of KShortestPaths do. Rather than the straight line distance, every Node is guided by its
+	 * exact distance to the target, as held by a ShortestPathTree to the target (see ShortestPathTree.to). Bans
+	 * only ever make paths longer, so that distance never overestimates, and the search settles little more than
+	 * the Nodes of the path it finds. Nodes that cannot reach the target at all are never reached.
+	 *
+	 * @param source id of the origin Node
+	 * @param target id of the destination Node
+	 * @param left ShortestPathTree to the target
+	 * @return true, if the target has been reached, false otherwise
+	 */
+	public boolean spur(int source, int target, ShortestPathTree left) {
+		if (this.banned == null) {
+			this.unban();
+		}
+		this.begin(source, target, left.distance(source));
+
+		while (!this.heap.isEmpty()) {
+			int from = this.heap.poll();
+			this.settled++;
+
+			if (from == target) {
+				return true;
+			}
+			double base = this.distance[from];
+
+			for (int e = this.graph.first(from); e < this.graph.end(from); e++) {
+				int to = this.graph.target(e);
+				if (this.bannedEdges[e] == this.bans || this.banned[to] == this.bans || !left.reached(to)) {
+					continue;
+				}
+				double distance = base + this.graph.weight(e);
+
+				this.relaxed++;
+				if (this.stamp[to] != this.search || distance < this.distance[to]) {
+					this.reach(to, distance, from, e, distance + left.distance(to));
+				}
+			}
+		}
+		return this.reached(target);
+	}
+
+	/**
+	 * Lift every ban, so that the next spur search may go through any Node and Edge.
+	 */
+	public void unban() {
+		if (this.banned == null) {
+			this.banned = new int[this.graph.size()];
+			this.bannedEdges = new int[this.graph.edges()];
+		}
+		if (++this.bans == 0) {
+			Arrays.fill(this.banned, 0);
+			Arrays.fill(this.bannedEdges, 0);
+			this.bans = 1;
+		}
+	}
+
+	/**
+	 * Keep the next spur searches from going through a Node, until unban.
+	 */
+	public void ban(int node) {
+		if (this.banned == null) {
+			this.unban();
+		}
+		this.banned[node] = this.bans;
+	}
+
+	/**
+	 * Keep the next spur searches from taking an Edge, until unban.
+	 */
+	public void banEdge(int edge) {
+		if (this.banned == null) {
+			this.unban();
+		}
+		this.bannedEdges[edge] = this.bans;
+	}
+
+	private void begin(int source, int target, double key) {
+		this.reset(source, target);
+		this.reach(source, 0, -1, -1, key);
+	}
+
+	private void reset(int source, int target) {
+		if (++this.search == 0) {
+			// Stamps have wrapped around, so old stamps could be mistaken for this search.
+			Arrays.fill(this.stamp, 0);
+			Arrays.fill(this.backStamp, 0);
+			Arrays.fill(this.potentialStamp, 0);
+			this.search = 1;
+		}
+		this.heap.clear();
+		this.settled = 0;
+		this.relaxed = 0;
+		this.source = source;
+		this.target = target;
+		this.meeting = -1;
+		this.best = Double.MAX_VALUE;
+		this.bidirectional = false;
+	}
+
+	private void reach(int node, double distance, int parent, int edge, double key) {
+		this.stamp[node] = this.search;
+		this.distance[node] = distance;
+		this.parent[node] = parent;
+		this.edge[node] = edge;
+		this.heap.offer(node, key);
+	}
+
+	/**
+	 * @return straight line distance from the Node to the target (see CompactGraph.bound)
+	 */
+	private double heuristic(int node) {
+		if (this.potentialStamp[node] != this.search) {
+			this.potentialStamp[node] = this.search;
+			this.potential[node] = this.graph.bound(node, this.target);
+		}
+		return this.potential[node];
+	}
+
+	/**
+	 * @return potential of the Node for a bidirectional A* search
+	 */
+	private double potential(int node) {
+		if (this.potentialStamp[node] != this.search) {
+			this.potentialStamp[node] = this.search;
+			this.potential[node] = (this.graph.bound(node, this.target) - this.graph.bound(node, this.source)) / 2;
+		}
+		return this.potential[node];
+	}
+
+	public CompactGraph graph() {
+		return this.graph;
+	}
+
+	/**
+	 * @return true, if the Node has been reached by the last search, false otherwise
+	 */
+	public boolean reached(int node) {
+		if (this.bidirectional && node == this.target) {
+			return this.meeting != -1;
+		}
+		return this.stamp[node] == this.search;
+	}
+
+	/**
+	 * @return distance from the source to the Node, or Double.MAX_VALUE if it has not been reached
+	 */
+	public double distance(int node) {
+		if (this.bidirectional && node == this.target) {
+			return this.best;
+		}
+		return this.reached(node) ? this.distance[node] : Double.MAX_VALUE;
+	}
+
+	/**
+	 * @return id of the Node we came from to reach the Node, or -1
+	 */
+	public int parent(int node) {
+		return this.stamp[node] == this.search ? this.parent[node] : -1;
+	}
+
+	/**
+	 * @return index of the Edge we took to reach the Node, or -1
+	 */
+	public int edge(int node) {
+		return this.stamp[node] == this.search ? this.edge[node] : -1;
+	}
+
+	public int source() {
+		return this.source;
+	}
+
+	/**
+	 * @return number of Nodes settled by the last search (by both sides, if bidirectional)
+	 */
+	public int settled() {
+		return this.settled;
+	}
+
+	/**
+	 * @return number of Edges relaxed by the last search
+	 */
+	public int relaxed() {
+		return this.relaxed;
+	}
+
+	/**
+	 * @return number of Nodes pushed into the heap by the last search (of both sides, if bidirectional)
+	 */
+	public int pushes() {
+		return this.heap.pushes() + (this.bidirectional ? this.backHeap.pushes() : 0);
+	}
+
+	/**
+	 * @return number of keys decreased within the heap by the last search, rather than Nodes pushed again
+	 */
+	public int decreases() {
+		return this.heap.decreases() + (this.bidirectional ? this.backHeap.decreases() : 0);
+	}
+
+	/**
+	 * Walk back from the target to the source of the last search. After a bidirectional search, we walk
+	 * back from where both sides met, then forward to the target.
+	 *
+	 * @return ids of the Nodes on the path, from source to target, or only the target if it has not been reached
+	 */
+	public int[] path(int target) {
+		if (!this.reached(target)) {
+			return new int[] { target };
+		}
+		int end = this.bidirectional && target == this.target ? this.meeting : target;
+
+		int length = 0;
+		for (int node = end; node != -1; node = this.parent[node]) {
+			length++;
+		}
+		int forward = length;
+		if (end != target) {
+			for (int node = this.next[end]; node != -1; node = this.next[node]) {
+				length++;
+			}
+		}
+
+		int[] path = new int[length];
+		int at = forward;
+		for (int node = end; node != -1; node = this.parent[node]) {
+			path[--at] = node;
+		}
+		if (end != target) {
+			at = forward;
+			for (int node = this.next[end]; node != -1; node = this.next[node]) {
+				path[at++] = node;
+			}
+		}
+		return path;
+	}
+}
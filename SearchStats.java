@@ -0,0 +1,62 @@
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * SearchStats holds what a search had to do to find its path, so that different ways of searching
+ * (see SearchEngine.Mode) can be compared.
+ */
+public class SearchStats {
+	private SearchEngine.Mode mode;
+	private int settled, relaxed, pushes, decreases;
+
+	/**
+	 * Store the stats of the last search of the engine.
+	 */
+	public void record(SearchEngine.Mode mode, SearchEngine engine) {
+		this.mode = mode;
+		this.settled = engine.settled();
+		this.relaxed = engine.relaxed();
+		this.pushes = engine.pushes();
+		this.decreases = engine.decreases();
+	}
+
+	public SearchEngine.Mode getMode() {
+		return this.mode;
+	}
+
+	/**
+	 * @return number of Nodes settled
+	 */
+	public int getSettled() {
+		return this.settled;
+	}
+
+	/**
+	 * @return number of Edges relaxed
+	 */
+	public int getRelaxed() {
+		return this.relaxed;
+	}
+
+	/**
+	 * @return number of Nodes pushed into the heap
+	 */
+	public int getPushes() {
+		return this.pushes;
+	}
+
+	/**
+	 * @return number of keys decreased within the heap (rather than Nodes pushed again)
+	 */
+	public int getDecreases() {
+		return this.decreases;
+	}
+
+	@Override
+	public String toString() {
+		return this.mode + ": " + this.settled + " settled, " + this.relaxed + " relaxed, " + this.pushes + " pushed, " + this.decreases + " decreased";
+	}
+}
@@ -0,0 +1,389 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * ServiceRules holds the compiled NOTES column of the stations csv file. Rather than having every
+ * Node re-parse its conditions each time a graph is generated, we parse every row once and store,
+ * for every service period, the trains that run at that station.
+ *
+ * Every condition within NOTES only ever looks at a handful of facts about the time (nights, rush hours,
+ * AM/PM, "exc nights") and the day type, so the day can be split into a few Windows in which every
+ * condition evaluates the same way. A service period is then just a Window and a DayType, and finding
+ * which trains run at a station is a table lookup.
+ */
+public class ServiceRules {
+	private static final Map<String, ServiceRules> COMPILED = new HashMap<>();
+
+	/**
+	 * The windows of time (in military standard, inclusive) in which every condition of the NOTES column
+	 * holds the same value.
+	 */
+	public enum Window {
+		EARLY_MORNING(0, 600), DAWN(601, 699), MORNING_RUSH(700, 1000), LATE_MORNING(1001, 1159),
+		AFTERNOON(1200, 1559), EVENING_RUSH(1600, 1959), RUSH_END(2000, 2000), NIGHT(2001, 2400);
+
+		private final int start, end;
+
+		Window(int start, int end) {
+			this.start = start;
+			this.end = end;
+		}
+
+		public int start() {
+			return this.start;
+		}
+		public int end() {
+			return this.end;
+		}
+
+		public static Window of(int time) {
+			for (Window window : values()) {
+				if (time <= window.end) {
+					return window;
+				}
+			}
+			return NIGHT;
+		}
+	}
+
+	/**
+	 * Number of service periods, one for each Window and DayType.
+	 */
+	public static final int PERIODS = Window.values().length * Day.DayType.values().length;
+
+	private final List<Station> stations;
+	private final LineCatalog catalog;
+	private final long length, modified;
+	private StationIndex index;
+	private StationRegistry registry;
+
+	private ServiceRules(List<Station> stations, LineCatalog catalog, long length, long modified) {
+		this.stations = Collections.unmodifiableList(stations);
+		this.catalog = catalog;
+		this.length = length;
+		this.modified = modified;
+	}
+
+	/**
+	 * Get the compiled rules of a stations csv file. A file is only read and compiled again once it has changed
+	 * (see current).
+	 *
+	 * @param file stations csv file
+	 * @return compiled ServiceRules
+	 * @throws IOException if the file cannot be read
+	 */
+	public static synchronized ServiceRules of(File file) throws IOException {
+		String key = file.getAbsolutePath();
+		ServiceRules rules = COMPILED.get(key);
+
+		if (rules == null || !rules.current(file)) {
+			rules = compile(file);
+			COMPILED.put(key, rules);
+		}
+		return rules;
+	}
+
+	/**
+	 * @param stations already compiled stations (e.g. loaded from a GraphSnapshot)
+	 * @param catalog LineCatalog the stations were compiled with
+	 * @param length length of the csv file the stations were compiled from
+	 * @param modified last modified time of the csv file the stations were compiled from
+	 * @return ServiceRules of the stations
+	 */
+	static ServiceRules of(List<Station> stations, LineCatalog catalog, long length, long modified) {
+		return new ServiceRules(stations, catalog, length, modified);
+	}
+
+	/**
+	 * @return true, if these rules were compiled from the csv file as it is now (or the csv file is gone), false
+	 * otherwise
+	 */
+	public boolean current(File file) {
+		return !file.isFile() || (file.length() == this.length && file.lastModified() == this.modified);
+	}
+
+	/**
+	 * @return length of the csv file, as it was before it was read
+	 */
+	long length() {
+		return this.length;
+	}
+
+	/**
+	 * @return last modified time of the csv file, as it was before it was read
+	 */
+	long modified() {
+		return this.modified;
+	}
+
+	/**
+	 * Here we read the csv file row by row (see CsvReader), then compile each row's conditions. Columns are
+	 * found by their names in the header, so their order within the file does not matter.
+	 *
+	 * @param file stations csv file
+	 * @return compiled ServiceRules
+	 * @throws IOException if the file cannot be read, or a row is malformed
+	 */
+	public static ServiceRules compile(File file) throws IOException {
+		List<Row> rows = new ArrayList<>();
+
+		/*
+		The file is stamped before it is read, so that if it changes while we read it, the stamp is already out of
+		date and the file is read again the next time (rather than the change going unseen).
+		 */
+		long length = file.length(), modified = file.lastModified();
+		Metrics.Span span = Metrics.begin(Metrics.Phase.PARSE);
+
+		try (CsvReader csv = CsvReader.open(file)) {
+			if (!csv.next()) {
+				throw new IOException(file.getPath() + " is empty.");
+			}
+			int name = column(csv, "NAME"), geometry = column(csv, "the_geom"), line = column(csv, "LINE"), notes = column(csv, "NOTES");
+			int columns = csv.fields();
+
+			while (csv.next()) {
+				if (csv.fields() == 1 && csv.length(0) == 0) {
+					continue;
+				}
+				if (csv.fields() != columns) {
+					throw csv.malformed("expected " + columns + " fields, found " + csv.fields());
+				}
+
+				/*
+				We'll just get purely numerical coordinates and ignore the unnecessary POINT(... stuff
+				 */
+				int open = csv.indexOf(geometry, '(', 0), separation = open < 0 ? -1 : csv.indexOf(geometry, ' ', open + 1);
+				int close = separation < 0 ? -1 : csv.indexOf(geometry, ')', separation + 1);
+
+				if (close < 0) {
+					throw csv.malformed("\"" + csv.string(geometry) + "\" is not a POINT");
+				}
+				double longitude = csv.number(geometry, open + 1, separation), latitude = csv.number(geometry, separation + 1, close);
+
+				rows.add(new Row(csv.string(name), csv.string(line).split("-"), longitude, latitude, csv.string(notes)));
+			}
+		}
+		Metrics.end(span);
+
+		span = Metrics.begin(Metrics.Phase.RULES);
+		List<Station> stations = new ArrayList<>(rows.size());
+		MetroGraph metro = new MetroGraph();
+
+		for (Row row : rows) {
+			stations.add(compile(metro, row.name(), row.connections(), row.longitude(), row.latitude(), row.notes()));
+		}
+		Metrics.end(span);
+		return new ServiceRules(stations, metro.catalog(), length, modified);
+	}
+
+	/**
+	 * A row of the csv file, as read.
+	 */
+	private record Row(String name, String[] connections, double longitude, double latitude, String notes) {}
+
+	/**
+	 * @return index of the column of a name within the header
+	 * @throws IOException if there is no such column
+	 */
+	private static int column(CsvReader header, String name) throws IOException {
+		for (int i = 0; i < header.fields(); i++) {
+			if (header.equals(i, name)) {
+				return i;
+			}
+		}
+		throw header.malformed("no " + name + " column");
+	}
+
+	/**
+	 * We compile a single row by evaluating its conditions once for every service period. Because every
+	 * condition is constant within a Window, the trains found at the Window's start are the trains
+	 * found at any time of that Window.
+	 */
+	private static Station compile(MetroGraph metro, String name, String[] connections, double longitude, double latitude, String notes) {
+		Map<MetroGraph.Train, Integer> periods = new LinkedHashMap<>();
+		Optional<String> lastStop = Optional.empty();
+
+		for (int period = 0; period < PERIODS; period++) {
+			int time = time(period);
+
+			MetroGraph.Node node = metro.new Node(name, connections, latitude, longitude, notes).applyFields(time, Time.rush(time), dayType(period)).build();
+			for (MetroGraph.Train train : node.getTrains()) {
+				periods.merge(train, 1 << period, (a, b) -> a | b);
+			}
+			lastStop = node.lastStop();
+		}
+
+		List<Rule> rules = new ArrayList<>();
+		periods.forEach((train, mask) -> rules.add(new Rule(train, mask)));
+
+		return new Station(name, connections, longitude, latitude, notes, lastStop, rules, metro.catalog());
+	}
+
+	/**
+	 * Find the service period of a time and day.
+	 *
+	 * @param time time in military standard
+	 * @param dayType type of day
+	 * @return service period
+	 */
+	public static int period(int time, Day.DayType dayType) {
+		return dayType.ordinal() * Window.values().length + Window.of(time).ordinal();
+	}
+	public static Window window(int period) {
+		return Window.values()[period % Window.values().length];
+	}
+	public static Day.DayType dayType(int period) {
+		return Day.DayType.values()[period / Window.values().length];
+	}
+
+	/**
+	 * @return a time that falls within the service period
+	 */
+	public static int time(int period) {
+		return window(period).start();
+	}
+
+	public List<Station> stations() {
+		return this.stations;
+	}
+
+	/**
+	 * @return LineCatalog of the trains of our stations, which is ours alone
+	 */
+	public LineCatalog catalog() {
+		return this.catalog;
+	}
+
+	/**
+	 * @return StationIndex of the names of our stations, built only once
+	 */
+	public synchronized StationIndex index() {
+		if (this.index == null) {
+			List<String> names = new ArrayList<>();
+			this.stations.forEach(station -> names.add(station.getName()));
+			this.index = new StationIndex(names);
+		}
+		return this.index;
+	}
+
+	/**
+	 * @return StationRegistry of our stations, built only once
+	 */
+	public synchronized StationRegistry registry() {
+		if (this.registry == null) {
+			this.registry = StationRegistry.of(this.stations);
+		}
+		return this.registry;
+	}
+
+	/**
+	 * A Rule is a single train that runs at a station, along with a mask of the service periods
+	 * in which it runs (bit n is set if the train runs in service period n).
+	 *
+	 * @param train
+	 * @param periods
+	 */
+	record Rule(MetroGraph.Train train, int periods) {
+		public boolean runs(int period) {
+			return (this.periods >>> period & 1) != 0;
+		}
+		public boolean runs(Day.DayType dayType) {
+			int windows = Window.values().length;
+			return (this.periods >>> dayType.ordinal() * windows & (1 << windows) - 1) != 0;
+		}
+	}
+
+	/**
+	 * A Station is a single compiled row of the csv file. We store its rules as well as a table
+	 * of the trains that run in each service period, and their lines, as masks (see LineCatalog).
+	 */
+	static class Station {
+		private final String name;
+		private final String[] connections;
+		private final double longitude, latitude;
+		private final String notes;
+		private final Optional<String> lastStop;
+
+		private final List<Rule> rules;
+		private final LineCatalog catalog;
+		private final long[][] trains = new long[PERIODS][], lines = new long[PERIODS][];
+
+		public Station(String name, String[] connections, double longitude, double latitude, String notes, Optional<String> lastStop, List<Rule> rules, LineCatalog catalog) {
+			this.name = name;
+			this.connections = connections;
+			this.longitude = longitude;
+			this.latitude = latitude;
+			this.notes = notes;
+			this.lastStop = lastStop;
+			this.rules = Collections.unmodifiableList(rules);
+			this.catalog = catalog;
+
+			Arrays.fill(this.trains, LineCatalog.NONE);
+			Arrays.fill(this.lines, LineCatalog.NONE);
+			for (Rule rule : rules) {
+				int id = catalog.id(rule.train());
+				for (int period = 0; period < PERIODS; period++) {
+					if (rule.runs(period)) {
+						this.trains[period] = LineCatalog.with(this.trains[period], id);
+						this.lines[period] = LineCatalog.with(this.lines[period], catalog.line(id));
+					}
+				}
+			}
+		}
+
+		public String getName() {
+			return this.name;
+		}
+		public String[] getConnections() {
+			return this.connections;
+		}
+		public double getLongitude() {
+			return this.longitude;
+		}
+		public double getLatitude() {
+			return this.latitude;
+		}
+		public String getNotes() {
+			return this.notes;
+		}
+		public Optional<String> lastStop() {
+			return this.lastStop;
+		}
+		public List<Rule> getRules() {
+			return this.rules;
+		}
+		public LineCatalog catalog() {
+			return this.catalog;
+		}
+
+		/**
+		 * @param period service period
+		 * @return mask of the trains that run at this station within the service period, not to be changed
+		 */
+		public long[] trains(int period) {
+			return this.trains[period];
+		}
+
+		/**
+		 * @param period service period
+		 * @return mask of the lines of the trains that run at this station within the service period, not to be changed
+		 */
+		public long[] lines(int period) {
+			return this.lines[period];
+		}
+	}
+}
@@ -0,0 +1,292 @@
+import java.util.Arrays;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * ShortestPathTree holds every shortest path from a single origin, as found by a one-to-all search: the
+ * distance to every Node, and the Node we came from to reach it. Unlike a SearchEngine, a tree does not
+ * change once built, so it can be kept and shared.
+ *
+ * A tree may also be of every shortest path to a single destination (see to), found by searching backwards over
+ * reversed Edges: the distance from every Node to the destination, and the Node after it on its way there. Our
+ * Edges need not run both ways for either.
+ *
+ * When Edges of the graph are removed or added (see CompactGraph.change), a tree can be repaired rather than
+ * searched again from scratch, which only searches the part of the tree that has changed.
+ */
+public class ShortestPathTree {
+	private final CompactGraph graph;
+	private final int source;
+	private final double[] distance;
+	private final int[] parent;
+	private final boolean reversed;
+
+	/**
+	 * Copy the tree found by the last search of the engine, which must have been run without a target.
+	 *
+	 * @param engine SearchEngine after a one-to-all search
+	 */
+	public ShortestPathTree(SearchEngine engine) {
+		this(engine, false);
+	}
+
+	/**
+	 * @param reversed true, if the engine searched backwards to its source (see SearchEngine.searchTo)
+	 */
+	private ShortestPathTree(SearchEngine engine, boolean reversed) {
+		CompactGraph graph = engine.graph();
+
+		this.graph = graph;
+		this.source = engine.source();
+		this.reversed = reversed;
+		this.distance = new double[graph.size()];
+		this.parent = new int[graph.size()];
+
+		for (int node = 0; node < graph.size(); node++) {
+			this.distance[node] = engine.distance(node);
+			this.parent[node] = engine.parent(node);
+		}
+	}
+
+	private ShortestPathTree(CompactGraph graph, int source, double[] distance, int[] parent) {
+		this.graph = graph;
+		this.source = source;
+		this.distance = distance;
+		this.parent = parent;
+		this.reversed = false;
+	}
+
+	/**
+	 * Run a one-to-all search from the origin.
+	 *
+	 * @param graph CompactGraph to search
+	 * @param source id of the origin Node
+	 * @return ShortestPathTree of the origin
+	 */
+	public static ShortestPathTree of(CompactGraph graph, int source) {
+		SearchEngine engine = graph.acquire();
+		try {
+			engine.search(source, -1);
+			return new ShortestPathTree(engine);
+		} finally {
+			graph.release(engine);
+		}
+	}
+
+	/**
+	 * Run a one-to-all search backwards from the destination, over reversed Edges.
+	 *
+	 * @param graph CompactGraph to search
+	 * @param target id of the destination Node
+	 * @return ShortestPathTree to the destination, whose source() is the destination
+	 */
+	public static ShortestPathTree to(CompactGraph graph, int target) {
+		SearchEngine engine = graph.acquire();
+		try {
+			engine.searchTo(target);
+			return new ShortestPathTree(engine, true);
+		} finally {
+			graph.release(engine);
+		}
+	}
+
+	/**
+	 * Here we repair this tree for a graph changed from ours, given the Nodes of every Edge that was removed or
+	 * added. Node ids must be the same within both graphs.
+	 *
+	 * A Node reached through an Edge that is gone loses its distance, along with every Node below it within the
+	 * tree, as their paths all ran through that Edge. Every such Node begins again from the closest Node reaching
+	 * it that kept its distance, and every Node at the end of an added Edge begins from the distance through it, if
+	 * shorter. A Dijkstra search from those Nodes then settles only what has changed: distances of Nodes that lost
+	 * nothing are still shortest, unless an added Edge leads to a shorter path, which the search finds.
+	 *
+	 * @param graph CompactGraph as changed
+	 * @param from Nodes every removed or added Edge goes from
+	 * @param to Nodes every removed or added Edge goes to
+	 * @param count number of Edges removed or added
+	 * @return ShortestPathTree of the origin within the changed graph
+	 */
+	public ShortestPathTree repair(CompactGraph graph, int[] from, int[] to, int count) {
+		int size = graph.size();
+		if (this.reversed) {
+			return to(graph, this.source); // Only trees from an origin are repaired, trees to a destination are searched again.
+		}
+		if (size != this.graph.size()) {
+			return of(graph, this.source);
+		}
+		double[] distance = Arrays.copyOf(this.distance, size);
+		int[] parent = Arrays.copyOf(this.parent, size);
+		boolean[] lost = new boolean[size];
+		int[] stack = new int[size];
+		int top = 0;
+
+		for (int i = 0; i < count; i++) {
+			int u = from[i], v = to[i];
+			if (parent[v] == u && !lost[v] && !this.kept(graph, u, v, distance)) {
+				lost[v] = true;
+				stack[top++] = v;
+			}
+		}
+
+		// Every Node below a Node that lost its distance loses it too.
+		if (top > 0) {
+			int[] first = new int[size + 1], children = new int[size];
+			for (int node = 0; node < size; node++) {
+				if (parent[node] != -1) {
+					first[parent[node] + 1]++;
+				}
+			}
+			for (int node = 0; node < size; node++) {
+				first[node + 1] += first[node];
+			}
+			int[] next = Arrays.copyOf(first, size);
+			for (int node = 0; node < size; node++) {
+				if (parent[node] != -1) {
+					children[next[parent[node]]++] = node;
+				}
+			}
+
+			int[] affected = new int[size];
+			int found = 0;
+			while (top > 0) {
+				int node = stack[--top];
+				affected[found++] = node;
+				distance[node] = Double.MAX_VALUE;
+				parent[node] = -1;
+
+				for (int c = first[node]; c < first[node + 1]; c++) {
+					if (!lost[children[c]]) {
+						lost[children[c]] = true;
+						stack[top++] = children[c];
+					}
+				}
+			}
+			stack = Arrays.copyOf(affected, found);
+			top = found;
+		}
+
+		IndexedHeap heap = new IndexedHeap(size);
+
+		for (int i = 0; i < top; i++) {
+			int node = stack[i];
+			for (int in = graph.firstIn(node); in < graph.endIn(node); in++) {
+				int source = graph.source(in);
+				if (!lost[source] && distance[source] != Double.MAX_VALUE) {
+					double through = distance[source] + graph.weight(graph.inEdge(in));
+					if (through < distance[node]) {
+						distance[node] = through;
+						parent[node] = source;
+					}
+				}
+			}
+			if (distance[node] != Double.MAX_VALUE) {
+				heap.offer(node, distance[node]);
+			}
+		}
+		for (int i = 0; i < count; i++) {
+			int u = from[i], v = to[i], e = graph.edge(u, v);
+			if (e != -1 && distance[u] != Double.MAX_VALUE && distance[u] + graph.weight(e) < distance[v]) {
+				distance[v] = distance[u] + graph.weight(e);
+				parent[v] = u;
+				heap.offer(v, distance[v]);
+			}
+		}
+
+		while (!heap.isEmpty()) {
+			int node = heap.poll();
+			double base = distance[node];
+
+			for (int e = graph.first(node); e < graph.end(node); e++) {
+				int target = graph.target(e);
+				double through = base + graph.weight(e);
+				if (through < distance[target]) {
+					distance[target] = through;
+					parent[target] = node;
+					heap.offer(target, through);
+				}
+			}
+		}
+		return new ShortestPathTree(graph, this.source, distance, parent);
+	}
+
+	/**
+	 * @return true, if the changed graph still has an Edge from u to v as short as the one our tree took
+	 */
+	private boolean kept(CompactGraph graph, int u, int v, double[] distance) {
+		for (int e = graph.first(u); e < graph.end(u); e++) {
+			if (graph.target(e) == v && distance[u] + graph.weight(e) <= distance[v]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public CompactGraph graph() {
+		return this.graph;
+	}
+	public int source() {
+		return this.source;
+	}
+
+	/**
+	 * @return true, if this is a tree to a destination (see to), rather than from an origin
+	 */
+	public boolean reversed() {
+		return this.reversed;
+	}
+
+	/**
+	 * @return distance from the origin to the Node (or from the Node to the destination, if reversed), or
+	 * Double.MAX_VALUE if it cannot be reached
+	 */
+	public double distance(int node) {
+		return this.distance[node];
+	}
+	public boolean reached(int node) {
+		return this.distance[node] != Double.MAX_VALUE;
+	}
+
+	/**
+	 * @return id of the Node we came from to reach the Node (or the Node after it, if reversed), or -1 for the
+	 * origin and unreached Nodes
+	 */
+	public int parent(int node) {
+		return this.parent[node];
+	}
+
+	/**
+	 * @return ids of the Nodes on the path from the origin to the Node (or from the Node to the destination, if
+	 * reversed), or only the Node if it cannot be reached
+	 */
+	public int[] path(int target) {
+		if (!this.reached(target)) {
+			return new int[] { target };
+		}
+		int length = 0;
+		for (int node = target; node != -1; node = this.parent[node]) {
+			length++;
+		}
+
+		int[] path = new int[length];
+		int at = this.reversed ? 0 : length;
+		for (int node = target; node != -1; node = this.parent[node]) {
+			if (this.reversed) {
+				path[at++] = node;
+			} else {
+				path[--at] = node;
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * @return distances to every Node, indexed by id
+	 */
+	public double[] distances() {
+		return Arrays.copyOf(this.distance, this.distance.length);
+	}
+}
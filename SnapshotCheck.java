@@ -0,0 +1,148 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * SnapshotCheck checks that a graph built from a GraphSnapshot is the graph built from the csv file itself, for every
+ * service period: the same Nodes (names, coordinates, trains and last stops, in the same order), and the same Edges,
+ * with the same lines and weights. It also checks that snapshots which are cut short, of another version or not
+ * snapshots at all are rejected when loaded, rather than read into a broken graph.
+ *
+ * The snapshot is written to (and read from) a temporary file, so that the snapshot next to the csv file is left as
+ * it is.
+ *
+ * Usage: java SnapshotCheck [csv file]
+ *
+ * Every mismatch is reported (up to MISMATCHES of them), and we exit with 1 if there are any.
+ */
+public class SnapshotCheck {
+	/**
+	 * Most mismatches we report before we only count them.
+	 */
+	public static final int MISMATCHES = 20;
+
+	private static int mismatches;
+
+	public static void main(String[] args) throws IOException {
+		File csv = new File(args.length > 0 ? args[0] : "mta_stations.csv");
+		File file = File.createTempFile("snapshot", ".snapshot");
+		file.deleteOnExit();
+
+		ServiceRules rules = ServiceRules.compile(csv);
+		GraphSnapshot.compile(csv).write(file);
+		GraphSnapshot snapshot = GraphSnapshot.load(file);
+		MetroGraph metro = new MetroGraph();
+		int edges = 0;
+
+		for (int period = 0; period < ServiceRules.PERIODS; period++) {
+			int time = ServiceRules.time(period);
+			Day.DayType dayType = ServiceRules.dayType(period);
+			String name = ServiceRules.window(period) + " " + dayType;
+
+			// As generateGraph did before snapshots, every line is ordered again and its Edges built from scratch.
+			MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> built = metro.new Graph<>(new HashSet<>(), new HashSet<>());
+			List<MetroGraph.Node> builtNodes = metro.buildNodes(rules, time, dayType);
+			builtNodes.forEach(built::addNode);
+			metro.buildEdges(built, builtNodes);
+
+			MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> loaded = metro.new Graph<>(new HashSet<>(), new HashSet<>());
+			List<MetroGraph.Node> loadedNodes = metro.buildNodes(snapshot.rules(), time, dayType);
+			loadedNodes.forEach(loaded::addNode);
+			snapshot.connect(loaded, loadedNodes, period);
+
+			if (builtNodes.size() != loadedNodes.size()) {
+				mismatch(name + ": " + builtNodes.size() + " Nodes built, " + loadedNodes.size() + " loaded");
+				continue;
+			}
+			for (int i = 0; i < builtNodes.size(); i++) {
+				String node = node(builtNodes.get(i)), other = node(loadedNodes.get(i));
+				if (!node.equals(other)) {
+					mismatch(name + ": Node " + i + " built as " + node + ", loaded as " + other);
+				}
+			}
+
+			List<String> builtEdges = edges(built), loadedEdges = edges(loaded);
+			edges += builtEdges.size();
+			if (!builtEdges.equals(loadedEdges)) {
+				List<String> missing = new ArrayList<>(builtEdges), extra = new ArrayList<>(loadedEdges);
+				missing.removeAll(loadedEdges);
+				extra.removeAll(builtEdges);
+				mismatch(name + ": " + builtEdges.size() + " Edges built, " + loadedEdges.size() + " loaded, missing " + missing + ", extra " + extra);
+			}
+		}
+		System.out.println(ServiceRules.PERIODS + " service periods of " + rules.stations().size() + " stations and " + edges + " Edges checked.");
+
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		for (int length : new int[] { 0, 4, 12, bytes.length / 4, bytes.length / 2, bytes.length - 4, bytes.length - 1 }) {
+			rejected("cut short to " + length + " bytes", Arrays.copyOf(bytes, length), file);
+		}
+		ByteBuffer version = ByteBuffer.wrap(bytes.clone());
+		version.putInt(4, GraphSnapshot.VERSION + 1);
+		rejected("of version " + (GraphSnapshot.VERSION + 1), version.array(), file);
+
+		ByteBuffer magic = ByteBuffer.wrap(bytes.clone());
+		magic.putInt(0, 0);
+		rejected("without MAGIC", magic.array(), file);
+
+		System.out.println(mismatches + " mismatches.");
+		if (mismatches > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * @return everything a graph holds of a Node, as a String
+	 */
+	private static String node(MetroGraph.Node node) {
+		List<String> trains = new ArrayList<>();
+		node.getTrains().forEach(train -> trains.add(train.toString()));
+		trains.sort(null);
+
+		return node.getStation() + " " + node.getLatitude() + " " + node.getLongitude() + " " + trains + " " + node.lastStop();
+	}
+
+	/**
+	 * @return every Edge of a graph (by the ids of its Nodes, its line and its weight), sorted
+	 */
+	private static List<String> edges(MetroGraph.Graph<MetroGraph.Node, MetroGraph.Edge> graph) {
+		List<String> edges = new ArrayList<>();
+		for (MetroGraph.Edge edge : graph.getEdges()) {
+			edges.add(String.format(Locale.ROOT, "%d -> %d %s %s", edge.from().id(), edge.to().id(), edge.line(), Double.toString(edge.weight())));
+		}
+		edges.sort(null);
+		return edges;
+	}
+
+	/**
+	 * Check that a broken snapshot is rejected when loaded, with an IOException.
+	 */
+	private static void rejected(String name, byte[] bytes, File file) throws IOException {
+		Files.write(file.toPath(), bytes);
+		try {
+			GraphSnapshot.load(file);
+			mismatch("A snapshot " + name + " is loaded");
+		} catch (IOException e) {
+			System.out.println("A snapshot " + name + " is rejected: " + e.getMessage());
+		} catch (RuntimeException e) {
+			mismatch("A snapshot " + name + " throws " + e);
+		}
+	}
+
+	private static void mismatch(String message) {
+		if (++mismatches <= MISMATCHES) {
+			System.out.println(message);
+		}
+	}
+}
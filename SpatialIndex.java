@@ -0,0 +1,355 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * SpatialIndex is a k-d tree over the coordinates of our Nodes, so that finding the stations near a point
+ * does not mean measuring the distance to every station.
+ *
+ * Latitudes and longitudes are turned into points on a unit sphere (x, y, z). The straight line (chord) between
+ * two such points only grows with the distance along the Earth's surface between them, so a k-d tree on these
+ * points can prune by plain Euclidean distance, with no trouble at the poles or where longitudes wrap around.
+ *
+ * The tree is stored within arrays: the Node at the middle of a range splits it, with the Nodes before it on one
+ * side of its axis and the Nodes after it on the other.
+ */
+public class SpatialIndex {
+	private final MetroGraph.Node[] nodes;
+	private final CompactGraph graph;
+	private final Haversine haversine;
+
+	// Id of the Node at every position of the tree, its point and the axis it splits on.
+	private final int[] order;
+	private final double[][] points;
+	private final byte[] axes;
+
+	private SpatialIndex(MetroGraph.Node[] nodes, CompactGraph graph) {
+		int size = nodes.length;
+
+		this.nodes = nodes;
+		this.graph = graph;
+		this.haversine = graph == null ? Haversine.of(nodes) : graph.haversine();
+		this.order = new int[size];
+		this.points = new double[3][size];
+		this.axes = new byte[size];
+
+		for (int i = 0; i < size; i++) {
+			double[] point = point(nodes[i].getLatitude(), nodes[i].getLongitude());
+
+			this.order[i] = i;
+			for (int axis = 0; axis < 3; axis++) {
+				this.points[axis][i] = point[axis];
+			}
+		}
+		this.build(0, size);
+	}
+
+	/**
+	 * @param nodes Nodes to index, whose ids are their positions in the List
+	 * @return SpatialIndex of the Nodes
+	 */
+	public static SpatialIndex of(List<? extends MetroGraph.Node> nodes) {
+		return new SpatialIndex(nodes.toArray(new MetroGraph.Node[0]), null);
+	}
+
+	/**
+	 * @param graph CompactGraph whose Nodes to index, by their ids within the graph
+	 * @return SpatialIndex of the Nodes of the graph
+	 */
+	public static SpatialIndex of(CompactGraph graph) {
+		MetroGraph.Node[] nodes = new MetroGraph.Node[graph.size()];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = graph.node(i);
+		}
+		return new SpatialIndex(nodes, graph);
+	}
+
+	/**
+	 * Here we split the range on the axis its points are most spread along, with the median point in the
+	 * middle of the range (found by quickselect), then split both sides the same way.
+	 */
+	private void build(int from, int to) {
+		while (to - from > 1) {
+			int axis = 0;
+			double spread = -1;
+
+			for (int a = 0; a < 3; a++) {
+				double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+				for (int i = from; i < to; i++) {
+					min = Math.min(min, this.points[a][i]);
+					max = Math.max(max, this.points[a][i]);
+				}
+				if (max - min > spread) {
+					spread = max - min;
+					axis = a;
+				}
+			}
+
+			int middle = (from + to) >>> 1;
+			this.select(from, to - 1, middle, this.points[axis]);
+			this.axes[middle] = (byte) axis;
+
+			this.build(from, middle);
+			from = middle + 1;
+		}
+	}
+
+	private void select(int low, int high, int k, double[] values) {
+		while (low < high) {
+			double pivot = values[(low + high) >>> 1];
+			int i = low, j = high;
+
+			while (i <= j) {
+				while (values[i] < pivot) i++;
+				while (values[j] > pivot) j--;
+				if (i <= j) {
+					this.swap(i++, j--);
+				}
+			}
+			if (k <= j) {
+				high = j;
+			} else if (k >= i) {
+				low = i;
+			} else {
+				return;
+			}
+		}
+	}
+
+	private void swap(int i, int j) {
+		int id = this.order[i];
+		this.order[i] = this.order[j];
+		this.order[j] = id;
+
+		for (double[] values : this.points) {
+			double value = values[i];
+			values[i] = values[j];
+			values[j] = value;
+		}
+	}
+
+	private static double[] point(double latitude, double longitude) {
+		double lat = Math.toRadians(latitude), lon = Math.toRadians(longitude);
+		return new double[] { Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat) };
+	}
+
+	/**
+	 * @return the chord (squared) on a unit sphere of a distance in km along the Earth's surface
+	 */
+	private static double chord(double distance) {
+		double chord = 2 * Math.sin(Math.min(distance / MetroGraph.EARTH_RADIUS, Math.PI) / 2);
+		return chord * chord;
+	}
+
+	private double chord(int position, double[] point) {
+		double x = this.points[0][position] - point[0], y = this.points[1][position] - point[1], z = this.points[2][position] - point[2];
+		return x * x + y * y + z * z;
+	}
+
+	/**
+	 * Find the k Nodes closest to a point.
+	 *
+	 * @param latitude
+	 * @param longitude
+	 * @param k number of Nodes to find
+	 * @return ids of the (at most) k closest Nodes, closest first
+	 */
+	public int[] nearest(double latitude, double longitude, int k) {
+		k = Math.min(k, this.nodes.length);
+		if (k <= 0) {
+			return new int[0];
+		}
+		Nearest nearest = new Nearest(point(latitude, longitude), k);
+		nearest.search(0, this.nodes.length);
+		return nearest.sorted();
+	}
+
+	/**
+	 * @return id of the Node closest to a point, or -1 if there are no Nodes
+	 */
+	public int nearest(double latitude, double longitude) {
+		int[] nearest = this.nearest(latitude, longitude, 1);
+		return nearest.length == 0 ? -1 : nearest[0];
+	}
+
+	/**
+	 * Find every Node within a distance of a point.
+	 *
+	 * @param latitude
+	 * @param longitude
+	 * @param distance in km
+	 * @return ids of the Nodes within the distance, in order of id
+	 */
+	public int[] within(double latitude, double longitude, double distance) {
+		double[] point = point(latitude, longitude);
+		// We allow a little more than the chord, as the exact distances are measured afterwards.
+		double chord = chord(distance) * (1 + 1e-9) + 1e-18;
+
+		int[] found = new int[16];
+		int count = 0;
+
+		int[] stack = new int[128];
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = this.nodes.length;
+
+		while (top > 0) {
+			int to = stack[--top], from = stack[--top];
+			if (from >= to) {
+				continue;
+			}
+			int middle = (from + to) >>> 1, axis = this.axes[middle];
+
+			if (this.chord(middle, point) <= chord) {
+				if (count == found.length) {
+					found = Arrays.copyOf(found, count * 2);
+				}
+				found[count++] = this.order[middle];
+			}
+
+			double difference = point[axis] - this.points[axis][middle];
+			if (top + 4 > stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			if (difference <= 0 || difference * difference <= chord) {
+				stack[top++] = from;
+				stack[top++] = middle;
+			}
+			if (difference >= 0 || difference * difference <= chord) {
+				stack[top++] = middle + 1;
+				stack[top++] = to;
+			}
+		}
+
+		// Every Node close enough by chord is then measured exactly, all at once.
+		double[] distances = new double[count];
+		this.haversine.distances(latitude, longitude, found, count, distances);
+
+		int kept = 0;
+		for (int i = 0; i < count; i++) {
+			if (distances[i] <= distance) {
+				found[kept++] = found[i];
+			}
+		}
+		int[] within = Arrays.copyOf(found, kept);
+		Arrays.sort(within);
+		return within;
+	}
+
+	/**
+	 * @return ids of every Node within a distance of a Node (the Node itself included), in order of id
+	 */
+	public int[] within(int id, double distance) {
+		return this.within(this.nodes[id].getLatitude(), this.nodes[id].getLongitude(), distance);
+	}
+
+	/**
+	 * @return distance in km between a Node and a point
+	 */
+	public double distance(int id, double latitude, double longitude) {
+		return this.haversine.distance(latitude, longitude, id);
+	}
+
+	public MetroGraph.Node node(int id) {
+		return this.nodes[id];
+	}
+
+	public int size() {
+		return this.nodes.length;
+	}
+
+	/**
+	 * @return the CompactGraph whose Nodes were indexed, or null if the Nodes were given as a List
+	 */
+	public CompactGraph graph() {
+		return this.graph;
+	}
+
+	/**
+	 * A k-nearest search, keeping the k closest Nodes found so far in a max-heap by chord, so that
+	 * the farthest of them (the one to beat) is always on top.
+	 */
+	private class Nearest {
+		private final double[] point;
+		private final int[] ids;
+		private final double[] chords;
+		private int size;
+
+		Nearest(double[] point, int k) {
+			this.point = point;
+			this.ids = new int[k];
+			this.chords = new double[k];
+		}
+
+		void search(int from, int to) {
+			if (from >= to) {
+				return;
+			}
+			int middle = (from + to) >>> 1, axis = axes[middle];
+			this.offer(order[middle], chord(middle, this.point));
+
+			double difference = this.point[axis] - points[axis][middle];
+			if (difference <= 0) {
+				this.search(from, middle);
+				if (this.size < this.ids.length || difference * difference < this.chords[0]) {
+					this.search(middle + 1, to);
+				}
+			} else {
+				this.search(middle + 1, to);
+				if (this.size < this.ids.length || difference * difference < this.chords[0]) {
+					this.search(from, middle);
+				}
+			}
+		}
+
+		private void offer(int id, double chord) {
+			if (this.size < this.ids.length) {
+				int i = this.size++;
+				while (i > 0 && this.chords[(i - 1) / 2] < chord) {
+					this.ids[i] = this.ids[(i - 1) / 2];
+					this.chords[i] = this.chords[(i - 1) / 2];
+					i = (i - 1) / 2;
+				}
+				this.ids[i] = id;
+				this.chords[i] = chord;
+			} else if (chord < this.chords[0]) {
+				this.sift(id, chord, this.size);
+			}
+		}
+
+		/**
+		 * Put a Node on top of the heap (in place of the farthest) and sift it down.
+		 */
+		private void sift(int id, double chord, int size) {
+			int i = 0;
+			while (2 * i + 1 < size) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && this.chords[child + 1] > this.chords[child]) {
+					child++;
+				}
+				if (this.chords[child] <= chord) {
+					break;
+				}
+				this.ids[i] = this.ids[child];
+				this.chords[i] = this.chords[child];
+				i = child;
+			}
+			this.ids[i] = id;
+			this.chords[i] = chord;
+		}
+
+		int[] sorted() {
+			int[] sorted = new int[this.size];
+			for (int size = this.size; size > 0; size--) {
+				sorted[size - 1] = this.ids[0];
+				this.sift(this.ids[size - 1], this.chords[size - 1], size - 1);
+			}
+			return sorted;
+		}
+	}
+}
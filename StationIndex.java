@@ -0,0 +1,262 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * StationIndex is an index of station names, built once for every set of stations, that lets us look up
+ * station names without going through the graph.
+ *
+ * Names are normalized first (lower case, no punctuation, "86th" becomes "86", "Avenue" and "Av" become "ave"
+ * and so on), so that "86 St" finds "86th St". Normalized names are then stored within a HashMap for exact lookups,
+ * a prefix trie (from the start of every word) for autocomplete, and an index of trigrams for fuzzy matching.
+ */
+public class StationIndex {
+	private static final Map<String, String> ABBREVIATIONS = Map.ofEntries(
+			Map.entry("avenue", "ave"), Map.entry("av", "ave"), Map.entry("avs", "aves"), Map.entry("avenues", "aves"),
+			Map.entry("street", "st"), Map.entry("streets", "sts"), Map.entry("road", "rd"), Map.entry("boulevard", "blvd"),
+			Map.entry("parkway", "pkwy"), Map.entry("pky", "pkwy"), Map.entry("square", "sq"), Map.entry("place", "pl"),
+			Map.entry("highway", "hwy"), Map.entry("center", "ctr"), Map.entry("centre", "ctr"), Map.entry("and", "&"));
+
+	private final String[] names;
+	private final Map<String, Integer> exact = new HashMap<>();
+	private final Trie trie = new Trie();
+	private final Map<String, int[]> trigrams = new HashMap<>();
+	private final int[] gramCounts;
+
+	/**
+	 * @param names names of stations, duplicates are only stored once
+	 */
+	public StationIndex(Collection<String> names) {
+		this.names = new LinkedHashSet<>(names).toArray(new String[0]);
+		this.gramCounts = new int[this.names.length];
+
+		String[] normalized = new String[this.names.length];
+		Map<String, List<Integer>> grams = new LinkedHashMap<>();
+
+		for (int i = 0; i < this.names.length; i++) {
+			normalized[i] = normalize(this.names[i]);
+			this.exact.putIfAbsent(normalized[i], i);
+
+			Set<String> own = trigrams(normalized[i]);
+			this.gramCounts[i] = own.size();
+			for (String gram : own) {
+				grams.computeIfAbsent(gram, g -> new ArrayList<>()).add(i);
+			}
+		}
+		grams.forEach((gram, ids) -> this.trigrams.put(gram, ids.stream().mapToInt(Integer::intValue).toArray()));
+
+		/*
+		Names are stored within the trie from the start of each of their words. Whole names are inserted first
+		(shortest first), so that completions of the start of a name rank before completions of a later word.
+		 */
+		Integer[] order = new Integer[this.names.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> normalized[a].length() != normalized[b].length() ? normalized[a].length() - normalized[b].length() : normalized[a].compareTo(normalized[b]));
+
+		for (int i : order) {
+			this.trie.insert(normalized[i], i);
+		}
+		for (int i : order) {
+			for (int at = normalized[i].indexOf(' '); at != -1; at = normalized[i].indexOf(' ', at + 1)) {
+				this.trie.insert(normalized[i].substring(at + 1), i);
+			}
+		}
+		this.trie.compile();
+	}
+
+	/**
+	 * We bring names to a single form so that different spellings of the same name compare equal.
+	 *
+	 * @param name station name or query
+	 * @return normalized name
+	 */
+	public static String normalize(String name) {
+		StringBuilder builder = new StringBuilder(name.length());
+		StringBuilder word = new StringBuilder();
+
+		for (int i = 0; i <= name.length(); i++) {
+			char c = i < name.length() ? Character.toLowerCase(name.charAt(i)) : ' ';
+
+			if (Character.isLetterOrDigit(c) || c == '&') {
+				word.append(c);
+			} else if (c != '\'' && word.length() > 0) {
+				String token = word.toString();
+				word.setLength(0);
+
+				// Ordinals such as 86th, 1st, 2nd and 3rd lose their suffix.
+				if (ordinal(token)) {
+					token = token.substring(0, token.length() - 2);
+				}
+				token = ABBREVIATIONS.getOrDefault(token, token);
+
+				if (builder.length() > 0) {
+					builder.append(' ');
+				}
+				builder.append(token);
+			}
+		}
+		return builder.toString();
+	}
+
+	private static boolean ordinal(String token) {
+		int digits = token.length() - 2;
+		if (digits < 1) {
+			return false;
+		}
+		for (int i = 0; i < digits; i++) {
+			if (!Character.isDigit(token.charAt(i))) {
+				return false;
+			}
+		}
+		String suffix = token.substring(digits);
+		return suffix.equals("st") || suffix.equals("nd") || suffix.equals("rd") || suffix.equals("th");
+	}
+
+	private static Set<String> trigrams(String normalized) {
+		String padded = "  " + normalized + " ";
+		Set<String> grams = new LinkedHashSet<>();
+
+		for (int i = 0; i + 3 <= padded.length(); i++) {
+			grams.add(padded.substring(i, i + 3));
+		}
+		return grams;
+	}
+
+	/**
+	 * Look up a station by its name (after normalization).
+	 *
+	 * @param query station name
+	 * @return name of the station as stored, if found
+	 */
+	public Optional<String> lookup(String query) {
+		Integer id = this.exact.get(normalize(query));
+		return id == null ? Optional.empty() : Optional.of(this.names[id]);
+	}
+
+	/**
+	 * Look up a station by its name, or throw an error that suggests the closest names.
+	 *
+	 * @param query station name
+	 * @return name of the station as stored
+	 * @throws NoSuchElementException if no station has this name
+	 */
+	public String resolve(String query) throws NoSuchElementException {
+		Optional<String> found = this.lookup(query);
+		if (found.isPresent()) {
+			return found.get();
+		}
+
+		List<String> suggestions = this.search(query, 3);
+		throw new NoSuchElementException("Invalid station \"" + query + "\"." + (suggestions.isEmpty() ? "" : " Did you mean: " + String.join(", ", suggestions) + "?"));
+	}
+
+	/**
+	 * Autocomplete a station name from the start of any of its words.
+	 *
+	 * @param prefix start of a station name, or of any word within it
+	 * @param limit most names to return
+	 * @return station names, whole name matches first
+	 */
+	public List<String> complete(String prefix, int limit) {
+		int[] ids = this.trie.find(normalize(prefix));
+		List<String> result = new ArrayList<>(Math.min(limit, ids.length));
+
+		for (int i = 0; i < ids.length && result.size() < limit; i++) {
+			result.add(this.names[ids[i]]);
+		}
+		return result;
+	}
+
+	/**
+	 * Fuzzy search for station names by the trigrams (runs of three letters) they share with the query,
+	 * scored by Dice's coefficient.
+	 *
+	 * @param query station name, possibly misspelled
+	 * @param limit most names to return
+	 * @return station names, best matches first
+	 */
+	public List<String> search(String query, int limit) {
+		Set<String> grams = trigrams(normalize(query));
+		int[] common = new int[this.names.length];
+
+		for (String gram : grams) {
+			int[] ids = this.trigrams.get(gram);
+			if (ids != null) {
+				for (int id : ids) {
+					common[id]++;
+				}
+			}
+		}
+
+		List<Integer> matches = new ArrayList<>();
+		double[] score = new double[this.names.length];
+
+		for (int i = 0; i < this.names.length; i++) {
+			score[i] = 2.0 * common[i] / (grams.size() + this.gramCounts[i]);
+			if (score[i] >= 0.4) {
+				matches.add(i);
+			}
+		}
+		matches.sort((a, b) -> Double.compare(score[b], score[a]));
+
+		List<String> result = new ArrayList<>();
+		for (int i = 0; i < matches.size() && i < limit; i++) {
+			result.add(this.names[matches.get(i)]);
+		}
+		return result;
+	}
+
+	public int size() {
+		return this.names.length;
+	}
+
+	/**
+	 * A character trie where every node stores the ids of the names found below it, in the order they were
+	 * inserted, so completing a prefix is only a walk down the prefix.
+	 */
+	private static class Trie {
+		private final Map<Character, Trie> children = new HashMap<>();
+		private Set<Integer> found = new LinkedHashSet<>();
+		private int[] ids;
+
+		void insert(String key, int id) {
+			Trie node = this;
+			node.found.add(id);
+
+			for (int i = 0; i < key.length(); i++) {
+				node = node.children.computeIfAbsent(key.charAt(i), c -> new Trie());
+				node.found.add(id);
+			}
+		}
+
+		void compile() {
+			this.ids = this.found.stream().mapToInt(Integer::intValue).toArray();
+			this.found = null;
+			this.children.values().forEach(Trie::compile);
+		}
+
+		int[] find(String prefix) {
+			Trie node = this;
+			for (int i = 0; i < prefix.length() && node != null; i++) {
+				node = node.children.get(prefix.charAt(i));
+			}
+			return node == null ? new int[0] : node.ids;
+		}
+	}
+}
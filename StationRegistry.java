@@ -0,0 +1,196 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * StationRegistry gives every row of the stations csv file and every physical station a dense int id.
+ *
+ * A row is a single platform (one row per set of lines), so a physical station (a station complex) is every
+ * row with the same name within TRANSFER_DISTANCE of each other, the same rows that are joined by transfer
+ * Edges. Rows are merged into stations as they are registered: each row is put into a HashMap by its name and
+ * the cell of a grid (as wide as TRANSFER_DISTANCE) that it falls within, so only the rows of the same name in
+ * the cells around it are ever measured against it, and registering N rows takes O(N) time.
+ *
+ * Row ids are the order of the csv file (and so the ids of the CompactGraph that generateGraph builds), and
+ * station ids are the order in which stations are first seen. Nodes take their identity from these ids (see
+ * Node.equals), so Nodes can be hashed cheaply and indexed by arrays.
+ */
+public class StationRegistry {
+	private final String[] names;
+	private final double[] latitudes, longitudes;
+
+	// Station of every row, and the rows of every station (stations[first[s]] to stations[first[s + 1]]).
+	private final int[] station;
+	private final int[] first, rows;
+	private final int stations;
+
+	private StationRegistry(List<ServiceRules.Station> rows) {
+		int size = rows.size();
+
+		this.names = new String[size];
+		this.latitudes = new double[size];
+		this.longitudes = new double[size];
+		this.station = new int[size];
+
+		for (int i = 0; i < size; i++) {
+			ServiceRules.Station row = rows.get(i);
+			this.names[i] = row.getName();
+			this.latitudes[i] = row.getLatitude();
+			this.longitudes[i] = row.getLongitude();
+		}
+
+		/*
+		Rows of the same station are joined within a disjoint set as they are found, then every set is
+		given the next station id in the order of its first row.
+		 */
+		int[] parent = new int[size];
+		Map<Cell, List<Integer>> cells = new HashMap<>();
+		double width = width(MetroGraph.TRANSFER_DISTANCE);
+
+		for (int i = 0; i < size; i++) {
+			parent[i] = i;
+			double[] point = point(this.latitudes[i], this.longitudes[i]);
+			int x = (int) Math.floor(point[0] / width), y = (int) Math.floor(point[1] / width), z = (int) Math.floor(point[2] / width);
+
+			for (int dx = -1; dx <= 1; dx++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dz = -1; dz <= 1; dz++) {
+						List<Integer> cell = cells.get(new Cell(this.names[i], x + dx, y + dy, z + dz));
+						if (cell == null) {
+							continue;
+						}
+						for (int j : cell) {
+							if (this.distance(i, j) <= MetroGraph.TRANSFER_DISTANCE) {
+								union(parent, i, j);
+							}
+						}
+					}
+				}
+			}
+			cells.computeIfAbsent(new Cell(this.names[i], x, y, z), cell -> new ArrayList<>(2)).add(i);
+		}
+
+		int[] ids = new int[size];
+		Arrays.fill(ids, -1);
+		int count = 0;
+
+		for (int i = 0; i < size; i++) {
+			int root = find(parent, i);
+			if (ids[root] == -1) {
+				ids[root] = count++;
+			}
+			this.station[i] = ids[root];
+		}
+		this.stations = count;
+
+		// Rows of every station, in order of row id.
+		this.first = new int[count + 1];
+		this.rows = new int[size];
+		for (int i = 0; i < size; i++) {
+			this.first[this.station[i] + 1]++;
+		}
+		for (int s = 0; s < count; s++) {
+			this.first[s + 1] += this.first[s];
+		}
+		int[] next = Arrays.copyOf(this.first, count);
+		for (int i = 0; i < size; i++) {
+			this.rows[next[this.station[i]]++] = i;
+		}
+	}
+
+	/**
+	 * @param rows compiled rows of a stations csv file
+	 * @return StationRegistry of the rows
+	 */
+	public static StationRegistry of(List<ServiceRules.Station> rows) {
+		return new StationRegistry(rows);
+	}
+
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	private static void union(int[] parent, int i, int j) {
+		int a = find(parent, i), b = find(parent, j);
+		if (a != b) {
+			parent[Math.max(a, b)] = Math.min(a, b);
+		}
+	}
+
+	/**
+	 * Rows are placed on a unit sphere (as within SpatialIndex), where the chord between two rows within a
+	 * distance is never longer than the chord of that distance, so cells as wide as that chord hold every row
+	 * close enough to a row within its own cell or the 26 around it.
+	 */
+	private static double width(double distance) {
+		return 2 * Math.sin(Math.min(distance / MetroGraph.EARTH_RADIUS, Math.PI) / 2) * (1 + 1e-9);
+	}
+
+	private static double[] point(double latitude, double longitude) {
+		double lat = Math.toRadians(latitude), lon = Math.toRadians(longitude);
+		return new double[] { Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat) };
+	}
+
+	/**
+	 * @return distance in km between two rows
+	 */
+	public double distance(int row, int other) {
+		return MetroGraph.distance(this.latitudes[row], this.longitudes[row], this.latitudes[other], this.longitudes[other]);
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	public int size() {
+		return this.names.length;
+	}
+
+	/**
+	 * @return number of physical stations
+	 */
+	public int stations() {
+		return this.stations;
+	}
+
+	/**
+	 * @return id of the physical station of a row
+	 */
+	public int station(int row) {
+		return this.station[row];
+	}
+
+	/**
+	 * @return ids of the rows of a physical station, in order of row id
+	 */
+	public int[] rows(int station) {
+		return Arrays.copyOfRange(this.rows, this.first[station], this.first[station + 1]);
+	}
+
+	/**
+	 * @return true, if two rows are of the same physical station, false otherwise
+	 */
+	public boolean same(int row, int other) {
+		return this.station[row] == this.station[other];
+	}
+
+	public String name(int row) {
+		return this.names[row];
+	}
+
+	/**
+	 * A cell of the grid, of a single station name.
+	 */
+	private record Cell(String name, int x, int y, int z) {}
+}
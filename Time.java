@@ -38,39 +38,12 @@ public class Time {
 		} catch (Exception e) { throw new IOException("Incorrect/invalid input of time. Use military standard."); }
 		return true;
 	}
-}
 
-/**
- * This Day class is for simple use to classify days, validate days or just
- * any use case involving the day. Mostly used to avoid redundancy or easy
- * checks.
- */
-class Day {
-	public enum DayType {
-		WEEKDAY, WEEKEND;
-	}
-	private static final String[] WEEKDAYS = {
-			"monday", "tuesday", "wednesday", "thursday", "friday"
-	};
-	private static final String[] WEEKENDS = {
-			"saturday", "sunday"
-	};
-
-	public static boolean validate(String day) throws IOException {
-		boolean validate = day.equalsIgnoreCase("monday") || day.equalsIgnoreCase("tuesday") || day.equalsIgnoreCase("wednesday") || day.equalsIgnoreCase("thursday") ||
-							day.equalsIgnoreCase("friday") || day.equalsIgnoreCase("saturday") || day.equalsIgnoreCase("sunday");
-
-		if (!validate) {
-			throw new IOException("Incorrect/invalid input of day.");
-		}
-		return validate;
-	}
-	public static DayType type(String day) {
-		for (String weekend : WEEKENDS) {
-			if (day.equalsIgnoreCase(weekend)) {
-				return DayType.WEEKEND;
-			}
-		}
-		return DayType.WEEKDAY;
+	/**
+	 * @param time time in military standard
+	 * @return true, if time is within rush hours, false otherwise
+	 */
+	public static boolean rush(int time) {
+		return (time >= 700 && time <= 1000) || (time >= 1600 && time <= 2000);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,393 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * TimeDependentRouter plans a trip from a time of departure, across as many service periods as the trip takes:
+ * a trip that begins at 19:50 on a weekday rides the lines of the evening rush until 20:00, then only those that
+ * run after it.
+ *
+ * It holds a single graph of every station (row of the csv file) and every Edge of any service period, each Edge
+ * along with a mask of the service periods it runs within (bit n is set if it runs within service period n, as in
+ * ServiceRules.Rule). No graph of any single time is built. Edges take their length over SPEED to ride (or walk),
+ * as Path.toString assumes, and an Edge that does not run when we reach its station is waited for, until the
+ * beginning of the next service period it runs within.
+ *
+ * Times are minutes since Monday 00:00. Since waiting for an Edge never lets us arrive earlier than leaving later
+ * would, a Dijkstra search by time of arrival finds the earliest arrival, just as one by distance finds the
+ * shortest path.
+ */
+public class TimeDependentRouter {
+	/**
+	 * Speed of a train (and of a transfer) in km / min.
+	 */
+	public static final double SPEED = 0.35;
+
+	public static final int DAY = 24 * 60, WEEK = 7 * DAY;
+
+	public static final String[] DAYS = { "Monday", "Tuesday", "Wednesday", "Thursday", "Friday", "Saturday", "Sunday" };
+
+	/*
+	The week split into the runs of minutes within the same service period: the first minute of every run, its
+	service period, and the run every minute of the week is within.
+	 */
+	private static final int[] STARTS, PERIODS;
+	private static final short[] RUNS = new short[WEEK];
+
+	static {
+		List<int[]> runs = new ArrayList<>();
+		for (int minute = 0; minute < WEEK; minute++) {
+			int period = period(minute);
+			if (runs.isEmpty() || runs.get(runs.size() - 1)[1] != period) {
+				runs.add(new int[] { minute, period });
+			}
+			RUNS[minute] = (short) (runs.size() - 1);
+		}
+		STARTS = runs.stream().mapToInt(run -> run[0]).toArray();
+		PERIODS = runs.stream().mapToInt(run -> run[1]).toArray();
+	}
+
+	private final StationRegistry registry;
+	private final String[] names;
+	private final Map<String, Integer> rows = new HashMap<>();
+
+	// Every Edge of any service period in CSR form (as in CompactGraph), with its line, mask and minutes to take it.
+	private final int[] offsets, targets, lines, masks;
+	private final double[] minutes;
+	private final String[] lineNames;
+
+	private final Queue<Query> queries = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param registry StationRegistry of the stations
+	 * @param offsets first Edge of every station (and one past the last Edge)
+	 * @param targets station every Edge goes to
+	 * @param lines line of every Edge, or CompactGraph.TRANSFER
+	 * @param masks service periods every Edge runs within
+	 * @param lengths length of every Edge in km
+	 * @param lineNames name of every line
+	 */
+	public TimeDependentRouter(StationRegistry registry, int[] offsets, int[] targets, int[] lines, int[] masks, double[] lengths, String[] lineNames) {
+		this.registry = registry;
+		this.names = new String[registry.size()];
+		this.offsets = offsets;
+		this.targets = targets;
+		this.lines = lines;
+		this.masks = masks;
+		this.lineNames = lineNames;
+		this.minutes = new double[lengths.length];
+
+		for (int e = 0; e < lengths.length; e++) {
+			this.minutes[e] = lengths[e] / SPEED;
+		}
+		for (int row = 0; row < registry.size(); row++) {
+			this.names[row] = registry.name(row);
+			this.rows.putIfAbsent(registry.name(row), row);
+		}
+	}
+
+	/**
+	 * @return service period of a minute of the week
+	 */
+	public static int period(int minute) {
+		int day = minute / DAY % 7, time = minute % DAY / 60 * 100 + minute % 60;
+		return ServiceRules.period(time, Day.type(DAYS[day]));
+	}
+
+	/**
+	 * @return minute of the week of a time (in military standard) and day
+	 */
+	public static int minute(int time, String day) {
+		for (int i = 0; i < DAYS.length; i++) {
+			if (DAYS[i].equalsIgnoreCase(day)) {
+				return i * DAY + time / 100 * 60 + time % 100;
+			}
+		}
+		throw new IllegalArgumentException("Invalid day \"" + day + "\".");
+	}
+
+	/**
+	 * @return time of the minute of the week in military standard, e.g. 1950
+	 */
+	public static int time(double minute) {
+		int whole = (int) Math.floor(minute) % WEEK;
+		return whole % DAY / 60 * 100 + whole % 60;
+	}
+
+	/**
+	 * Find the earliest time, from a time on, at which an Edge runs.
+	 *
+	 * @param mask service periods the Edge runs within
+	 * @param time minutes since Monday 00:00 (of any week)
+	 * @return the time itself if the Edge runs then, the beginning of the next service period it runs within, or
+	 * Double.MAX_VALUE if it never runs
+	 */
+	public static double available(int mask, double time) {
+		int minute = (int) Math.floor(time), within = minute % WEEK, run = RUNS[within];
+
+		if ((mask >>> PERIODS[run] & 1) != 0) {
+			return time;
+		}
+		for (int i = 1; i < STARTS.length; i++) {
+			int next = (run + i) % STARTS.length;
+			if ((mask >>> PERIODS[next] & 1) != 0) {
+				return minute - within + STARTS[next] + (next < run ? WEEK : 0);
+			}
+		}
+		return Double.MAX_VALUE;
+	}
+
+	/**
+	 * Here we find the trip that arrives earliest at any row of the destination's station complex, leaving from
+	 * any row of the origin's at the time of departure.
+	 *
+	 * @param origin name of the origin station
+	 * @param destination name of the destination station
+	 * @param departure minutes since Monday 00:00
+	 * @return Trip, or empty if the destination cannot be reached
+	 * @throws NoSuchElementException if a station does not exist
+	 */
+	public Optional<Trip> route(String origin, String destination, double departure) {
+		int source = this.row(origin), target = this.row(destination);
+
+		Query query = this.queries.poll();
+		if (query == null) {
+			query = new Query();
+		}
+		Metrics.Span span = Metrics.begin(Metrics.Phase.SEARCH);
+		try {
+			return query.route(this.registry.rows(this.registry.station(source)), this.registry.station(target), departure);
+		} finally {
+			Metrics.end(span);
+			this.queries.offer(query);
+		}
+	}
+
+	/**
+	 * @return the first row of a station, by its name as stored within our StationRegistry
+	 * @throws NoSuchElementException if no row has this name
+	 */
+	private int row(String station) {
+		Integer row = this.rows.get(station);
+		if (row == null) {
+			throw new NoSuchElementException("Invalid station \"" + station + "\".");
+		}
+		return row;
+	}
+
+	public int size() {
+		return this.names.length;
+	}
+
+	/**
+	 * @return number of Edges, of every service period
+	 */
+	public int edges() {
+		return this.targets.length;
+	}
+
+	/**
+	 * A single trip found by the router: its stops, and for every stop after the first, the line ridden to it
+	 * (null for a transfer), when we left the stop before and when we arrived.
+	 */
+	public class Trip {
+		private final int[] stops;
+		private final String[] lines;
+		private final double[] departures, arrivals;
+
+		Trip(int[] stops, String[] lines, double[] departures, double[] arrivals) {
+			this.stops = stops;
+			this.lines = lines;
+			this.departures = departures;
+			this.arrivals = arrivals;
+		}
+
+		/**
+		 * @return rows of the stops, from origin to destination
+		 */
+		public int[] stops() {
+			return this.stops;
+		}
+		public String station(int stop) {
+			return names[this.stops[stop]];
+		}
+
+		/**
+		 * @return line ridden from the stop before to a stop, or null for a transfer (or the origin)
+		 */
+		public String line(int stop) {
+			return this.lines[stop];
+		}
+
+		/**
+		 * @return minutes since Monday 00:00 at which we left the stop before a stop (the departure, for the origin)
+		 */
+		public double departure(int stop) {
+			return this.departures[stop];
+		}
+
+		/**
+		 * @return minutes since Monday 00:00 at which we arrived at a stop
+		 */
+		public double arrival(int stop) {
+			return this.arrivals[stop];
+		}
+
+		/**
+		 * @return minutes from the departure to the arrival at the destination, waits included
+		 */
+		public double minutes() {
+			return this.arrivals[this.arrivals.length - 1] - this.departures[0];
+		}
+
+		/**
+		 * We display every stop along with the time we arrive at it, and the line (and minutes) taken to reach the
+		 * next, noting every wait for a line that has not yet begun running.
+		 */
+		@Override
+		public String toString() {
+			StringBuilder builder = new StringBuilder();
+
+			for (int i = 0; i < this.stops.length; i++) {
+				builder.append(this.station(i)).append(" ").append(clock(i == 0 ? this.departures[0] : this.arrivals[i]));
+
+				if (i + 1 < this.stops.length) {
+					double wait = this.departures[i + 1] - this.arrivals[i];
+					if (wait >= 0.5) {
+						builder.append(String.format(Locale.ROOT, " [waits %.0f mins]", wait));
+					}
+					if (this.lines[i + 1] != null) {
+						builder.append(" (").append(this.lines[i + 1]).append(")");
+					}
+					builder.append(String.format(Locale.ROOT, " [%.2f mins] -> ", this.arrivals[i + 1] - this.departures[i + 1]));
+				}
+			}
+			return builder.toString();
+		}
+
+		private static String clock(double minute) {
+			int whole = (int) Math.floor(minute) % WEEK;
+			return String.format(Locale.ROOT, "%s %02d:%02d", DAYS[whole / DAY].substring(0, 3), whole % DAY / 60, whole % 60);
+		}
+	}
+
+	/**
+	 * A Query holds the buffers of a single search, so that searches do not allocate beyond their results.
+	 */
+	private class Query {
+		private final double[] arrival = new double[names.length];
+		private final int[] via = new int[names.length];
+		private final IndexedHeap heap = new IndexedHeap(names.length);
+
+		// Stations whose arrival has been set, to be reset once the search is done.
+		private final int[] touched = new int[names.length];
+		private int count;
+
+		Query() {
+			Arrays.fill(this.arrival, Double.MAX_VALUE);
+			Arrays.fill(this.via, -1);
+		}
+
+		Optional<Trip> route(int[] sources, int target, double departure) {
+			try {
+				for (int source : sources) {
+					this.arrival[source] = departure;
+					this.touched[this.count++] = source;
+					this.heap.offer(source, departure);
+				}
+
+				while (!this.heap.isEmpty()) {
+					int node = this.heap.poll();
+					if (registry.station(node) == target) {
+						return Optional.of(this.trip(node, departure));
+					}
+					double time = this.arrival[node];
+
+					for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+						double leave = available(masks[e], time);
+						if (leave == Double.MAX_VALUE) {
+							continue;
+						}
+						int next = targets[e];
+						double arrive = leave + minutes[e];
+						if (arrive < this.arrival[next]) {
+							if (this.arrival[next] == Double.MAX_VALUE) {
+								this.touched[this.count++] = next;
+							}
+							this.arrival[next] = arrive;
+							this.via[next] = e;
+							this.heap.offer(next, arrive);
+						}
+					}
+				}
+				return Optional.empty();
+			} finally {
+				for (int i = 0; i < this.count; i++) {
+					this.arrival[this.touched[i]] = Double.MAX_VALUE;
+					this.via[this.touched[i]] = -1;
+				}
+				this.count = 0;
+				this.heap.clear();
+			}
+		}
+
+		/**
+		 * Follow the Edges we arrived through back from the destination.
+		 */
+		private Trip trip(int destination, double departure) {
+			int length = 1;
+			for (int node = destination; this.via[node] != -1; node = source(this.via[node])) {
+				length++;
+			}
+
+			int[] stops = new int[length];
+			String[] lines = new String[length];
+			double[] departures = new double[length], arrivals = new double[length];
+
+			int node = destination;
+			for (int i = length - 1; i >= 0; i--) {
+				int edge = this.via[node];
+				stops[i] = node;
+				arrivals[i] = this.arrival[node];
+
+				if (edge == -1) {
+					departures[i] = departure;
+				} else {
+					lines[i] = TimeDependentRouter.this.lines[edge] == CompactGraph.TRANSFER ? null : lineNames[TimeDependentRouter.this.lines[edge]];
+					departures[i] = arrivals[i] - minutes[edge];
+					node = source(edge);
+				}
+			}
+			return new Trip(stops, lines, departures, arrivals);
+		}
+	}
+
+	/**
+	 * @return station an Edge goes from
+	 */
+	private int source(int edge) {
+		int low = 0, high = this.names.length - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (this.offsets[middle] <= edge) {
+				low = middle;
+			} else {
+				high = middle - 1;
+			}
+		}
+		return low;
+	}
+}
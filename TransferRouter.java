@@ -0,0 +1,565 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * DO NOT COPY, MODIFY OR DISTRIBUTE
+ *
+ * - Pride
+ */
+
+/**
+ * TransferRouter finds paths by the number of trains taken as well as by distance, in the style of RAPTOR
+ * (round-based public transit routing).
+ *
+ * The search runs in rounds: round k finds the shortest distance to every station using at most k trains. Within
+ * a round, every line that runs at a station improved by the last round is ridden once, boarding wherever the last
+ * round left us, then transfers within station complexes are walked. A path found in round k is only kept if it is
+ * shorter than every path found with fewer trains, so the paths found make up the Pareto set of (transfers, distance).
+ *
+ * Rather than a single sequence of stops, every line is the tree of its sequences (see LineTopology), so riding
+ * from the trunk of a line onto one of its branches is not a transfer. A line is ridden by two passes over its tree,
+ * one from the branches up to the end of the trunk and one back down, which finds the closest stop to board at for
+ * every stop of the line. A line cut by a change to the graph (see Graph.update) is the forest of its pieces
+ * instead, every piece ridden on its own.
+ *
+ * Rounds go on until one improves no station (or, for fewestTransfers, until one reaches the target), so a path is
+ * found however many trains it takes.
+ */
+public class TransferRouter {
+	/**
+	 * Rounds that a Query holds buffers for from the start. A search that needs more rounds adds them as it goes.
+	 */
+	public static final int ROUNDS = 8;
+
+	/**
+	 * Least improvement (in km) for a path to count as shorter, so that the same path added up in a
+	 * different order is not taken for a shorter one.
+	 */
+	public static final double EPSILON = 1e-6;
+
+	private static final int COPY = 0, ORIGIN = 1, RIDE = 2, WALK = 3;
+
+	private final CompactGraph graph;
+
+	/*
+	Stops of every line, each stop coming after the stop above it within the line's tree, along with the position
+	of the stop above it, the distance to it and how deep the stop is within the tree.
+	 */
+	private final String[] lines;
+	private final int[][] stops, up, depth;
+	private final double[][] lengths;
+	private final int longest;
+
+	// Lines running at every station, and the transfers out of every station.
+	private final int[] servedOffsets, served, walkOffsets, walks;
+	private final double[] walkWeights;
+
+	private final Queue<Query> queries = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param graph CompactGraph to route over
+	 * @param topology LineTopology of the Nodes of the graph
+	 */
+	public TransferRouter(CompactGraph graph, LineTopology topology) {
+		int size = graph.size(), count = topology.sequences().size();
+
+		this.graph = graph;
+		this.lines = new String[count];
+		this.stops = new int[count][];
+		this.up = new int[count][];
+		this.depth = new int[count][];
+		this.lengths = new double[count][];
+
+		int[] position = new int[size];
+		Arrays.fill(position, -1);
+
+		int line = 0, longest = 0;
+		for (var entry : topology.sequences().entrySet()) {
+			List<Integer> stops = new ArrayList<>(), up = new ArrayList<>();
+
+			/*
+			Every sequence after the first begins with the stop it branches off from, which we have already seen.
+			 */
+			for (List<MetroGraph.Node> sequence : entry.getValue()) {
+				int above = -1;
+
+				for (MetroGraph.Node node : sequence) {
+					int id = graph.id(node);
+					if (id == -1) {
+						continue;
+					}
+					if (position[id] == -1) {
+						position[id] = stops.size();
+						stops.add(id);
+						up.add(above);
+					}
+					above = position[id];
+				}
+			}
+
+			int n = stops.size();
+			this.lines[line] = entry.getKey();
+			this.stops[line] = new int[n];
+			this.up[line] = new int[n];
+			this.depth[line] = new int[n];
+			this.lengths[line] = new double[n];
+
+			for (int i = 0; i < n; i++) {
+				int stop = stops.get(i), above = up.get(i);
+
+				this.stops[line][i] = stop;
+				this.up[line][i] = above;
+				if (above != -1) {
+					this.depth[line][i] = this.depth[line][above] + 1;
+					this.lengths[line][i] = graph.distance(stop, stops.get(above));
+				}
+			}
+			for (int stop : stops) {
+				position[stop] = -1;
+			}
+			longest = Math.max(longest, n);
+			line++;
+		}
+		this.longest = longest;
+
+		this.servedOffsets = new int[size + 1];
+		for (int[] stops : this.stops) {
+			for (int stop : stops) {
+				this.servedOffsets[stop + 1]++;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			this.servedOffsets[i + 1] += this.servedOffsets[i];
+		}
+		this.served = new int[this.servedOffsets[size]];
+		int[] next = new int[size];
+		for (int l = 0; l < count; l++) {
+			for (int stop : this.stops[l]) {
+				this.served[this.servedOffsets[stop] + next[stop]++] = l;
+			}
+		}
+
+		/*
+		Transfers are the Edges of the graph without a line.
+		 */
+		this.walkOffsets = new int[size + 1];
+		for (int node = 0; node < size; node++) {
+			for (int e = graph.first(node); e < graph.end(node); e++) {
+				if (graph.line(e) == CompactGraph.TRANSFER) {
+					this.walkOffsets[node + 1]++;
+				}
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			this.walkOffsets[i + 1] += this.walkOffsets[i];
+		}
+		this.walks = new int[this.walkOffsets[size]];
+		this.walkWeights = new double[this.walks.length];
+		for (int node = 0, at = 0; node < size; node++) {
+			for (int e = graph.first(node); e < graph.end(node); e++) {
+				if (graph.line(e) == CompactGraph.TRANSFER) {
+					this.walks[at] = graph.target(e);
+					this.walkWeights[at++] = graph.weight(e);
+				}
+			}
+		}
+	}
+
+	public CompactGraph graph() {
+		return this.graph;
+	}
+
+	/**
+	 * @return number of lines
+	 */
+	public int lines() {
+		return this.lines.length;
+	}
+
+	/**
+	 * @return name of a line (as in Train)
+	 */
+	public String line(int line) {
+		return this.lines[line];
+	}
+
+	/**
+	 * Find every path from the source to the target that no other path beats on both transfers and distance.
+	 *
+	 * @param source id of the origin Node
+	 * @param target id of the destination Node
+	 * @return Journeys, fewest transfers first (so each one takes more transfers than the last, but is shorter)
+	 */
+	public List<Journey> route(int source, int target) {
+		return this.route(source, target, false);
+	}
+
+	/**
+	 * Find the path from the source to the target that takes the fewest transfers, and the shortest of those.
+	 * The search stops at the first round that reaches the target.
+	 *
+	 * @param source id of the origin Node
+	 * @param target id of the destination Node
+	 * @return Journey, or empty if the target cannot be reached
+	 */
+	public Optional<Journey> fewestTransfers(int source, int target) {
+		List<Journey> journeys = this.route(source, target, true);
+		return journeys.isEmpty() ? Optional.empty() : Optional.of(journeys.get(0));
+	}
+
+	private List<Journey> route(int source, int target, boolean first) {
+		Query query = this.queries.poll();
+		if (query == null) {
+			query = new Query();
+		}
+		try {
+			return query.route(source, target, first);
+		} finally {
+			this.queries.offer(query);
+		}
+	}
+
+	/**
+	 * A single path found by the router.
+	 */
+	public static class Journey {
+		private final int rides;
+		private final double distance;
+		private final int[] stops;
+
+		Journey(int rides, double distance, int[] stops) {
+			this.rides = rides;
+			this.distance = distance;
+			this.stops = stops;
+		}
+
+		/**
+		 * @return number of trains taken
+		 */
+		public int rides() {
+			return this.rides;
+		}
+
+		/**
+		 * @return number of transfers between trains
+		 */
+		public int transfers() {
+			return Math.max(this.rides - 1, 0);
+		}
+
+		/**
+		 * @return distance in km
+		 */
+		public double distance() {
+			return this.distance;
+		}
+
+		/**
+		 * @return ids of the Nodes of the path, from origin to destination
+		 */
+		public int[] stops() {
+			return this.stops;
+		}
+	}
+
+	/**
+	 * A Query holds the buffers of a single search: the best distance to every station for every round,
+	 * and how it was found (its label), so that searches do not allocate beyond their results.
+	 */
+	private class Query {
+		private final int size = graph.size();
+
+		private double[][] best = new double[ROUNDS + 1][this.size];
+		private int[][] kind = new int[ROUNDS + 1][this.size];
+		private int[][] via = new int[ROUNDS + 1][this.size], board = new int[ROUNDS + 1][this.size], alight = new int[ROUNDS + 1][this.size];
+		private final double[] star = new double[this.size];
+
+		/*
+		Lines to ride and stations we can board at this round (those improved by the last round), the same for the
+		next round, and the stations improved by the rides of this round.
+		 */
+		private boolean[] scan = new boolean[lines.length], next = new boolean[lines.length];
+		private boolean[] marked = new boolean[this.size], nextMarked = new boolean[this.size];
+		private boolean any;
+		private final boolean[] improved = new boolean[this.size];
+		private final int[] changed = new int[this.size];
+		private int count;
+
+		private final boolean[] queued = new boolean[this.size];
+		private final int[] queue = new int[this.size + 1];
+		private int head, tail;
+
+		private final double[] riding = new double[longest];
+		private final int[] boarded = new int[longest];
+		// Every round adds at most a ride along one line and the transfers walked after it.
+		private int[] reversed = new int[(ROUNDS + 1) * (longest + this.size) + 1];
+
+		List<Journey> route(int source, int target, boolean first) {
+			Arrays.fill(this.star, Double.MAX_VALUE);
+			Arrays.fill(this.best[0], Double.MAX_VALUE);
+			Arrays.fill(this.next, false);
+			Arrays.fill(this.nextMarked, false);
+			this.any = false;
+
+			// Round 0: we can only walk from the origin.
+			this.best[0][source] = 0;
+			this.star[source] = 0;
+			this.kind[0][source] = ORIGIN;
+			this.head = this.tail = 0;
+			this.mark(source);
+			this.enqueue(source);
+			this.walk(0, target);
+
+			List<Journey> journeys = new ArrayList<>();
+			double found = this.best[0][target];
+			if (found != Double.MAX_VALUE) {
+				journeys.add(new Journey(0, found, this.stops(0, target)));
+			}
+
+			for (int k = 1; this.any && !(first && !journeys.isEmpty()); k++) {
+				this.ensure(k);
+				boolean[] scan = this.next, marked = this.nextMarked;
+				this.next = this.scan;
+				this.scan = scan;
+				this.nextMarked = this.marked;
+				this.marked = marked;
+				Arrays.fill(this.next, false);
+				Arrays.fill(this.nextMarked, false);
+				this.any = false;
+
+				System.arraycopy(this.best[k - 1], 0, this.best[k], 0, this.size);
+				Arrays.fill(this.kind[k], COPY);
+				this.count = 0;
+
+				for (int line = 0; line < lines.length; line++) {
+					if (scan[line]) {
+						this.ride(k, line, target);
+					}
+				}
+
+				for (int i = 0; i < this.count; i++) {
+					int stop = this.changed[i];
+					this.improved[stop] = false;
+					this.mark(stop);
+					this.enqueue(stop);
+				}
+				this.walk(k, target);
+
+				if (this.best[k][target] < found - EPSILON) {
+					found = this.best[k][target];
+					journeys.add(new Journey(k, found, this.stops(k, target)));
+				}
+			}
+			return journeys;
+		}
+
+		/**
+		 * Make room for the labels of round k, doubling our buffers of rounds if they are full. Every round goes on
+		 * only if the last improved a station, which it can only do so many times, so this always ends.
+		 */
+		private void ensure(int k) {
+			if (k < this.best.length) {
+				return;
+			}
+			int rounds = 2 * this.best.length;
+
+			this.best = Arrays.copyOf(this.best, rounds);
+			this.kind = Arrays.copyOf(this.kind, rounds);
+			this.via = Arrays.copyOf(this.via, rounds);
+			this.board = Arrays.copyOf(this.board, rounds);
+			this.alight = Arrays.copyOf(this.alight, rounds);
+			for (int i = k; i < rounds; i++) {
+				this.best[i] = new double[this.size];
+				this.kind[i] = new int[this.size];
+				this.via[i] = new int[this.size];
+				this.board[i] = new int[this.size];
+				this.alight[i] = new int[this.size];
+			}
+			this.reversed = new int[rounds * (longest + this.size) + 1];
+		}
+
+		/**
+		 * Ride a line, boarding at whichever of its stops is closest to each stop (by what the last round
+		 * left us with, plus the distance along the line).
+		 *
+		 * We only board at stations improved by the last round. Boarding anywhere else would only give us
+		 * what boarding there in an earlier round gave us, with one more train.
+		 */
+		private void ride(int k, int line, int target) {
+			int[] stops = TransferRouter.this.stops[line], up = TransferRouter.this.up[line];
+			double[] lengths = TransferRouter.this.lengths[line], last = this.best[k - 1];
+			int n = stops.length;
+
+			for (int i = 0; i < n; i++) {
+				this.riding[i] = this.marked[stops[i]] ? last[stops[i]] : Double.MAX_VALUE;
+				this.boarded[i] = i;
+			}
+
+			// Stops always come after the stop above them, so going backwards we ride every branch up to the trunk...
+			for (int i = n - 1; i > 0; i--) {
+				if (up[i] == -1) {
+					continue; // The root of a piece of a line that has been cut (see LineTopology.within).
+				}
+				double distance = this.riding[i] + lengths[i];
+				if (distance < this.riding[up[i]]) {
+					this.riding[up[i]] = distance;
+					this.boarded[up[i]] = this.boarded[i];
+				}
+			}
+			// ...and going forwards we ride the trunk back down every branch.
+			for (int i = 1; i < n; i++) {
+				if (up[i] == -1) {
+					continue;
+				}
+				double distance = this.riding[up[i]] + lengths[i];
+				if (distance < this.riding[i]) {
+					this.riding[i] = distance;
+					this.boarded[i] = this.boarded[up[i]];
+				}
+			}
+
+			for (int i = 0; i < n; i++) {
+				int stop = stops[i];
+				double distance = this.riding[i];
+
+				if (this.boarded[i] != i && this.improves(stop, distance, target)) {
+					this.best[k][stop] = distance;
+					this.star[stop] = distance;
+					this.kind[k][stop] = RIDE;
+					this.via[k][stop] = line;
+					this.board[k][stop] = this.boarded[i];
+					this.alight[k][stop] = i;
+
+					if (!this.improved[stop]) {
+						this.improved[stop] = true;
+						this.changed[this.count++] = stop;
+					}
+				}
+			}
+		}
+
+		/**
+		 * Walk the transfers out of every queued station. Not every row of a station complex is within walking
+		 * distance of every other, so a station we walk to may be walked on from, and is queued again.
+		 */
+		private void walk(int k, int target) {
+			while (this.head != this.tail) {
+				int stop = this.queue[this.head];
+				this.head = (this.head + 1) % this.queue.length;
+				this.queued[stop] = false;
+
+				for (int i = walkOffsets[stop]; i < walkOffsets[stop + 1]; i++) {
+					int to = walks[i];
+					double distance = this.best[k][stop] + walkWeights[i];
+
+					if (this.improves(to, distance, target)) {
+						this.best[k][to] = distance;
+						this.star[to] = distance;
+						this.kind[k][to] = WALK;
+						this.via[k][to] = stop;
+						this.mark(to);
+						this.enqueue(to);
+					}
+				}
+			}
+		}
+
+		/**
+		 * A station is only worth labelling if we reach it sooner than in any round so far, and sooner than
+		 * the best path to the target found so far.
+		 */
+		private boolean improves(int stop, double distance, int target) {
+			return distance < this.star[stop] - EPSILON && distance < this.star[target] - EPSILON;
+		}
+
+		/**
+		 * Every line running at a station improved this round is ridden next round, boarding at that station.
+		 */
+		private void mark(int stop) {
+			this.nextMarked[stop] = true;
+			for (int i = servedOffsets[stop]; i < servedOffsets[stop + 1]; i++) {
+				this.next[served[i]] = true;
+				this.any = true;
+			}
+		}
+
+		private void enqueue(int stop) {
+			if (!this.queued[stop]) {
+				this.queued[stop] = true;
+				this.queue[this.tail] = stop;
+				this.tail = (this.tail + 1) % this.queue.length;
+			}
+		}
+
+		/**
+		 * Follow the labels back from the target to build the stations of the path.
+		 */
+		private int[] stops(int k, int target) {
+			int length = 0, stop = target;
+
+			while (true) {
+				int label = this.kind[k][stop];
+
+				if (label == COPY) {
+					k--;
+				} else if (label == ORIGIN) {
+					this.reversed[length++] = stop;
+					break;
+				} else if (label == WALK) {
+					this.reversed[length++] = stop;
+					stop = this.via[k][stop];
+				} else {
+					int line = this.via[k][stop], on = this.board[k][stop];
+					length = this.unride(line, this.alight[k][stop], on, length);
+					stop = TransferRouter.this.stops[line][on];
+					k--;
+				}
+			}
+
+			int[] stops = new int[length];
+			for (int i = 0; i < length; i++) {
+				stops[i] = this.reversed[length - 1 - i];
+			}
+			return stops;
+		}
+
+		/**
+		 * Add the stops of a ride, from where we got off back to (but not including) where we got on. Both ends
+		 * climb the line's tree until they meet, the end we got off at adding its stops as it goes, and the end
+		 * we got on at adding them afterwards in reverse.
+		 */
+		private int unride(int line, int off, int on, int length) {
+			int[] stops = TransferRouter.this.stops[line], up = TransferRouter.this.up[line], depth = TransferRouter.this.depth[line];
+			int climbed = 0;
+
+			while (depth[off] > depth[on]) {
+				this.reversed[length++] = stops[off];
+				off = up[off];
+			}
+			while (depth[on] > depth[off]) {
+				this.boarded[climbed++] = on;
+				on = up[on];
+			}
+			while (off != on) {
+				this.reversed[length++] = stops[off];
+				this.boarded[climbed++] = on;
+				off = up[off];
+				on = up[on];
+			}
+
+			// If we got on where both ends met, that stop is left out.
+			if (climbed == 0) {
+				return length;
+			}
+			this.reversed[length++] = stops[off];
+			for (int i = climbed - 1; i > 0; i--) {
+				this.reversed[length++] = stops[this.boarded[i]];
+			}
+			return length;
+		}
+	}
+}